@@ -0,0 +1,61 @@
+package com.tianji.api.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.tianji.api.client.remark.RemarkClient;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.common.utils.UserContext;
+import lombok.RequiredArgsConstructor;
+
+import java.util.*;
+
+/**
+ * 当前用户点赞状态的近端缓存，缓存时间只有几秒，用于合并同一用户短时间内重复的列表查询
+ */
+@RequiredArgsConstructor
+public class LikedStatusCache {
+
+    private final Cache<String, Boolean> likedStatusCaches;
+    private final RemarkClient remarkClient;
+
+    /**
+     * 查询当前用户对业务 id集合中每个的点赞状态
+     * @return 已点赞的业务 id，不会为 null
+     */
+    public Set<Long> isBizLiked(Collection<Long> bizIds) {
+        Long userId = UserContext.getUser();
+        if (userId == null || CollUtils.isEmpty(bizIds)) {
+            return CollUtils.emptySet();
+        }
+        // 1. 读取缓存，记录未命中的业务 id
+        Set<Long> liked = new HashSet<>();
+        List<Long> missIds = new ArrayList<>();
+        for (Long bizId : new LinkedHashSet<>(bizIds)) {
+            Boolean status = likedStatusCaches.getIfPresent(cacheKey(userId, bizId));
+            if (status == null) {
+                missIds.add(bizId);
+            } else if (status) {
+                liked.add(bizId);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return liked;
+        }
+        // 2. 未命中的业务 id一次远程调用批量查询，结果为与请求顺序对齐的位图
+        long[] mask = remarkClient.queryLikedMask(missIds);
+        Map<String, Boolean> statusMap = new HashMap<>(missIds.size());
+        for (int i = 0; i < missIds.size(); i++) {
+            boolean status = mask != null && (i >>> 6) < mask.length && (mask[i >>> 6] & (1L << (i & 63))) != 0;
+            statusMap.put(cacheKey(userId, missIds.get(i)), status);
+            if (status) {
+                liked.add(missIds.get(i));
+            }
+        }
+        // 3. 写入缓存
+        likedStatusCaches.putAll(statusMap);
+        return liked;
+    }
+
+    private static String cacheKey(Long userId, Long bizId) {
+        return userId + ":" + bizId;
+    }
+}
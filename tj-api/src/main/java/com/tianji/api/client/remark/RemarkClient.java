@@ -5,6 +5,7 @@ import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import java.util.List;
 import java.util.Set;
 
 @FeignClient(value = "remark-service", fallbackFactory = RemarkClientFallback.class)
@@ -13,4 +14,10 @@ public interface RemarkClient {
     @GetMapping("/likes/list")
     Set<Long> isBizLiked(@RequestParam("bizIds") Iterable<Long> bizIds);
 
+    /**
+     * 批量查询点赞状态，第 i个业务点赞时，结果中第 i / 64个 long的第 i % 64位为 1
+     */
+    @GetMapping("/likes/mask")
+    long[] queryLikedMask(@RequestParam("bizIds") List<Long> bizIds);
+
 }
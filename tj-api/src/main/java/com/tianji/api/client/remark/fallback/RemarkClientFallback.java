@@ -5,6 +5,7 @@ import com.tianji.common.utils.CollUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.openfeign.FallbackFactory;
 
+import java.util.List;
 import java.util.Set;
 
 @Slf4j
@@ -18,6 +19,11 @@ public class RemarkClientFallback implements FallbackFactory<RemarkClient> {
             public Set<Long> isBizLiked(Iterable<Long> bizIds) {
                 return CollUtils.emptySet();
             }
+
+            @Override
+            public long[] queryLikedMask(List<Long> bizIds) {
+                return new long[(bizIds.size() + 63) >>> 6];
+            }
         };
     }
 }
@@ -0,0 +1,30 @@
+package com.tianji.api.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tianji.api.cache.LikedStatusCache;
+import com.tianji.api.client.remark.RemarkClient;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+
+public class LikedStatusCacheConfig {
+    /**
+     * 点赞状态的caffeine缓存，有效期很短，点赞后最多几秒即可看到最新状态
+     */
+    @Bean
+    public Cache<String, Boolean> likedStatusCaches(){
+        return Caffeine.newBuilder()
+                .initialCapacity(1024)
+                .maximumSize(100_000)
+                .expireAfterWrite(Duration.ofSeconds(3))
+                .build();
+    }
+    /**
+     * 点赞状态的缓存工具
+     */
+    @Bean
+    public LikedStatusCache likedStatusCache(Cache<String, Boolean> likedStatusCaches, RemarkClient remarkClient){
+        return new LikedStatusCache(likedStatusCaches, remarkClient);
+    }
+}
@@ -80,5 +80,7 @@ public interface MqConstants {
 
         /*领取优惠券的key*/
         String COUPON_RECEIVE = "coupon.receive";
+        /*批量兑换优惠券的key，消息体为多个领券记录*/
+        String COUPON_RECEIVE_BATCH = "coupon.receive.batch";
     }
 }
@@ -0,0 +1,62 @@
+package com.tianji.learning.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tianji.learning.domain.pojo.PointsBoard;
+import com.tianji.learning.domain.vo.PointsBoardItemVO;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+public class LearningCacheConfig {
+    /**
+     * 课程总小节数的caffeine缓存，课程上下架时失效
+     */
+    @Bean
+    public Cache<Long, Integer> courseSectionNumCaches() {
+        return Caffeine.newBuilder()
+                .initialCapacity(1_000) // 初始容量
+                .maximumSize(20_000) // 最大缓存数量
+                .expireAfterWrite(Duration.ofMinutes(30)) // 有效期，兜底 MQ消息丢失的情况
+                .build();
+    }
+
+    /**
+     * 课表id与课程id对应关系的caffeine缓存，课表创建后课程id不会再变化
+     */
+    @Bean
+    public Cache<Long, Long> lessonCourseIdCaches() {
+        return Caffeine.newBuilder()
+                .initialCapacity(10_000) // 初始容量
+                .maximumSize(200_000) // 最大缓存数量
+                .expireAfterAccess(Duration.ofHours(2)) // 一段时间没有学习的课表自动清理
+                .build();
+    }
+
+    /**
+     * 历史赛季榜单分页的caffeine缓存，历史赛季的榜单不会再变化
+     */
+    @Bean
+    public Cache<String, List<PointsBoardItemVO>> historyBoardPageCaches() {
+        return Caffeine.newBuilder()
+                .initialCapacity(100) // 初始容量
+                .maximumSize(2_000) // 最大缓存数量
+                .expireAfterAccess(Duration.ofHours(1)) // 一段时间没有访问的分页自动清理
+                .build();
+    }
+
+    /**
+     * 用户在历史赛季中的积分和排名的caffeine缓存，key为 赛季id:用户id，历史赛季的排名不会再变化
+     */
+    @Bean
+    public Cache<String, PointsBoard> historyMyBoardCaches() {
+        return Caffeine.newBuilder()
+                .initialCapacity(1_000) // 初始容量
+                .maximumSize(100_000) // 最大缓存数量
+                .expireAfterAccess(Duration.ofMinutes(30)) // 一段时间没有访问的用户自动清理
+                .build();
+    }
+}
@@ -0,0 +1,61 @@
+package com.tianji.learning.config;
+
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class LearningMqConfig {
+    /**
+     * 批量消费积分消息的监听容器工厂的名称
+     */
+    public static final String POINTS_BATCH_CONTAINER_FACTORY = "pointsBatchContainerFactory";
+    /**
+     * 批量消费点赞数消息的监听容器工厂的名称
+     */
+    public static final String LIKES_BATCH_CONTAINER_FACTORY = "likesBatchContainerFactory";
+
+    /**
+     * 批量消费积分消息的监听容器工厂
+     */
+    @Bean(POINTS_BATCH_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory pointsBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory,
+            LearningProperties learningProperties) {
+        LearningProperties.Points properties = learningProperties.getPoints();
+        return batchContainerFactory(configurer, connectionFactory,
+                properties.getBatchSize(), properties.getReceiveTimeoutMillis());
+    }
+
+    /**
+     * 批量消费点赞数消息的监听容器工厂，攒批窗口就是点赞数合并更新的窗口，与积分分开配置
+     */
+    @Bean(LIKES_BATCH_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory likesBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory,
+            LearningProperties learningProperties) {
+        LearningProperties.Likes properties = learningProperties.getLikes();
+        return batchContainerFactory(configurer, connectionFactory,
+                properties.getBatchSize(), properties.getReceiveTimeoutMillis());
+    }
+
+    /**
+     * 消息按批次交给监听方法，重试、确认等配置与默认工厂保持一致
+     */
+    private SimpleRabbitListenerContainerFactory batchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory,
+            int batchSize, long receiveTimeoutMillis) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        // 1. 开启批量监听，由消费者攒批
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMillis);
+        // 2. 预取数量不能小于批次大小，否则永远攒不满一批
+        factory.setPrefetchCount(batchSize);
+        return factory;
+    }
+}
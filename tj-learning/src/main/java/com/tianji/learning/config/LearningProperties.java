@@ -0,0 +1,115 @@
+package com.tianji.learning.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "tj.learning")
+public class LearningProperties {
+    /**
+     * 学习记录延迟任务的配置
+     */
+    private Delay delay = new Delay();
+    /**
+     * 积分消息批量消费的配置
+     */
+    private Points points = new Points();
+    /**
+     * 积分排行榜的配置
+     */
+    private Board board = new Board();
+    /**
+     * 点赞数变更消息的批量消费配置
+     */
+    private Likes likes = new Likes();
+
+    @Data
+    public static class Delay {
+        /**
+         * 延迟队列的实现方式，redis：基于 Redis ZSet的分布式延迟队列，local：JVM内的 DelayQueue
+         */
+        private String type = "redis";
+        /**
+         * 播放进度的延迟持久化时间，单位秒
+         */
+        private int delaySeconds = 20;
+        /**
+         * Redis延迟队列的分片数量，分片越多，并发领取任务时的竞争越小
+         */
+        private int shards = 8;
+        /**
+         * 每个节点上的消费者线程数量
+         */
+        private int consumers = 2;
+        /**
+         * 消费者单次领取任务的最大数量
+         */
+        private int batchSize = 100;
+        /**
+         * 任务领取后未确认的超时时间，单位秒，超时后任务会被重新投递给其它消费者
+         */
+        private int ackTimeoutSeconds = 30;
+        /**
+         * 没有到期任务时，消费者的空闲等待时间，单位毫秒
+         */
+        private long idleMillis = 500;
+        /**
+         * 批量刷新到数据库的最大任务数量
+         */
+        private int flushBatchSize = 500;
+        /**
+         * 攒批的最长时间，单位毫秒，达到该时间后即使数量不足也会刷新
+         */
+        private long flushIntervalMillis = 200;
+    }
+
+    @Data
+    public static class Points {
+        /**
+         * 单次批量消费的最大消息数量
+         */
+        private int batchSize = 200;
+        /**
+         * 攒批时等待消息的最长时间，单位毫秒，达到该时间后即使数量不足也会消费
+         */
+        private long receiveTimeoutMillis = 500;
+    }
+
+    @Data
+    public static class Likes {
+        /**
+         * 单次批量消费的最大消息数量，同一批次中同一回复的点赞数合并为一次更新
+         */
+        private int batchSize = 500;
+        /**
+         * 攒批时等待消息的最长时间，单位毫秒，即点赞数合并更新的窗口
+         */
+        private long receiveTimeoutMillis = 1000;
+    }
+
+    @Data
+    public static class Board {
+        /**
+         * 赛季榜单持久化时，每页从 Redis读取、一次写入数据库的数据量
+         */
+        private int archivePageSize = 1000;
+        /**
+         * 赛季榜单持久化时，并行写入数据库的线程数量
+         */
+        private int archiveThreads = 4;
+        /**
+         * 已读取但未写入数据库的页数上限，避免读取速度过快导致内存占用过高
+         */
+        private int archiveQueueCapacity = 8;
+        /**
+         * 当前赛季榜单热点缓存的名次数量，只有前 hotSize名的分页会走缓存
+         */
+        private int hotSize = 1000;
+        /**
+         * 当前赛季榜单热点缓存的刷新间隔，单位毫秒
+         */
+        private long hotTtlMillis = 1000;
+    }
+}
@@ -0,0 +1,32 @@
+package com.tianji.learning.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ThreadPoolConfig {
+    /**
+     * 赛季榜单持久化时并行写入数据库的线程池
+     */
+    @Bean
+    public Executor pointsBoardArchiveExecutor(LearningProperties learningProperties) {
+        int threads = learningProperties.getBoard().getArchiveThreads();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        // 1. 核心线程数量
+        executor.setCorePoolSize(threads);
+        // 2. 线程池最大线程数量
+        executor.setMaxPoolSize(threads);
+        // 3. 任务队列大小，同一节点上多个分片同时执行时，后提交的消费者排队等待
+        executor.setQueueCapacity(threads * 4);
+        // 4. 线程名称
+        executor.setThreadNamePrefix("points-board-archive-");
+        // 5. 拒绝策略
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
@@ -10,4 +10,47 @@ public interface RedisConstants {
      * 积分排行榜的 key的前缀，boards:{} 参数为当前赛季的日期
      */
     String POINTS_BOARD_KEY_PREFIX = "boards:";
+
+    /**
+     * 学习记录延迟任务队列的 key的前缀，learning:record:delay:{分片} 后面拼接分片编号，
+     * 分片编号用{}包裹作为 hash tag，保证同一分片的待执行队列和未确认队列落在同一个槽位
+     */
+    String LEARNING_RECORD_DELAY_KEY_PREFIX = "learning:record:delay:";
+
+    /**
+     * 学习记录延迟任务未确认队列的 key的后缀
+     */
+    String LEARNING_RECORD_DELAY_ACK_SUFFIX = ":ack";
+
+    /**
+     * 课程总小节数缓存的 key的前缀，learning:course:sections:{} 参数为课程id
+     */
+    String COURSE_SECTION_NUM_KEY_PREFIX = "learning:course:sections:";
+
+    /**
+     * 用户每日各方式获得积分的计数器 key的前缀，points:daily:{}:{} 第一个参数为 uid，第二个为日期，
+     * hash的 field为积分方式，value为当日获得的积分
+     */
+    String POINTS_DAILY_KEY_PREFIX = "points:daily:";
+
+    /**
+     * 赛季榜单持久化进度的 key的前缀，boards:archive:{} 参数为赛季的日期，
+     * 使用 bitmap记录，第 n位为 1表示第 n页已经写入数据库
+     */
+    String POINTS_BOARD_ARCHIVE_KEY_PREFIX = "boards:archive:";
+
+    /**
+     * 历史赛季榜单快照的 key的前缀，boards:history:{} 参数为赛季 id，赛季持久化完成后由当月的榜单重命名得到
+     */
+    String POINTS_BOARD_HISTORY_KEY_PREFIX = "boards:history:";
+
+    /**
+     * 从数据库回填历史赛季快照时使用的临时 key的前缀，boards:history:loading:{} 参数为赛季 id，写完后重命名为快照
+     */
+    String POINTS_BOARD_HISTORY_LOADING_KEY_PREFIX = "boards:history:loading:";
+
+    /**
+     * 回填历史赛季快照的锁的 key的前缀，boards:history:lock:{} 参数为赛季 id，保证同一赛季只有一个实例回填
+     */
+    String POINTS_BOARD_HISTORY_LOCK_KEY_PREFIX = "boards:history:lock:";
 }
@@ -25,7 +25,13 @@ public class SignRecordController {
 
     @ApiOperation("查询本月签到记录")
     @GetMapping
-    public Byte[] querySignRecords() {
+    public int[] querySignRecords() {
         return recordService.querySignRecords();
     }
+
+    @ApiOperation("查询本月签到记录的位图，最低位为本月第一天")
+    @GetMapping("bitmap")
+    public Integer querySignBitmap() {
+        return recordService.querySignBitmap();
+    }
 }
@@ -0,0 +1,45 @@
+package com.tianji.learning.domain.pojo;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * 月度签到记录，由 redis中的签到位图压缩而来，user_id和 month为唯一索引
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("sign_record")
+public class SignRecord implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 签到记录id
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 签到月份，例如 202401
+     */
+    private Integer month;
+
+    /**
+     * 签到位图，最低位为当月第一天，第 n位为 1表示第 n+1天已签到
+     */
+    private Integer bitmap;
+}
@@ -2,29 +2,51 @@ package com.tianji.learning.handle;
 
 import com.tianji.common.utils.CollUtils;
 import com.tianji.common.utils.DateUtils;
+import com.tianji.common.utils.StringUtils;
+import com.tianji.learning.config.LearningProperties;
 import com.tianji.learning.constants.RedisConstants;
 import com.tianji.learning.domain.pojo.PointsBoard;
 import com.tianji.learning.service.IPointsBoardSeasonService;
 import com.tianji.learning.service.IPointsBoardService;
-import com.tianji.learning.utils.TableInfoContext;
 import com.xxl.job.core.context.XxlJobHelper;
 import com.xxl.job.core.handler.annotation.XxlJob;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 持久化 redis赛季榜单数据到数据库的定时任务
  */
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class PointsBoardPersistentHandler {
     private final IPointsBoardSeasonService seasonService;
     private final IPointsBoardService boardService;
     private final StringRedisTemplate redisTemplate;
+    private final LearningProperties learningProperties;
+    private final Executor pointsBoardArchiveExecutor;
+
+    /**
+     * 向队列放入榜单页时单次等待的时间，等待期间会检查消费者是否还在运行
+     */
+    private static final long OFFER_TIMEOUT_SECONDS = 5;
+    /**
+     * 通知消费者结束以及等待消费者写完剩余数据的最长时间
+     */
+    private static final long FINISH_TIMEOUT_SECONDS = 60;
 
     /**
      * 定时生成数据库表
@@ -44,56 +66,162 @@ public class PointsBoardPersistentHandler {
 
     /**
      * 定时将 redis数据库持久化到上面新生成的表中
+     * <p>
+     * 1. 当前线程作为生产者，按照分片依次从 redis读取榜单页，放入有界队列
+     * 2. 多个消费者线程并行从队列中取出榜单页，批量写入数据库，读取和写入互不阻塞
+     * 3. 每写完一页就在 redis中记录进度，任务失败后重新执行时会跳过已经写入的页
      */
     @XxlJob("savePointsBoardToDb") // 任务名称
-    public void savePointsBoardToDb() {
+    public void savePointsBoardToDb() throws InterruptedException {
         // 1. 获取上个月的时间
         LocalDate lastMonth = LocalDate.now().minusMonths(1);
-        // 2. 计算动态表名
-        // 2.1 查询赛季 id
+        // 2. 查询赛季 id
         Integer seasonId = seasonService.querySeasonIdByTime(lastMonth);
         if (seasonId == null) {
             return;// 赛季不存在
         }
-        // 2.2 存入 ThreadLocal
-        TableInfoContext.setInfo("points_board_" + seasonId);
-        // 3. 查询 redis上月的榜单数据
-        String key = RedisConstants.POINTS_BOARD_KEY_PREFIX + lastMonth.format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
+        // 3. 计算 redis上月的榜单 key、持久化进度 key和总页数
+        String suffix = lastMonth.format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
+        String key = RedisConstants.POINTS_BOARD_KEY_PREFIX + suffix;
+        String checkpointKey = RedisConstants.POINTS_BOARD_ARCHIVE_KEY_PREFIX + suffix;
+        LearningProperties.Board properties = learningProperties.getBoard();
+        int pageSize = properties.getArchivePageSize();
+        Long size = redisTemplate.opsForZSet().zCard(key);
+        long pages = size == null ? 0 : (size + pageSize - 1) / pageSize;
+        // 4. 启动消费者，并行写入数据库
+        int threads = properties.getArchiveThreads();
+        BlockingQueue<ArchivePage> queue = new ArrayBlockingQueue<>(properties.getArchiveQueueCapacity());
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        LongAdder rows = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            try {
+                pointsBoardArchiveExecutor.execute(() -> archivePages(seasonId, checkpointKey, queue, failure, rows, latch));
+            } catch (RejectedExecutionException e) {
+                failure.compareAndSet(null, e);
+                latch.countDown();
+            }
+        }
+        // 5. 读取 redis中的榜单数据，由于数据量很大，所以分批查数据，
+        // 如果单次查询的数据过多，可能造成网络堵塞，带宽占满，而且数据库单次写入的数据量也是有限的
+        long begin = System.currentTimeMillis();
         int index = XxlJobHelper.getShardIndex();
         int total = XxlJobHelper.getShardTotal();
-        int pageNo = index + 1, pageSize = 1000;
-        // 由于数据量很大，所以分批查数据，如果单次查询的数据过多，可能造成网络堵塞，带宽占满，
-        // 而且数据库单次写入的数据量也是有限的
-        while (true) {
-            List<PointsBoard> boardList = boardService.queryCurrentBoardList(key, pageNo, pageSize);
-            if (CollUtils.isEmpty(boardList)) {
-                break;
+        try {
+            for (int pageNo = index + 1; pageNo <= pages && failure.get() == null; pageNo += total) {
+                // 5.1 跳过之前已经写入的页
+                if (Boolean.TRUE.equals(redisTemplate.opsForValue().getBit(checkpointKey, pageNo))) {
+                    continue;
+                }
+                List<PointsBoard> boardList = boardService.queryCurrentBoardList(key, pageNo, pageSize);
+                if (CollUtils.isEmpty(boardList)) {
+                    break;
+                }
+                // 5.2 将排名信息写入 id
+                boardList.forEach(e -> {
+                    e.setId(e.getRank().longValue());
+                    e.setRank(null);
+                });
+                if (!offer(queue, new ArchivePage(pageNo, boardList), latch)) {
+                    failure.compareAndSet(null, new IllegalStateException("榜单持久化的消费者已全部退出"));
+                    break;
+                }
+            }
+        } finally {
+            // 6. 通知所有消费者结束，并等待剩余数据写入完成，消费者异常退出时不会一直阻塞
+            for (int i = 0; i < threads; i++) {
+                if (!queue.offer(ArchivePage.END, FINISH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    log.error("赛季{}榜单持久化，通知消费者结束超时", seasonId);
+                    break;
+                }
+            }
+            if (!latch.await(FINISH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                failure.compareAndSet(null, new IllegalStateException("等待榜单持久化的消费者结束超时"));
+            }
+        }
+        // 7. 统计写入速度
+        long cost = Math.max(System.currentTimeMillis() - begin, 1);
+        String report = StringUtils.format("赛季{}榜单持久化，分片{}/{}，写入{}条，耗时{}ms，{}条/秒",
+                seasonId, index, total, rows.sum(), cost, rows.sum() * 1000 / cost);
+        log.info(report);
+        XxlJobHelper.log(report);
+        if (failure.get() != null) {
+            log.error("赛季{}榜单持久化失败，重新执行任务将从断点继续", seasonId, failure.get());
+            XxlJobHelper.handleFail("榜单持久化失败：" + failure.get().getMessage());
+        }
+    }
+
+    /**
+     * 放入榜单页，队列已满时分段等待，所有消费者都已退出时返回 false
+     */
+    private boolean offer(BlockingQueue<ArchivePage> queue, ArchivePage page, CountDownLatch latch) throws InterruptedException {
+        while (!queue.offer(page, OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            if (latch.getCount() == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 消费者，从队列中取出榜单页写入数据库，并记录进度
+     */
+    private void archivePages(Integer seasonId, String checkpointKey, BlockingQueue<ArchivePage> queue,
+                              AtomicReference<Exception> failure, LongAdder rows, CountDownLatch latch) {
+        try {
+            while (true) {
+                ArchivePage page = queue.take();
+                if (page == ArchivePage.END) {
+                    return;
+                }
+                if (failure.get() != null) {
+                    continue;// 已经有其它线程失败，剩余的页留给下次执行
+                }
+                try {
+                    boardService.saveBoardsBySeasonId(seasonId, page.boards);
+                    redisTemplate.opsForValue().setBit(checkpointKey, page.pageNo, true);
+                    rows.add(page.boards.size());
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
             }
-            // 4. 持久化到数据库
-            // 4.1 将排名信息写入 id
-            boardList.forEach(e -> {
-                e.setId(e.getRank().longValue());
-                e.setRank(null);
-            });
-            // 4.2 持久化
-            boardService.saveBatch(boardList);
-            // 5. 翻页
-            pageNo += total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            latch.countDown();
         }
-        // 任务结束，移除动态表名
-        TableInfoContext.remove();
+    }
+
+    @RequiredArgsConstructor
+    private static class ArchivePage {
+        private static final ArchivePage END = new ArchivePage(-1, CollUtils.emptyList());
+        private final int pageNo;
+        private final List<PointsBoard> boards;
     }
 
     /**
      * 定时清理 redis的数据
+     * 上月榜单已经持久化完成，不再删除，而是重命名为历史赛季榜单的快照，历史赛季的查询直接读取快照
      */
     @XxlJob("clearPointsBoardFromRedis") // 任务名称
     public void clearPointsBoardFromRedis() {
         // 1. 获取上个月的时间
         LocalDate lastMonth = LocalDate.now().minusMonths(1);
         // 2. 计算 key
-        String key = RedisConstants.POINTS_BOARD_KEY_PREFIX + lastMonth.format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
-        // 3. 异步删除 key
-        redisTemplate.unlink(key);
+        String suffix = lastMonth.format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
+        String key = RedisConstants.POINTS_BOARD_KEY_PREFIX + suffix;
+        // 3. 删除持久化进度
+        redisTemplate.unlink(RedisConstants.POINTS_BOARD_ARCHIVE_KEY_PREFIX + suffix);
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(key))) {
+            return;
+        }
+        // 4. 重命名为历史赛季快照，快照永久保留，赛季不存在时直接异步删除
+        Integer seasonId = seasonService.querySeasonIdByTime(lastMonth);
+        if (seasonId == null) {
+            redisTemplate.unlink(key);
+            return;
+        }
+        // 查询时可能已经从数据库回填过快照，当月榜单才是完整数据，直接覆盖
+        redisTemplate.rename(key, RedisConstants.POINTS_BOARD_HISTORY_KEY_PREFIX + seasonId);
     }
 }
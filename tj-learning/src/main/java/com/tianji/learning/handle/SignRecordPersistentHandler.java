@@ -0,0 +1,106 @@
+package com.tianji.learning.handle;
+
+import com.tianji.learning.constants.RedisConstants;
+import com.tianji.learning.domain.pojo.SignRecord;
+import com.tianji.learning.mapper.SignRecordMapper;
+import com.xxl.job.core.context.XxlJobHelper;
+import com.xxl.job.core.handler.annotation.XxlJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 将上月 redis中的签到位图压缩持久化到数据库的定时任务，持久化完成后删除 redis中的位图以释放内存
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SignRecordPersistentHandler {
+    private static final int BATCH_SIZE = 500;
+
+    private final StringRedisTemplate redisTemplate;
+    private final SignRecordMapper signRecordMapper;
+
+    @XxlJob("compactSignRecordJob") // 任务名称
+    public void compactSignRecords() {
+        // 1. 获取上个月的时间
+        String month = LocalDate.now().minusMonths(1).format(DateTimeFormatter.ofPattern("yyyyMM"));
+        // 2. 扫描上月所有用户的签到位图，sign:uid:{userId}:{yyyyMM}
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(RedisConstants.SIGN_RECORD_KEY_PREFIX + "*:" + month)
+                .count(BATCH_SIZE)
+                .build();
+        List<String> keys = new ArrayList<>(BATCH_SIZE);
+        long total = 0;
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                keys.add(cursor.next());
+                if (keys.size() >= BATCH_SIZE) {
+                    total += compact(keys, Integer.valueOf(month));
+                    keys.clear();
+                }
+            }
+        }
+        total += compact(keys, Integer.valueOf(month));
+        log.info("{}月签到记录持久化完成，共{}条", month, total);
+        XxlJobHelper.log("{}月签到记录持久化完成，共{}条", month, total);
+    }
+
+    /**
+     * 批量读取签到位图，写入数据库后删除
+     */
+    private int compact(List<String> keys, Integer month) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        // 1. 通过管道批量读取位图的原始字节
+        List<Object> bitmaps = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.get(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        // 2. 转换为月度签到记录
+        List<SignRecord> records = new ArrayList<>(keys.size());
+        int prefixLength = RedisConstants.SIGN_RECORD_KEY_PREFIX.length();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] data = (byte[]) bitmaps.get(i);
+            if (data == null) {
+                continue;
+            }
+            String key = keys.get(i);
+            Long userId = Long.valueOf(key.substring(prefixLength, key.lastIndexOf(':')));
+            records.add(new SignRecord().setUserId(userId).setMonth(month).setBitmap(toBitmap(data)));
+        }
+        // 3. 写入数据库，再删除 redis中的位图
+        if (!records.isEmpty()) {
+            signRecordMapper.insertBatch(records);
+        }
+        redisTemplate.unlink(keys);
+        return records.size();
+    }
+
+    /**
+     * redis位图中第 0位是第一个字节的最高位，转换为最低位为当月第一天的整数
+     */
+    private static int toBitmap(byte[] data) {
+        int bitmap = 0;
+        for (int day = 0; day < 31 && day / 8 < data.length; day++) {
+            if ((data[day / 8] >> (7 - day % 8) & 1) == 1) {
+                bitmap |= 1 << day;
+            }
+        }
+        return bitmap;
+    }
+}
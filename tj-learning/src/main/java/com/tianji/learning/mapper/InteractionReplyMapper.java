@@ -2,6 +2,9 @@ package com.tianji.learning.mapper;
 
 import com.tianji.learning.domain.pojo.InteractionReply;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface InteractionReplyMapper extends BaseMapper<InteractionReply> {
 
+    /**
+     * 一条语句批量更新回答或评论的点赞数
+     */
+    int updateLikedTimesBatch(@Param("replies") List<InteractionReply> replies);
 }
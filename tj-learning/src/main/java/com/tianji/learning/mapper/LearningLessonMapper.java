@@ -1,9 +1,12 @@
 package com.tianji.learning.mapper;
 
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import com.tianji.learning.domain.pojo.LearningLesson;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 
+import java.util.List;
+
 /**
 * 学生课程表 Mapper
 *
@@ -58,4 +61,22 @@ public interface LearningLessonMapper extends BaseMapper<LearningLesson> {
      * @return
      */
     Integer queryTotalPlans(Long userId);
+
+    /**
+     * 批量更新课表最近一次学习的小节和时间
+     *
+     * @param lessons 课表id、最近学习的小节id和时间
+     * @return 更新数量
+     */
+    int updateLatestLearnBatch(@Param("lessons") List<LearningLesson> lessons);
+
+    /**
+     * 已学习小节数加一，并在同一条语句中根据课程总小节数更新课表状态：
+     * 全部学完则为已学完，第一次学习则为学习中，其它情况保持不变
+     *
+     * @param id 课表id
+     * @param sectionNum 课程总小节数
+     * @return 更新数量
+     */
+    int incrLearnedSections(@Param("id") Long id, @Param("sectionNum") Integer sectionNum);
 }
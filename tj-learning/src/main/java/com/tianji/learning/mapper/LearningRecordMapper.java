@@ -22,4 +22,14 @@ public interface LearningRecordMapper extends BaseMapper<LearningRecord> {
             @Param("userId") Long userId,
             @Param("beginTime") LocalDateTime beginTime,
             @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 批量更新学习记录的播放进度
+     */
+    int updateMomentBatch(@Param("records") List<LearningRecord> records);
+
+    /**
+     * 批量更新学习记录的播放进度，只在数据库中的进度落后时更新
+     */
+    int advanceMomentBatch(@Param("records") List<LearningRecord> records);
 }
@@ -4,6 +4,8 @@ import com.tianji.learning.domain.pojo.PointsBoard;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 /**
  * <p>
  * 学霸天梯榜 Mapper 接口
@@ -15,4 +17,9 @@ import org.apache.ibatis.annotations.Param;
 public interface PointsBoardMapper extends BaseMapper<PointsBoard> {
 
     void createTableBySeasonId(@Param("tableName") String tableName);
+
+    /**
+     * 批量写入指定赛季的榜单表，主键冲突时覆盖，保证任务重试时可以重复写入
+     */
+    int insertBatchToTable(@Param("tableName") String tableName, @Param("boards") List<PointsBoard> boards);
 }
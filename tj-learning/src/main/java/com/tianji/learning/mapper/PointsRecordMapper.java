@@ -24,4 +24,12 @@ public interface PointsRecordMapper extends BaseMapper<PointsRecord> {
 
     @Select("select type, sum(points) as points from points_record ${ew.customSqlSegment} group by type")
     List<PointsRecord> queryPointsByDate(@Param(Constants.WRAPPER) LambdaQueryWrapper<PointsRecord> queryWrapper);
+
+    @Select("select user_id, type, sum(points) as points from points_record ${ew.customSqlSegment} group by user_id, type")
+    List<PointsRecord> queryPointsByUsersAndDate(@Param(Constants.WRAPPER) LambdaQueryWrapper<PointsRecord> queryWrapper);
+
+    /**
+     * 批量新增积分记录
+     */
+    int insertBatch(@Param("records") List<PointsRecord> records);
 }
@@ -0,0 +1,20 @@
+package com.tianji.learning.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.tianji.learning.domain.pojo.SignRecord;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ * 月度签到记录 Mapper 接口
+ * </p>
+ */
+public interface SignRecordMapper extends BaseMapper<SignRecord> {
+
+    /**
+     * 批量写入月度签到记录，记录已存在时覆盖，保证任务重试时可以重复写入
+     */
+    int insertBatch(@Param("records") List<SignRecord> records);
+}
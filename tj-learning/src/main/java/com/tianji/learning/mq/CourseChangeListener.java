@@ -0,0 +1,33 @@
+package com.tianji.learning.mq;
+
+import com.tianji.common.constants.MqConstants;
+import com.tianji.learning.utils.CourseSectionNumCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CourseChangeListener {
+    private final CourseSectionNumCache sectionNumCache;
+
+    /**
+     * 监听课程上下架的消息，失效课程小节数的缓存
+     * 队列不指定名称，每个节点都会声明一个独占的匿名队列，保证所有节点的本地缓存都能收到失效消息
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue,
+            exchange = @Exchange(name = MqConstants.Exchange.COURSE_EXCHANGE, type = ExchangeTypes.TOPIC),
+            key = {MqConstants.Key.COURSE_UP_KEY, MqConstants.Key.COURSE_DOWN_KEY}
+    ))
+    public void listenCourseChange(Long courseId) {
+        log.debug("监听到课程{}上下架，失效小节数缓存", courseId);
+        sectionNumCache.invalidate(courseId);
+    }
+}
@@ -1,6 +1,8 @@
 package com.tianji.learning.mq;
 
 import com.tianji.common.constants.MqConstants;
+import com.tianji.learning.config.LearningMqConfig;
+import com.tianji.learning.domain.pojo.PointsRecord;
 import com.tianji.learning.enums.PointsRecordType;
 import com.tianji.learning.mq.message.SignInMessage;
 import com.tianji.learning.service.IPointsRecordService;
@@ -13,6 +15,9 @@ import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Slf4j
 @Component
 @RequiredArgsConstructor
@@ -26,11 +31,11 @@ public class LearningPointsListener {
             value = @Queue(name = "sign.points.queue", durable = "true"),
             exchange = @Exchange(name = MqConstants.Exchange.LEARNING_EXCHANGE, type = ExchangeTypes.TOPIC),
             key = MqConstants.Key.SIGN_IN
-    ))
+    ), containerFactory = LearningMqConfig.POINTS_BATCH_CONTAINER_FACTORY)
     // 由于该方法获取到的积分是动态的，所以通过实体类封装积分和 userId
-    public void listenSignMessage(SignInMessage message) {
-        log.debug("监听到签到消息...");
-        pointsRecordService.addPointsRecord(message.getUserId(), message.getPoints(), PointsRecordType.SIGN);
+    public void listenSignMessage(List<SignInMessage> messages) {
+        log.debug("监听到{}条签到消息...", messages.size());
+        pointsRecordService.addPointsRecords(toRecords(messages, PointsRecordType.SIGN));
     }
 
     /**
@@ -40,9 +45,9 @@ public class LearningPointsListener {
             value = @Queue(name = "qa.points.queue", durable = "true"),
             exchange = @Exchange(name = MqConstants.Exchange.LEARNING_EXCHANGE, type = ExchangeTypes.TOPIC),
             key = MqConstants.Key.WRITE_REPLY
-    ))
-    public void listenWriteReplyMessage(Long userId) {
-        pointsRecordService.addPointsRecord(userId, 5, PointsRecordType.QA);
+    ), containerFactory = LearningMqConfig.POINTS_BATCH_CONTAINER_FACTORY)
+    public void listenWriteReplyMessage(List<SignInMessage> messages) {
+        pointsRecordService.addPointsRecords(toRecords(messages, PointsRecordType.QA));
     }
 
     /**
@@ -52,9 +57,9 @@ public class LearningPointsListener {
             value = @Queue(name = "learning.points.queue", durable = "true"),
             exchange = @Exchange(name = MqConstants.Exchange.LEARNING_EXCHANGE, type = ExchangeTypes.TOPIC),
             key = MqConstants.Key.LEARN_SECTION
-    ))
-    public void listenLearningMessage(Long userId) {
-        pointsRecordService.addPointsRecord(userId, 10, PointsRecordType.LEARNING);
+    ), containerFactory = LearningMqConfig.POINTS_BATCH_CONTAINER_FACTORY)
+    public void listenLearningMessage(List<SignInMessage> messages) {
+        pointsRecordService.addPointsRecords(toRecords(messages, PointsRecordType.LEARNING));
     }
 
     /**
@@ -64,9 +69,9 @@ public class LearningPointsListener {
             value = @Queue(name = "note.points.queue", durable = "true"),
             exchange = @Exchange(name = MqConstants.Exchange.LEARNING_EXCHANGE, type = ExchangeTypes.TOPIC),
             key = MqConstants.Key.WRITE_NOTE
-    ))
-    public void listenNoteMessage(Long userId) {
-        pointsRecordService.addPointsRecord(userId, 3, PointsRecordType.NOTE);
+    ), containerFactory = LearningMqConfig.POINTS_BATCH_CONTAINER_FACTORY)
+    public void listenNoteMessage(List<Long> userIds) {
+        pointsRecordService.addPointsRecords(toRecords(userIds, 3, PointsRecordType.NOTE));
     }
 
     /**
@@ -76,8 +81,24 @@ public class LearningPointsListener {
             value = @Queue(name = "comment.points.queue", durable = "true"),
             exchange = @Exchange(name = MqConstants.Exchange.LEARNING_EXCHANGE, type = ExchangeTypes.TOPIC),
             key = MqConstants.Key.WRITE_COMMENT
-    ))
-    public void listenCommentMessage(Long userId) {
-        pointsRecordService.addPointsRecord(userId, 10, PointsRecordType.COMMENT);
+    ), containerFactory = LearningMqConfig.POINTS_BATCH_CONTAINER_FACTORY)
+    public void listenCommentMessage(List<Long> userIds) {
+        pointsRecordService.addPointsRecords(toRecords(userIds, 10, PointsRecordType.COMMENT));
+    }
+
+    private List<PointsRecord> toRecords(List<SignInMessage> messages, PointsRecordType type) {
+        List<PointsRecord> records = new ArrayList<>(messages.size());
+        for (SignInMessage message : messages) {
+            records.add(new PointsRecord().setUserId(message.getUserId()).setPoints(message.getPoints()).setType(type));
+        }
+        return records;
+    }
+
+    private List<PointsRecord> toRecords(List<Long> userIds, int points, PointsRecordType type) {
+        List<PointsRecord> records = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            records.add(new PointsRecord().setUserId(userId).setPoints(points).setType(type));
+        }
+        return records;
     }
 }
@@ -2,8 +2,10 @@ package com.tianji.learning.mq;
 
 import com.tianji.api.remark.LikeTimesDTO;
 import com.tianji.common.constants.MqConstants;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.learning.config.LearningMqConfig;
 import com.tianji.learning.domain.pojo.InteractionReply;
-import com.tianji.learning.service.IInteractionReplyService;
+import com.tianji.learning.mapper.InteractionReplyMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.ExchangeTypes;
@@ -14,29 +16,56 @@ import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class LikeTimesChangeListener {
+    // 单条 UPDATE语句更新的最大回复数量，避免 SQL过长
+    private static final int UPDATE_BATCH_SIZE = 1000;
 
-    private final IInteractionReplyService replyService;
+    private final InteractionReplyMapper replyMapper;
 
+    /**
+     * 批量消费点赞数变更消息，一个攒批窗口内的多条消息合并后一条语句更新
+     */
     @RabbitListener(bindings = @QueueBinding(
             value = @Queue(name = "qa.liked.times.queue", durable = "true"),
             exchange = @Exchange(name = MqConstants.Exchange.LIKE_RECORD_EXCHANGE, type = ExchangeTypes.TOPIC),
             key = MqConstants.Key.QA_LIKED_TIMES_KEY
-    ))
-    public void listenReplyLikedTimesChange(List<LikeTimesDTO> likeTimesDTO) {
-        log.debug("监听到回答或评论的点赞数变更消息");
-        List<InteractionReply> replies = new ArrayList<>(likeTimesDTO.size());
-        for (LikeTimesDTO timesDTO : likeTimesDTO) {
+    ), containerFactory = LearningMqConfig.LIKES_BATCH_CONTAINER_FACTORY)
+    public void listenReplyLikedTimesChange(List<List<LikeTimesDTO>> messages) {
+        log.debug("监听到回答或评论的点赞数变更消息，共 {} 条", messages.size());
+        // 1. 合并同一回复的点赞数，点赞数是总数，后到的消息覆盖先到的消息
+        Map<Long, Integer> likedTimesMap = new LinkedHashMap<>();
+        for (List<LikeTimesDTO> message : messages) {
+            if (CollUtils.isEmpty(message)) {
+                continue;
+            }
+            for (LikeTimesDTO timesDTO : message) {
+                likedTimesMap.put(timesDTO.getBizId(), timesDTO.getLikeTimes());
+            }
+        }
+        if (likedTimesMap.isEmpty()) {
+            return;
+        }
+        // 2. 一条 UPDATE ... CASE id语句批量更新
+        List<InteractionReply> replies = new ArrayList<>(Math.min(likedTimesMap.size(), UPDATE_BATCH_SIZE));
+        for (Map.Entry<Long, Integer> entry : likedTimesMap.entrySet()) {
             InteractionReply reply = new InteractionReply();
-            reply.setId(timesDTO.getBizId());
-            reply.setLikedTimes(timesDTO.getLikeTimes());
+            reply.setId(entry.getKey());
+            reply.setLikedTimes(entry.getValue());
             replies.add(reply);
+            if (replies.size() >= UPDATE_BATCH_SIZE) {
+                replyMapper.updateLikedTimesBatch(replies);
+                replies = new ArrayList<>(UPDATE_BATCH_SIZE);
+            }
+        }
+        if (!replies.isEmpty()) {
+            replyMapper.updateLikedTimesBatch(replies);
         }
-        replyService.updateBatchById(replies);
     }
 }
@@ -22,4 +22,6 @@ public interface IPointsBoardService extends IService<PointsBoard> {
     List<PointsBoard> queryCurrentBoardList(String key, Integer pageNo, Integer pageSize);
 
     void createTableBySeasonId(Integer seasonId);
+
+    void saveBoardsBySeasonId(Integer seasonId, List<PointsBoard> boards);
 }
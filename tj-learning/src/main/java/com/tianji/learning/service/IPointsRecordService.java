@@ -19,5 +19,7 @@ public interface IPointsRecordService extends IService<PointsRecord> {
 
     void addPointsRecord(Long userId, int i, PointsRecordType qa);
 
+    void addPointsRecords(List<PointsRecord> records);
+
     List<PointsStatisticsVO> queryMyPointsToday();
 }
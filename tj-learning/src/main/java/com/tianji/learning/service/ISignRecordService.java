@@ -5,7 +5,9 @@ import com.tianji.learning.domain.vo.SignResultVO;
 public interface ISignRecordService {
     SignResultVO addSignRecords();
 
-    Byte[] querySignRecords();
+    int[] querySignRecords();
+
+    int querySignBitmap();
 
 
 }
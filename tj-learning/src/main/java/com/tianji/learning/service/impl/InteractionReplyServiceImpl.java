@@ -2,7 +2,7 @@ package com.tianji.learning.service.impl;
 
 import com.baomidou.mybatisplus.core.metadata.OrderItem;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
-import com.tianji.api.client.remark.RemarkClient;
+import com.tianji.api.cache.LikedStatusCache;
 import com.tianji.api.client.user.UserClient;
 import com.tianji.api.dto.user.UserDTO;
 import com.tianji.common.autoconfigure.mq.RabbitMqHelper;
@@ -48,7 +48,7 @@ public class InteractionReplyServiceImpl extends ServiceImpl<InteractionReplyMap
 
     private final IInteractionQuestionService questionService;
     private final UserClient userClient;
-    private final RemarkClient remarkClient;
+    private final LikedStatusCache likedStatusCache;
     private final RabbitMqHelper mqHelper;
 
     /**
@@ -146,7 +146,7 @@ public class InteractionReplyServiceImpl extends ServiceImpl<InteractionReplyMap
             userMap = userDTOS.stream().collect(Collectors.toMap(UserDTO::getId, u -> u));
         }
         // 3.4 查询用户点赞状态
-        Set<Long> bizLiked = remarkClient.isBizLiked(answerIds);
+        Set<Long> bizLiked = likedStatusCache.isBizLiked(answerIds);
         // 4. 封装 VO
         List<ReplyVO> list = new ArrayList<>(records.size());
         for (InteractionReply record : records) {
@@ -1,7 +1,6 @@
 package com.tianji.learning.service.impl;
 
-import com.tianji.api.client.course.CourseClient;
-import com.tianji.api.dto.course.CourseFullInfoDTO;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.tianji.api.dto.leanring.LearningLessonDTO;
 import com.tianji.api.dto.leanring.LearningRecordDTO;
 import com.tianji.common.autoconfigure.mq.RabbitMqHelper;
@@ -13,13 +12,14 @@ import com.tianji.common.utils.UserContext;
 import com.tianji.learning.domain.dto.LearningRecordFormDTO;
 import com.tianji.learning.domain.pojo.LearningLesson;
 import com.tianji.learning.domain.pojo.LearningRecord;
-import com.tianji.learning.enums.LessonStatus;
 import com.tianji.learning.enums.SectionType;
+import com.tianji.learning.mapper.LearningLessonMapper;
 import com.tianji.learning.mapper.LearningRecordMapper;
 import com.tianji.learning.mq.message.SignInMessage;
 import com.tianji.learning.service.ILearningLessonService;
 import com.tianji.learning.service.ILearningRecordService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.tianji.learning.utils.CourseSectionNumCache;
 import com.tianji.learning.utils.LearningRecordDelayTaskHandler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -42,7 +42,9 @@ import java.util.Objects;
 @Slf4j
 public class LearningRecordServiceImpl extends ServiceImpl<LearningRecordMapper, LearningRecord> implements ILearningRecordService {
     private final ILearningLessonService learningLessonService;
-    private final CourseClient courseClient;
+    private final LearningLessonMapper learningLessonMapper;
+    private final CourseSectionNumCache sectionNumCache;
+    private final Cache<Long, Long> lessonCourseIdCaches;
     private final LearningRecordDelayTaskHandler taskHandler;
     private final RabbitMqHelper mqHelper;
 
@@ -108,7 +110,13 @@ public class LearningRecordServiceImpl extends ServiceImpl<LearningRecordMapper,
     // 处理视频记录，返回值为是否学完改小节
     private boolean handleVideoRecord(Long userId, LearningRecordFormDTO formDTO) {
         // 1. 通过lessonId和sectionId查询旧的学习记录(即是否存在该学习记录)
-        LearningRecord old = queryOldRecord(formDTO.getLessonId(), formDTO.getSectionId());
+        // 缓存命中时，Lua脚本已经在同一次往返中完成了播放进度的更新
+        LearningRecord old = taskHandler.compareAndWriteRecordCache(
+                formDTO.getLessonId(), formDTO.getSectionId(), formDTO.getMoment(), formDTO.getDuration());
+        boolean cached = !Objects.isNull(old);
+        if (!cached) {
+            old = queryOldRecord(formDTO.getLessonId(), formDTO.getSectionId());
+        }
         // 2. 判断有无旧的学习记录
         if (Objects.isNull(old)) {
             // 3. 不存在旧的学习记录，则新增学习记录
@@ -136,7 +144,11 @@ public class LearningRecordServiceImpl extends ServiceImpl<LearningRecordMapper,
             record.setMoment(formDTO.getMoment());
             record.setId(old.getId());
             record.setFinished(old.getFinished());
-            taskHandler.addLearningRecordTask(record);
+            if (cached) {
+                taskHandler.addDelayTask(record);
+            } else {
+                taskHandler.addLearningRecordTask(record);
+            }
             return false;// 不是第一次学完
         }
         boolean suc = lambdaUpdate()
@@ -148,26 +160,16 @@ public class LearningRecordServiceImpl extends ServiceImpl<LearningRecordMapper,
         if (!suc) {
             throw new DbException("新增学习记录失败！");
         }
-        // 清理缓存
-        taskHandler.clearRecordCache(formDTO.getLessonId(), formDTO.getSectionId());
+        // 第一次学完时缓存已经在 Lua脚本中删除，缓存未命中时也无需清理
         return true;
     }
 
-    // 查询是否存在指定的学习记录
+    // 缓存未命中时，查询数据库中是否存在指定的学习记录，更新播放进度时再一并写入缓存
     private LearningRecord queryOldRecord(Long lessonId, Long sectionId) {
-        // 1. 有限查询缓存
-        LearningRecord record = taskHandler.readRecordCache(lessonId, sectionId);
-        if (!Objects.isNull(record)) {// 缓存命中，直接返回缓存中查询到的数据
-            return record;
-        }
-        // 2. 缓存中没有数据，再查询数据库
-        record = lambdaQuery()
-                    .eq(LearningRecord::getLessonId, lessonId)
-                    .eq(LearningRecord::getSectionId, sectionId)
-                    .one();
-        // 3. 写入缓存
-        taskHandler.writeRecordToCache(record);
-        return record;
+        return lambdaQuery()
+                .eq(LearningRecord::getLessonId, lessonId)
+                .eq(LearningRecord::getSectionId, sectionId)
+                .one();
     }
 
     // 处理考试记录，返回值为是否学完改小节
@@ -190,28 +192,23 @@ public class LearningRecordServiceImpl extends ServiceImpl<LearningRecordMapper,
 
     // 处理课表数据
     private void handleLearningLessonChange(LearningRecordFormDTO formDTO) {
-        // 1. 查询课表
-        LearningLesson lesson = learningLessonService.getById(formDTO.getLessonId());
-        if (Objects.isNull(lesson)) {
+        // 1. 查询课表对应的课程，课程id不会变化，优先读取本地缓存
+        Long courseId = lessonCourseIdCaches.get(formDTO.getLessonId(), lessonId -> {
+            LearningLesson lesson = learningLessonService.getById(lessonId);
+            return Objects.isNull(lesson) ? null : lesson.getCourseId();
+        });
+        if (Objects.isNull(courseId)) {
             throw new BizIllegalException("课表不存在，无法更新数据");
         }
-        // 2. 判断是否有新的小节
-        boolean finishedAllLesson = false;
-        // 3. 查询课程总章节数
-        CourseFullInfoDTO courseInfo = courseClient.getCourseInfoById(lesson.getCourseId(), false, false);
-        if (Objects.isNull(courseInfo)) {
+        // 2. 查询课程总章节数
+        Integer sectionNum = sectionNumCache.getSectionNum(courseId);
+        if (Objects.isNull(sectionNum)) {
             throw new BizIllegalException("课表不存在，无法更新数据");
         }
-        // 4. 比较课程是否全部学完
-        if (lesson.getLearnedSections() + 1 >= courseInfo.getSectionNum()) {
-            finishedAllLesson = true;
+        // 3. 更新课表数据，已学小节数加一，并根据是否全部学完或者第一次开始学更新状态
+        int rows = learningLessonMapper.incrLearnedSections(formDTO.getLessonId(), sectionNum);
+        if (rows == 0) {
+            throw new BizIllegalException("课表不存在，无法更新数据");
         }
-        // 5. 更新课表数据
-        learningLessonService.lambdaUpdate()
-                .set(finishedAllLesson, LearningLesson::getStatus, LessonStatus.FINISHED.getValue())// 课程学完
-                .setSql("learned_sections = learned_sections + 1")// 章节学完
-                .set(lesson.getLearnedSections() == 0, LearningLesson::getStatus, LessonStatus.LEARNING.getValue())// 第一次开始学
-                .eq(LearningLesson::getId, lesson.getId())
-                .update();
     }
 }
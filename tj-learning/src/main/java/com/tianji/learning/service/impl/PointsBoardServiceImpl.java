@@ -1,28 +1,37 @@
 package com.tianji.learning.service.impl;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.tianji.api.client.user.UserClient;
 import com.tianji.api.dto.user.UserDTO;
 import com.tianji.common.utils.CollUtils;
 import com.tianji.common.utils.DateUtils;
 import com.tianji.common.utils.UserContext;
+import com.tianji.learning.config.LearningProperties;
 import com.tianji.learning.constants.RedisConstants;
 import com.tianji.learning.domain.pojo.PointsBoard;
+import com.tianji.learning.domain.pojo.PointsBoardSeason;
 import com.tianji.learning.domain.query.PointsBoardQuery;
 import com.tianji.learning.domain.vo.PointsBoardItemVO;
 import com.tianji.learning.domain.vo.PointsBoardVO;
 import com.tianji.learning.mapper.PointsBoardMapper;
+import com.tianji.learning.service.IPointsBoardSeasonService;
 import com.tianji.learning.service.IPointsBoardService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.tianji.learning.utils.PointsBoardHotCache;
 import com.tianji.learning.utils.TableInfoContext;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.BoundZSetOperations;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -38,6 +47,16 @@ import java.util.stream.Collectors;
 public class PointsBoardServiceImpl extends ServiceImpl<PointsBoardMapper, PointsBoard> implements IPointsBoardService {
     private final StringRedisTemplate redisTemplate;
     private final UserClient userClient;
+    private final PointsBoardHotCache hotCache;
+    private final IPointsBoardSeasonService seasonService;
+    private final LearningProperties learningProperties;
+    private final Cache<String, List<PointsBoardItemVO>> historyBoardPageCaches;
+    private final Cache<String, PointsBoard> historyMyBoardCaches;
+
+    /**
+     * 快照已经在 Redis中的历史赛季，每个赛季只需要判断一次
+     */
+    private final Set<Long> historySnapshotSeasons = ConcurrentHashMap.newKeySet();
 
     /**
      * 分页查询指定赛季的学霸积分排行榜
@@ -47,58 +66,177 @@ public class PointsBoardServiceImpl extends ServiceImpl<PointsBoardMapper, Point
         // 1. 判断是否查询当前赛季
         Long season = query.getSeason();
         boolean isCurrentSeason = Objects.isNull(season) || season == 0;// 为空或者为0则查询当前赛季
-        // 2. 查询我的积分和排名
-        LocalDate now = LocalDate.now();
-        String key = RedisConstants.POINTS_BOARD_KEY_PREFIX + now.format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
-        PointsBoard myBoard = isCurrentSeason ?
-                queryMyCurrentBoard(key):  // 查询我在当前赛季榜单的排名和积分等(redis)
-                queryMyHistoryBoard(season); // 查询我在历史赛季榜单的排名和积分等(数据库)
-        // 3. 查询榜单列表
-        List<PointsBoard> historyBoard = isCurrentSeason ?
-                queryCurrentBoardList(key, query.getPageNo(), query.getPageSize()):  // 查询当前赛季榜单列表(redis)
-                queryHistoryBoardList(query); // 查询历史赛季榜单列表(数据库)
-        // 4. 封装 VO
+        if (isCurrentSeason) {
+            String key = RedisConstants.POINTS_BOARD_KEY_PREFIX + LocalDate.now().format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
+            // 2. 查询我在当前赛季的排名和积分等(redis)
+            PointsBoard myBoard = queryMyCurrentBoard(key);
+            // 3. 当前赛季的前几页所有用户都相同，优先读取热点缓存
+            List<PointsBoardItemVO> boardList = hotCache.getPage(key, query.getPageNo(), query.getPageSize());
+            if (Objects.isNull(boardList)) {
+                boardList = toItemVOs(queryCurrentBoardList(key, query.getPageNo(), query.getPageSize()));
+            }
+            return toBoardVO(myBoard, boardList);
+        }
+        // 4. 历史赛季读取 redis中的快照，快照缺失时先从数据库回填
+        String key = resolveHistoryBoardKey(season);
+        if (Objects.isNull(key)) {
+            // 4.1 其它实例正在回填快照，本次请求直接查询数据库，结果不缓存
+            return toBoardVO(queryMyHistoryBoard(season), toItemVOs(queryHistoryBoardList(query)));
+        }
+        boolean cacheable = key.startsWith(RedisConstants.POINTS_BOARD_HISTORY_KEY_PREFIX);
+        // 4.2 历史赛季的排名不会再变化，我的排名和分页结果都缓存在本地，空结果不缓存
+        PointsBoard myBoard = cacheable ?
+                historyMyBoardCaches.get(season + ":" + UserContext.getUser(), k -> queryMyCurrentBoard(key)) :
+                queryMyCurrentBoard(key);
+        List<PointsBoardItemVO> boardList = cacheable ?
+                historyBoardPageCaches.get(season + ":" + query.getPageNo() + ":" + query.getPageSize(), k -> {
+                    List<PointsBoard> list = queryCurrentBoardList(key, query.getPageNo(), query.getPageSize());
+                    return CollUtils.isEmpty(list) ? null : toItemVOs(list);
+                }) :
+                toItemVOs(queryCurrentBoardList(key, query.getPageNo(), query.getPageSize()));
+        return toBoardVO(myBoard, boardList);
+    }
+
+    /**
+     * 封装榜单 VO
+     */
+    private PointsBoardVO toBoardVO(PointsBoard myBoard, List<PointsBoardItemVO> boardList) {
         PointsBoardVO pointsBoardVO = new PointsBoardVO();
-        // 4.1 处理我的信息
         pointsBoardVO.setPoints(myBoard.getPoints());
         pointsBoardVO.setRank(myBoard.getRank());
-        if (CollUtils.isEmpty(historyBoard)) {
-            return pointsBoardVO;
+        if (CollUtils.isNotEmpty(boardList)) {
+            pointsBoardVO.setBoardList(boardList);
         }
-        // 4.2 处理榜单信息
-        // 4.2.1 封装用户信息
-        Set<Long> userIds = historyBoard.stream().map(PointsBoard::getUserId).collect(Collectors.toSet());
+        return pointsBoardVO;
+    }
+
+    /**
+     * 确定历史赛季榜单所在的 redis key，返回 null表示快照正在由其它实例回填
+     * 1. 快照已经确认存在的赛季直接返回，不再访问 redis
+     * 2. 赛季刚结束、清理任务还未执行时，返回当月榜单的 key，不记录结果
+     * 3. 快照缺失(清理任务之前归档的赛季或者 redis数据丢失)时从数据库回填一次，之后的查询都不再访问数据库
+     */
+    private String resolveHistoryBoardKey(Long season) {
+        String historyKey = RedisConstants.POINTS_BOARD_HISTORY_KEY_PREFIX + season;
+        // 1. 已经确认过的赛季
+        if (historySnapshotSeasons.contains(season)) {
+            return historyKey;
+        }
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(historyKey))) {
+            historySnapshotSeasons.add(season);
+            return historyKey;
+        }
+        // 2. 赛季不存在，没有任何数据，按照空快照处理
+        PointsBoardSeason boardSeason = seasonService.getById(season);
+        if (Objects.isNull(boardSeason)) {
+            return historyKey;
+        }
+        // 3. 当月榜单还未重命名为快照
+        String monthKey = RedisConstants.POINTS_BOARD_KEY_PREFIX +
+                boardSeason.getBeginTime().format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(monthKey))) {
+            return monthKey;
+        }
+        // 4. 从数据库回填快照，同一赛季只允许一个实例回填
+        String lockKey = RedisConstants.POINTS_BOARD_HISTORY_LOCK_KEY_PREFIX + season;
+        Boolean locked = redisTemplate.opsForValue().setIfAbsent(lockKey, "1", Duration.ofMinutes(5));
+        if (!Boolean.TRUE.equals(locked)) {
+            return null;
+        }
+        try {
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(historyKey))) {
+                loadHistorySnapshot(season, historyKey);
+            }
+            historySnapshotSeasons.add(season);
+            return historyKey;
+        } finally {
+            redisTemplate.delete(lockKey);
+        }
+    }
+
+    /**
+     * 按照排名分页读取历史赛季的榜单表，写入临时 key后再重命名为快照，避免读到不完整的快照
+     */
+    private void loadHistorySnapshot(Long season, String historyKey) {
+        String loadingKey = RedisConstants.POINTS_BOARD_HISTORY_LOADING_KEY_PREFIX + season;
+        redisTemplate.unlink(loadingKey);
+        int pageSize = learningProperties.getBoard().getArchivePageSize();
+        long lastId = 0;
+        TableInfoContext.setInfo("points_board_" + season);
+        try {
+            while (true) {
+                // 1. 表的主键就是排名，按主键分页
+                List<PointsBoard> boards = lambdaQuery()
+                        .gt(PointsBoard::getId, lastId)
+                        .orderByAsc(PointsBoard::getId)
+                        .last("LIMIT " + pageSize)
+                        .list();
+                if (CollUtils.isEmpty(boards)) {
+                    break;
+                }
+                // 2. 写入临时 key
+                Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(boards.size());
+                for (PointsBoard board : boards) {
+                    tuples.add(new DefaultTypedTuple<>(board.getUserId().toString(), board.getPoints().doubleValue()));
+                }
+                redisTemplate.opsForZSet().add(loadingKey, tuples);
+                lastId = boards.get(boards.size() - 1).getId();
+                if (boards.size() < pageSize) {
+                    break;
+                }
+            }
+        } finally {
+            TableInfoContext.remove();
+        }
+        // 3. 空赛季不写快照，读取时按照空榜单处理
+        if (lastId > 0) {
+            redisTemplate.rename(loadingKey, historyKey);
+        }
+    }
+
+    /**
+     * 填充用户名，转换为榜单 VO
+     */
+    private List<PointsBoardItemVO> toItemVOs(List<PointsBoard> boards) {
+        if (CollUtils.isEmpty(boards)) {
+            return CollUtils.emptyList();
+        }
+        // 1. 封装用户信息
+        Set<Long> userIds = boards.stream().map(PointsBoard::getUserId).collect(Collectors.toSet());
         List<UserDTO> users = userClient.queryUserByIds(userIds);
-        Map<Long, String> userMap = new HashMap<>(users.size());
+        Map<Long, String> userMap = new HashMap<>(userIds.size());
         if (CollUtils.isNotEmpty(users)) {
             for (UserDTO user : users) {
                 userMap.put(user.getId(), user.getName());
             }
         }
-        List<PointsBoardItemVO> itemVOS = new ArrayList<>(historyBoard.size());
-        // 4.2.2 填充用户名
-        for (PointsBoard board : historyBoard) {// 遍历查询到的赛季榜单列表
+        List<PointsBoardItemVO> itemVOS = new ArrayList<>(boards.size());
+        // 2. 填充用户名
+        for (PointsBoard board : boards) {// 遍历查询到的赛季榜单列表
             PointsBoardItemVO vo = new PointsBoardItemVO();
             vo.setPoints(board.getPoints());
             vo.setRank(board.getRank());
             vo.setName(userMap.get(board.getUserId()));
             itemVOS.add(vo);
         }
-        pointsBoardVO.setBoardList(itemVOS);
-        return pointsBoardVO;
+        return itemVOS;
     }
 
     /**
-     * 查询当前登录用户在当前赛季榜单的排名和积分等(redis)
+     * 查询当前登录用户在当前赛季或历史赛季快照中的排名和积分等(redis)，积分和排名在一次管道中查询
      */
     private PointsBoard queryMyCurrentBoard(String key) {
-        // 提前绑定 key，后续进行操作时就不需要再指定 key了
-        BoundZSetOperations<String, String> ops = redisTemplate.boundZSetOps(key);
-        // 1. 查询积分
-        Double score = ops.score(UserContext.getUser().toString());
-        // 2. 查询排名
-        Long rank = ops.reverseRank(UserContext.getUser().toString());// 注意使用倒序
-        // 3. 封装返回
+        String userId = UserContext.getUser().toString();
+        // 1. 查询积分和排名，注意排名使用倒序
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection src = (StringRedisConnection) connection;
+            src.zScore(key, userId);
+            src.zRevRank(key, userId);
+            return null;
+        });
+        Double score = (Double) results.get(0);
+        Long rank = (Long) results.get(1);
+        // 2. 封装返回
         PointsBoard pointsBoard = new PointsBoard();
         pointsBoard.setPoints(Objects.nonNull(score) ? score.intValue() : 0);
         pointsBoard.setRank(Objects.nonNull(rank) ? rank.intValue() + 1 : 0);
@@ -140,16 +278,23 @@ public class PointsBoardServiceImpl extends ServiceImpl<PointsBoardMapper, Point
     private PointsBoard queryMyHistoryBoard(Long seasonId) {
         // 1. 向 ThreadLocal传入新表名
         TableInfoContext.setInfo("points_board_" + seasonId);
-        // 2. 获取当前登录用户
-        Long userId = UserContext.getUser();
-        // 3. 查询数据
-        PointsBoard pointsBoard = lambdaQuery()
-                .eq(PointsBoard::getUserId, userId)
-                .one();
-        // 4. 封装排名
-        pointsBoard.setRank(pointsBoard.getId().intValue());
-
-        return pointsBoard;
+        try {
+            // 2. 获取当前登录用户
+            Long userId = UserContext.getUser();
+            // 3. 查询数据
+            PointsBoard pointsBoard = lambdaQuery()
+                    .eq(PointsBoard::getUserId, userId)
+                    .one();
+            // 4. 封装排名，没有上榜则积分和排名都为 0
+            if (Objects.isNull(pointsBoard)) {
+                return new PointsBoard().setPoints(0).setRank(0);
+            }
+            pointsBoard.setRank(pointsBoard.getId().intValue());
+            return pointsBoard;
+        } finally {
+            // 5. 移除表名，避免线程复用时影响后续查询
+            TableInfoContext.remove();
+        }
     }
 
     /**
@@ -159,17 +304,22 @@ public class PointsBoardServiceImpl extends ServiceImpl<PointsBoardMapper, Point
         // 1. 向 ThreadLocal传入新表名
         Long seasonId = query.getSeason();
         TableInfoContext.setInfo("points_board_" + seasonId);
-        // 2. 分页查询
-        Page<PointsBoard> page = lambdaQuery().page(query.toMpPage());
-        List<PointsBoard> records = page.getRecords();
-        if (CollUtils.isEmpty(records)) {
-            return CollUtils.emptyList();
-        }
-        // 3. 封装排名
-        for (PointsBoard record : records) {
-            record.setRank(record.getId().intValue());
+        try {
+            // 2. 分页查询
+            Page<PointsBoard> page = lambdaQuery().page(query.toMpPage());
+            List<PointsBoard> records = page.getRecords();
+            if (CollUtils.isEmpty(records)) {
+                return CollUtils.emptyList();
+            }
+            // 3. 封装排名
+            for (PointsBoard record : records) {
+                record.setRank(record.getId().intValue());
+            }
+            return records;
+        } finally {
+            // 4. 移除表名，避免线程复用时影响后续查询
+            TableInfoContext.remove();
         }
-        return records;
     }
 
     /**
@@ -179,4 +329,12 @@ public class PointsBoardServiceImpl extends ServiceImpl<PointsBoardMapper, Point
     public void createTableBySeasonId(Integer seasonId) {
         getBaseMapper().createTableBySeasonId("points_board_" + seasonId);
     }
+
+    /**
+     * 批量写入指定赛季的榜单表，直接指定表名，不依赖 ThreadLocal，可以在多个线程中并行写入
+     */
+    @Override
+    public void saveBoardsBySeasonId(Integer seasonId, List<PointsBoard> boards) {
+        getBaseMapper().insertBatchToTable("points_board_" + seasonId, boards);
+    }
 }
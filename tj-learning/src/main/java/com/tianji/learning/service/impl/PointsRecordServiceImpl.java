@@ -13,16 +13,27 @@ import com.tianji.learning.service.IPointsRecordService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -38,53 +49,193 @@ import java.util.Objects;
 public class PointsRecordServiceImpl extends ServiceImpl<PointsRecordMapper, PointsRecord> implements IPointsRecordService {
     private final StringRedisTemplate redisTemplate;
 
+    private static final DateTimeFormatter DAILY_KEY_SUFFIX_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String DAILY_INCR_SCRIPT;
+    private static final String DAILY_ADD_SCRIPT;
+
+    static {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/points_daily_incr.lua"));
+        DAILY_INCR_SCRIPT = script.getScriptAsString();
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/points_daily_add.lua"));
+        DAILY_ADD_SCRIPT = script.getScriptAsString();
+    }
+
     /**
      * 新增积分
      */
     public void addPointsRecord(Long userId, int points, PointsRecordType type) {
-        // 1. 判断当前方式是否有积分上限
-        int maxPoints = type.getMaxPoints();
-        int can = points;// 实际累加的分数
+        addPointsRecords(List.of(new PointsRecord().setUserId(userId).setPoints(points).setType(type)));
+    }
+
+    /**
+     * 批量新增积分，同一用户同一积分方式的积分先合并，再统一判断上限、写入数据库和排行榜
+     */
+    @Override
+    public void addPointsRecords(List<PointsRecord> records) {
+        if (CollUtils.isEmpty(records)) {
+            return;
+        }
         LocalDateTime now = LocalDateTime.now();
-        // 2. 有，则判断今日积分是否超过上限
-        if (maxPoints > 0) {// 大于 0则有上限
-            // 2.1 查询今日获得积分
-            LocalDateTime startTime = DateUtils.getDayStartTime(now), entTime = DateUtils.getDayEndTime(now);
-            int curPoints = queryPointsByTypeAndDate(userId, type, startTime, entTime);
-            // 2.2 判断是否超过上限
-            if (curPoints >= maxPoints) {
-                // 2.3 超过，直接结束
-                return;
+        // 1. 按照用户和积分方式合并积分
+        Map<String, PointsRecord> recordMap = new LinkedHashMap<>(records.size());
+        for (PointsRecord record : records) {
+            if (Objects.isNull(record.getUserId()) || Objects.isNull(record.getPoints()) || record.getPoints() <= 0) {
+                continue;
+            }
+            String recordKey = record.getUserId() + ":" + record.getType().getValue();
+            PointsRecord merged = recordMap.get(recordKey);
+            if (merged == null) {
+                recordMap.put(recordKey, new PointsRecord()
+                        .setUserId(record.getUserId())
+                        .setType(record.getType())
+                        .setPoints(record.getPoints())
+                        .setCreateTime(now));
+            } else {
+                merged.setPoints(merged.getPoints() + record.getPoints());
             }
-            // 2.4 未超过，计算能累加的积分
-            can = Math.min(maxPoints - curPoints, points);
         }
-        // 3. 无，则直接保存积分记录
-        PointsRecord pointsRecord = new PointsRecord();
-        pointsRecord.setUserId(userId);
-        pointsRecord.setType(type);
-        pointsRecord.setPoints(can);
-        log.debug("保存{}的积分记录...", type.getDesc());
-        save(pointsRecord);
-        // 4. 累加积分到 redis中，用于实现排行榜功能
+        // 2. 有积分上限的方式，判断今日积分是否超过上限，计算实际能累加的积分，没有上限的方式不需要判断
+        List<PointsRecord> capped = new ArrayList<>(recordMap.size());
+        List<PointsRecord> uncapped = new ArrayList<>();
+        for (PointsRecord record : recordMap.values()) {
+            (record.getType().getMaxPoints() > 0 ? capped : uncapped).add(record);
+        }
+        String date = now.format(DAILY_KEY_SUFFIX_FORMATTER);
+        List<PointsRecord> reserved = applyDailyLimit(capped, date, now);
+        List<PointsRecord> list = new ArrayList<>(reserved.size() + uncapped.size());
+        list.addAll(reserved);
+        list.addAll(uncapped);
+        if (CollUtils.isEmpty(list)) {
+            return;
+        }
+        // 3. 一条语句批量保存积分记录，写入失败时归还已经累加到计数器的积分，避免消息重新投递时积分被上限拦截
+        log.debug("批量保存{}条积分记录...", list.size());
+        try {
+            getBaseMapper().insertBatch(list);
+        } catch (Exception e) {
+            releaseDailyLimit(reserved, date);
+            throw e;
+        }
+        // 4. 通过管道累加积分到 redis中，用于实现排行榜功能，同时累加没有上限的方式的今日积分
+        // 积分记录已经写入数据库，以数据库为准，这里失败时只记录日志，不能抛出异常导致整批消息重新投递、重复新增积分
         String key = RedisConstants.POINTS_BOARD_KEY_PREFIX + now.format(DateUtils.POINTS_BOARD_SUFFIX_FORMATTER);
-        redisTemplate.opsForZSet().incrementScore(key, userId.toString(), can);
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection src = (StringRedisConnection) connection;
+                for (PointsRecord record : list) {
+                    src.zIncrBy(key, record.getPoints(), record.getUserId().toString());
+                }
+                for (PointsRecord record : uncapped) {
+                    src.eval(DAILY_ADD_SCRIPT, ReturnType.INTEGER, 1,
+                            dailyPointsKey(record.getUserId(), date),
+                            String.valueOf(record.getType().getValue()),
+                            record.getPoints().toString());
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("积分记录已保存，累加排行榜积分失败，共{}条：{}", list.size(), list, e);
+        }
+    }
+
+    /**
+     * 归还已经累加到每日积分计数器中的积分
+     */
+    private void releaseDailyLimit(List<PointsRecord> records, String date) {
+        if (CollUtils.isEmpty(records)) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection src = (StringRedisConnection) connection;
+            for (PointsRecord record : records) {
+                src.hIncrBy(dailyPointsKey(record.getUserId(), date),
+                        String.valueOf(record.getType().getValue()), -record.getPoints());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 通过 Redis中的每日积分计数器判断积分上限，返回实际能累加积分的记录
+     * 计数器不存在时，先从数据库加载当日积分，再重新累加
+     */
+    private List<PointsRecord> applyDailyLimit(List<PointsRecord> records, String date, LocalDateTime now) {
+        List<PointsRecord> result = new ArrayList<>(records.size());
+        List<PointsRecord> pending = records;
+        for (int i = 0; i < 2 && !pending.isEmpty(); i++) {
+            // 1. 通过管道执行 Lua脚本，累加积分的同时判断上限
+            List<PointsRecord> current = pending;
+            List<Object> counts = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection src = (StringRedisConnection) connection;
+                for (PointsRecord record : current) {
+                    src.eval(DAILY_INCR_SCRIPT, ReturnType.INTEGER, 1,
+                            dailyPointsKey(record.getUserId(), date),
+                            String.valueOf(record.getType().getValue()),
+                            record.getPoints().toString(),
+                            String.valueOf(record.getType().getMaxPoints()));
+                }
+                return null;
+            });
+            // 2. 收集计数器未初始化的记录
+            List<PointsRecord> cold = new ArrayList<>();
+            for (int j = 0; j < current.size(); j++) {
+                long can = (Long) counts.get(j);
+                PointsRecord record = current.get(j);
+                if (can < 0) {
+                    cold.add(record);
+                } else if (can > 0) {
+                    result.add(record.setPoints((int) can));
+                }
+            }
+            // 3. 从数据库加载计数器后重试
+            if (!cold.isEmpty()) {
+                loadDailyPoints(cold.stream().map(PointsRecord::getUserId).collect(Collectors.toSet()), now);
+            }
+            pending = cold;
+        }
+        if (!pending.isEmpty()) {
+            log.error("积分计数器加载失败，放弃{}条积分记录", pending.size());
+        }
+        return result;
     }
 
     /**
-     * 查询用户今日获取积分
+     * 从数据库查询用户当日各方式获得的积分，初始化 Redis中的计数器，计数器在第二天零点过期
      */
-    private int queryPointsByTypeAndDate(Long userId, PointsRecordType type, LocalDateTime startTime, LocalDateTime entTime) {
-        // 1. 先封装
+    private void loadDailyPoints(Set<Long> userIds, LocalDateTime now) {
+        // 1. 一次查询所有用户当日的积分
         LambdaQueryWrapper<PointsRecord> queryWrapper = new LambdaQueryWrapper<>();
         queryWrapper
-                .eq(PointsRecord::getUserId, userId)
-                .eq(Objects.nonNull(type), PointsRecord::getType, type)
-                .between(Objects.nonNull(startTime) && Objects.nonNull(entTime),PointsRecord::getCreateTime, startTime, entTime);
-        // 2. 调用 mapper查询结果
-        Integer points = getBaseMapper().queryPointsByTypeAndDate(queryWrapper);
-        // 3. 判断并返回
-        return Objects.isNull(points) ? 0 : points;
+                .in(PointsRecord::getUserId, userIds)
+                .between(PointsRecord::getCreateTime, DateUtils.getDayStartTime(now), DateUtils.getDayEndTime(now));
+        List<PointsRecord> list = getBaseMapper().queryPointsByUsersAndDate(queryWrapper);
+        Map<Long, Map<PointsRecordType, Integer>> pointsMap = new HashMap<>(userIds.size());
+        for (PointsRecord record : list) {
+            pointsMap.computeIfAbsent(record.getUserId(), k -> new EnumMap<>(PointsRecordType.class))
+                    .put(record.getType(), record.getPoints());
+        }
+        // 2. 写入计数器，所有积分方式都写入，保证计数器存在即代表已加载
+        // 使用 HSETNX，避免覆盖其它线程已经加载并累加过的计数器
+        String date = now.format(DAILY_KEY_SUFFIX_FORMATTER);
+        long expireAt = now.toLocalDate().plusDays(1).atStartOfDay().atZone(ZoneId.systemDefault()).toEpochSecond();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection src = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                String key = dailyPointsKey(userId, date);
+                Map<PointsRecordType, Integer> typeMap = pointsMap.getOrDefault(userId, Collections.emptyMap());
+                for (PointsRecordType type : PointsRecordType.values()) {
+                    src.hSetNX(key, String.valueOf(type.getValue()), String.valueOf(typeMap.getOrDefault(type, 0)));
+                }
+                src.expireAt(key, expireAt);
+            }
+            return null;
+        });
+    }
+
+    private String dailyPointsKey(Long userId, String date) {
+        return RedisConstants.POINTS_DAILY_KEY_PREFIX + userId + ":" + date;
     }
 
     /**
@@ -94,29 +245,27 @@ public class PointsRecordServiceImpl extends ServiceImpl<PointsRecordMapper, Poi
     public List<PointsStatisticsVO> queryMyPointsToday() {
         // 1. 获取当前登录用户
         Long userId = UserContext.getUser();
-        // 2. 获取当前时间
+        // 2. 读取当日积分计数器，不存在则先从数据库加载
         LocalDateTime now = LocalDateTime.now();
-        LocalDateTime startTime = DateUtils.getDayStartTime(now), endTime = DateUtils.getDayEndTime(now);
-        // 3. 构建查询条件
-        LambdaQueryWrapper<PointsRecord> queryWrapper = new LambdaQueryWrapper<>();
-        queryWrapper
-                .eq(PointsRecord::getUserId, userId)
-                .between(PointsRecord::getCreateTime, startTime, endTime);
-        // 4. 查询
-        List<PointsRecord> list = getBaseMapper().queryPointsByDate(queryWrapper);
-        // 5. 封装返回数据
-        if (CollUtils.isEmpty(list)) {
-            return CollUtils.emptyList();
+        String key = dailyPointsKey(userId, now.format(DAILY_KEY_SUFFIX_FORMATTER));
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(key);
+        if (CollUtils.isEmpty(entries)) {
+            loadDailyPoints(Set.of(userId), now);
+            entries = redisTemplate.opsForHash().entries(key);
         }
-        List<PointsStatisticsVO> voList = new ArrayList<>(list.size());
-        for (PointsRecord pointsRecord : list) {
+        // 3. 封装返回数据，只返回今日获得过积分的方式
+        List<PointsStatisticsVO> voList = new ArrayList<>(entries.size());
+        for (PointsRecordType type : PointsRecordType.values()) {
+            Object points = entries.get(String.valueOf(type.getValue()));
+            if (Objects.isNull(points) || Integer.parseInt(points.toString()) <= 0) {
+                continue;
+            }
             PointsStatisticsVO vo = new PointsStatisticsVO();
-            vo.setType(pointsRecord.getType().getDesc());
-            vo.setPoints(pointsRecord.getPoints());
-            vo.setMaxPoints(pointsRecord.getType().getMaxPoints());
+            vo.setType(type.getDesc());
+            vo.setPoints(Integer.parseInt(points.toString()));
+            vo.setMaxPoints(type.getMaxPoints());
             voList.add(vo);
         }
-
         return voList;
     }
 }
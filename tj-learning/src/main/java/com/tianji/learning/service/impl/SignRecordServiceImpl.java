@@ -10,8 +10,10 @@ import com.tianji.learning.domain.vo.SignResultVO;
 import com.tianji.learning.mq.message.SignInMessage;
 import lombok.RequiredArgsConstructor;
 import com.tianji.learning.service.ISignRecordService;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
@@ -25,10 +27,20 @@ public class SignRecordServiceImpl implements ISignRecordService {
     private final StringRedisTemplate redisTemplate;
     private final RabbitMqHelper mqHelper;
 
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SIGN_SCRIPT;
+
+    static {
+        SIGN_SCRIPT = new DefaultRedisScript<>();
+        SIGN_SCRIPT.setLocation(new ClassPathResource("lua/sign_in.lua"));
+        SIGN_SCRIPT.setResultType(List.class);
+    }
+
     /**
      * 用户签到时，给予积分奖励并保存签到记录
      */
     @Override
+    @SuppressWarnings("unchecked")
     public SignResultVO addSignRecords() {
         // 1. 获取当前登录用户
         Long userId = UserContext.getUser();
@@ -40,14 +52,13 @@ public class SignRecordServiceImpl implements ISignRecordService {
                 + userId.toString()
                 + ":"
                 + now.format(DateTimeFormatter.ofPattern("yyyyMM"));
-        // 2.3 计算 offset
-        long offset = now.getDayOfMonth() - 1;
-        Boolean exits = redisTemplate.opsForValue().setBit(key, offset, true);// true代表 1
-        if (Boolean.TRUE.equals(exits)) {
+        // 2.3 执行 Lua脚本，签到的同时计算本月连续签到天数
+        List<Long> result = redisTemplate.execute(SIGN_SCRIPT, List.of(key), String.valueOf(now.getDayOfMonth()));
+        if (CollUtils.isEmpty(result) || result.get(0) == 0) {
             throw new BizIllegalException("不允许重复签到!");
         }
-        // 3. 计算本月连续签到天数
-        int signDays = countSignDays(key, now.getDayOfMonth());
+        // 3. 本月连续签到天数
+        int signDays = result.get(2).intValue();
         // 4. 计算签到可以加的积分，连续签到有额外积分
         int rewardPoints = 0;
         switch (signDays) {
@@ -75,29 +86,24 @@ public class SignRecordServiceImpl implements ISignRecordService {
     }
 
     /**
-     * 计算用户本月连续签到天数
+     * 查询本月签到记录，数组下标对应本月第几天，1为已签到，0为未签到
      */
-    private int countSignDays(String key, int dayOfMonth) {
-        // 1. 获取本月从第一天开始到今天为止的所有签到记录
-        List<Long> list = redisTemplate.opsForValue().bitField(
-                key,
-                BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(dayOfMonth)).valueAt(0));
-        if (CollUtils.isEmpty(list)) return 0;
-        int num = list.get(0).intValue();// 签到记录返回的十进制数字
-        // 2. 计算连续签到天数
-        int cnt = 0;
-        while ((num & 1) == 1) {
-            cnt++;
-            num >>>= 1;// 无符号右移
+    @Override
+    public int[] querySignRecords() {
+        int dayOfMonth = LocalDate.now().getDayOfMonth();
+        int bitmap = querySignBitmap();
+        int[] times = new int[dayOfMonth];
+        for (int i = 0; i < dayOfMonth; i++) {
+            times[i] = (bitmap >>> i) & 1;
         }
-        return cnt;
+        return times;
     }
 
     /**
-     * 查询本月签到记录
+     * 查询本月签到记录的位图，最低位为本月第一天，第 n位为 1表示第 n+1天已签到
      */
     @Override
-    public Byte[] querySignRecords() {
+    public int querySignBitmap() {
         // 1. 获取登录用户
         Long userId = UserContext.getUser();
         // 2. 获取当前日期
@@ -108,21 +114,16 @@ public class SignRecordServiceImpl implements ISignRecordService {
                 + ":"
                 + now.format(DateTimeFormatter.ofPattern("yyyyMM"));
         int dayOfMonth = now.getDayOfMonth();
-        // 4. 查询本月从第一天开始到今天为止的所有签到记录的十进制数
+        // 4. 查询本月从第一天开始到今天为止的所有签到记录的十进制数，最高位为第一天
         List<Long> list = redisTemplate.opsForValue().bitField(
                 key,
                 BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(dayOfMonth)).valueAt(0)
         );
-        if (CollUtils.isEmpty(list)) return new Byte[0];
-        int num = list.get(0).intValue();
-        Byte[] times = new Byte[dayOfMonth];
-        // 从当前天开始枚举(注意二进制左边是第一天，最右边才是最后一天)
-        int cur = dayOfMonth - 1;
-        while (num != 0) {
-            times[cur] = (byte) (num & 1);
-            num >>>= 1;
-            cur--;
+        if (CollUtils.isEmpty(list) || list.get(0) == null) {
+            return 0;
         }
-        return times;
+        // 5. 翻转为最低位为第一天
+        int num = list.get(0).intValue();
+        return Integer.reverse(num) >>> (Integer.SIZE - dayOfMonth);
     }
 }
@@ -0,0 +1,63 @@
+package com.tianji.learning.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.tianji.api.client.course.CourseClient;
+import com.tianji.api.dto.course.CourseFullInfoDTO;
+import com.tianji.learning.constants.RedisConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * 课程总小节数的两级缓存，本地 Caffeine -> Redis -> 课程服务
+ * <p>
+ * 课程上下架时小节数可能发生变化，由 {@link com.tianji.learning.mq.CourseChangeListener} 负责失效
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CourseSectionNumCache {
+
+    private static final Duration REDIS_TTL = Duration.ofHours(12);
+
+    private final Cache<Long, Integer> courseSectionNumCaches;
+    private final StringRedisTemplate redisTemplate;
+    private final CourseClient courseClient;
+
+    /**
+     * 查询课程的总小节数，课程不存在时返回 null
+     */
+    public Integer getSectionNum(Long courseId) {
+        return courseSectionNumCaches.get(courseId, this::loadSectionNum);
+    }
+
+    /**
+     * 失效指定课程的两级缓存
+     */
+    public void invalidate(Long courseId) {
+        redisTemplate.delete(RedisConstants.COURSE_SECTION_NUM_KEY_PREFIX + courseId);
+        courseSectionNumCaches.invalidate(courseId);
+    }
+
+    private Integer loadSectionNum(Long courseId) {
+        String key = RedisConstants.COURSE_SECTION_NUM_KEY_PREFIX + courseId;
+        // 1. 查询 Redis
+        String cache = redisTemplate.opsForValue().get(key);
+        if (cache != null) {
+            return Integer.valueOf(cache);
+        }
+        // 2. Redis未命中，查询课程服务
+        CourseFullInfoDTO courseInfo = courseClient.getCourseInfoById(courseId, false, false);
+        if (Objects.isNull(courseInfo) || Objects.isNull(courseInfo.getSectionNum())) {
+            log.debug("查询不到课程{}的小节数", courseId);
+            return null;
+        }
+        // 3. 写入 Redis
+        redisTemplate.opsForValue().set(key, courseInfo.getSectionNum().toString(), REDIS_TTL);
+        return courseInfo.getSectionNum();
+    }
+}
@@ -1,116 +1,198 @@
 package com.tianji.learning.utils;
 
-import com.tianji.common.utils.JsonUtils;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.common.utils.BooleanUtils;
 import com.tianji.common.utils.StringUtils;
+import com.tianji.learning.config.LearningProperties;
 import com.tianji.learning.domain.pojo.LearningLesson;
 import com.tianji.learning.domain.pojo.LearningRecord;
+import com.tianji.learning.mapper.LearningLessonMapper;
 import com.tianji.learning.mapper.LearningRecordMapper;
-import com.tianji.learning.service.ILearningLessonService;
-import lombok.Data;
-import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.DelayQueue;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class LearningRecordDelayTaskHandler {
 
-    @Data
-    @NoArgsConstructor
-    private static class RecordCacheData {
-        private Long id;
-        private Integer moment;
-        private Boolean finished;
-
-        public RecordCacheData(LearningRecord record) {
-            this.id = record.getId();
-            this.moment = record.getMoment();
-            this.finished = record.getFinished();
-        }
-    }
+    private static final DefaultRedisScript<byte[]> CACHE_UPDATE_SCRIPT;
+    private static final DefaultRedisScript<Long> CACHE_PUT_SCRIPT;
+    // 整数类型的脚本结果不会经过反序列化，只用于匹配返回值类型
+    private static final RedisSerializer<Long> LONG_RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
 
-    @Data
-    @NoArgsConstructor
-    private static class RecordTaskData {
-        private Long lessonId;
-        private Long sectionId;
-        private Integer moment;
-
-        public RecordTaskData(LearningRecord record) {
-            this.lessonId = record.getLessonId();
-            this.sectionId = record.getSectionId();
-            this.moment = record.getMoment();
-        }
+    static {
+        CACHE_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        CACHE_UPDATE_SCRIPT.setLocation(new ClassPathResource("lua/record_cache_update.lua"));
+        CACHE_UPDATE_SCRIPT.setResultType(byte[].class);
+        CACHE_PUT_SCRIPT = new DefaultRedisScript<>();
+        CACHE_PUT_SCRIPT.setLocation(new ClassPathResource("lua/record_cache_put.lua"));
+        CACHE_PUT_SCRIPT.setResultType(Long.class);
     }
 
     private final StringRedisTemplate redisTemplate;
     private final LearningRecordMapper recordMapper;
-    private final ILearningLessonService learningLessonService;
+    private final LearningLessonMapper lessonMapper;
+    private final LearningRecordFlushMetrics flushMetrics;
+    private final RecordDelayQueue queue;
+    private final LearningProperties learningProperties;
 
-    private final DelayQueue<DelayTask<RecordTaskData>> queue = new DelayQueue<>();
     private final static String RECORD_KEY_TEMPLATE = "learning:record:{}";
+    // 缓存值为定长二进制：id(8字节) + moment(4字节) + finished(1字节)
+    private final static int RECORD_CACHE_SIZE = 13;
+    private final static long RECORD_CACHE_TTL_SECONDS = 60;
     private static volatile boolean begin = false;
+    private ThreadPoolTaskExecutor executor;
 
     // 当类的所有 Bean被初始化完成后就会被调用
     @PostConstruct
     public void init() {
-        // 异步任务
-        CompletableFuture.runAsync(this::handleDelayTask);
+        begin = true;
+        // 启动多个消费者并行处理延迟任务，多个节点之间通过延迟队列的领取语义保证任务不会重复执行
+        int consumers = learningProperties.getDelay().getConsumers();
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(consumers);
+        executor.setMaxPoolSize(consumers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("learning-record-delay-task-");
+        executor.initialize();
+        for (int i = 0; i < consumers; i++) {
+            int consumerIndex = i;
+            executor.execute(() -> handleDelayTask(consumerIndex));
+        }
     }
 
     // 在整个容器销毁前，会调用该注解下的方法。
     @PreDestroy
     public void destroy() {
         begin = false;
+        executor.shutdown();
         log.debug("延迟任务停止执行");
     }
 
     /**
-     * 处理延迟任务
+     * 处理延迟任务，到期任务先在内存中攒批，达到数量上限或者攒批时间到达后统一刷入数据库
      */
-    public void handleDelayTask() {
+    public void handleDelayTask(int consumerIndex) {
+        LearningProperties.Delay properties = learningProperties.getDelay();
+        int flushBatchSize = properties.getFlushBatchSize();
+        long flushIntervalMillis = properties.getFlushIntervalMillis();
+        List<RecordTaskData> buffer = new ArrayList<>(flushBatchSize);
+        long firstTaskTime = 0;
         while (begin) {
             try {
-                // 1. 获取到期的延迟任务
-                DelayTask<RecordTaskData> task = queue.take();
-                // 2. 查询 Redis缓存
-                RecordTaskData data = task.getData();
-                LearningRecord record = readRecordCache(data.getLessonId(), data.getSectionId());
-                if (Objects.isNull(record)) {
+                // 1. 获取到期的延迟任务，已有攒批数据时等待时间不能超过攒批时间
+                long idle = buffer.isEmpty() ? properties.getIdleMillis() : Math.min(properties.getIdleMillis(), flushIntervalMillis);
+                int maxSize = Math.min(properties.getBatchSize(), flushBatchSize - buffer.size());
+                List<RecordTaskData> tasks = queue.poll(consumerIndex, maxSize, Duration.ofMillis(idle));
+                if (CollUtils.isNotEmpty(tasks)) {
+                    if (buffer.isEmpty()) {
+                        firstTaskTime = System.currentTimeMillis();
+                    }
+                    buffer.addAll(tasks);
+                }
+                // 2. 判断是否需要刷新
+                if (buffer.isEmpty()) {
                     continue;
                 }
-                // 3. 比较缓存与延迟任务中的 moment是否相等
-                if (!data.getMoment().equals(record.getMoment())) {
-                    // 不一致，说明用户还在持续提交播放进度，放弃旧数据
+                if (buffer.size() < flushBatchSize && System.currentTimeMillis() - firstTaskTime < flushIntervalMillis) {
                     continue;
                 }
-                // 4. 一致，说明播放停止，将播放进度数据持久化到数据库
-                // 4.1 更新学习记录的 moment
-                record.setFinished(null);// 由于缓存中的 finished可能不如数据库的新，所以不更新
-                recordMapper.updateById(record);
-                // 4.2 更新课表最新学习信息
-                LearningLesson lesson = new LearningLesson();
-                lesson.setId(data.getLessonId());
-                lesson.setLatestSectionId(data.getSectionId());
-                lesson.setLatestLearnTime(LocalDateTime.now());// 虽然是20秒之前的时间，但是用现在时间影响不大
-                learningLessonService.updateById(lesson);
+                flushRecordTasks(buffer);
+                buffer.clear();
             } catch (InterruptedException e) {
                 log.error("处理延迟任务异常！", e);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // 刷新失败的任务不确认，超时后会被重新投递
+                log.error("处理延迟任务异常！", e);
+                buffer.clear();
             }
         }
     }
 
+    /**
+     * 批量持久化到期的学习记录任务
+     */
+    void flushRecordTasks(List<RecordTaskData> tasks) {
+        long start = System.currentTimeMillis();
+        // 1. 批量查询 Redis缓存
+        List<LearningRecord> caches = readRecordCaches(tasks);
+        // 2. 比较缓存与延迟任务中的 moment是否相等，不一致说明用户还在持续提交播放进度，放弃旧数据
+        Map<Long, LearningRecord> recordMap = new LinkedHashMap<>(tasks.size());
+        // 缓存已过期(例如任务多次刷新失败后被重新投递)的记录，直接使用任务中的数据持久化
+        Map<Long, LearningRecord> expiredMap = new LinkedHashMap<>();
+        Map<Long, LearningLesson> lessonMap = new LinkedHashMap<>(tasks.size());
+        LocalDateTime now = LocalDateTime.now();// 虽然是20秒之前的时间，但是用现在时间影响不大
+        for (int i = 0; i < tasks.size(); i++) {
+            RecordTaskData data = tasks.get(i);
+            LearningRecord cache = caches.get(i);
+            LearningRecord record = new LearningRecord();
+            if (Objects.nonNull(cache)) {
+                if (!data.getMoment().equals(cache.getMoment())) {
+                    continue;
+                }
+                // 2.1 同一条学习记录只保留一次更新
+                record.setId(cache.getId());
+                record.setMoment(cache.getMoment());// 由于缓存中的 finished可能不如数据库的新，所以不更新
+                recordMap.put(record.getId(), record);
+                expiredMap.remove(record.getId());
+            } else if (Objects.nonNull(data.getRecordId())) {
+                // 2.2 缓存不存在时无法判断是否有更新的进度，以任务中的进度为准，同一条记录保留最大的进度
+                if (recordMap.containsKey(data.getRecordId())) {
+                    continue;
+                }
+                record.setId(data.getRecordId());
+                record.setMoment(data.getMoment());
+                expiredMap.merge(record.getId(), record, (o, n) -> o.getMoment() >= n.getMoment() ? o : n);
+            } else {
+                // 旧版本的任务中没有学习记录 id，只能放弃
+                continue;
+            }
+            // 2.3 同一个课表合并为一次更新，以批次中最后学习的小节为准
+            LearningLesson lesson = new LearningLesson();
+            lesson.setId(data.getLessonId());
+            lesson.setLatestSectionId(data.getSectionId());
+            lesson.setLatestLearnTime(now);
+            lessonMap.put(lesson.getId(), lesson);
+        }
+        // 3. 一条语句批量更新学习记录和课表
+        if (!recordMap.isEmpty()) {
+            recordMapper.updateMomentBatch(new ArrayList<>(recordMap.values()));
+        }
+        if (!expiredMap.isEmpty()) {
+            // 缓存也可能是第一次学完时被删除的，此时数据库中的进度更新，不能被任务中的旧进度覆盖
+            recordMapper.advanceMomentBatch(new ArrayList<>(expiredMap.values()));
+        }
+        if (!lessonMap.isEmpty()) {
+            lessonMapper.updateLatestLearnBatch(new ArrayList<>(lessonMap.values()));
+        }
+        // 4. 确认任务
+        queue.ack(tasks);
+        flushMetrics.record(tasks.size(), recordMap.size() + expiredMap.size(), System.currentTimeMillis() - start);
+    }
+
     /**
      * 添加播放记录到缓存并添加延迟任务至延迟队列
      * @param record
@@ -119,47 +201,96 @@ public class LearningRecordDelayTaskHandler {
         // 1. 添加数据到缓存
         writeRecordToCache(record);
         // 2. 提交延迟任务到延迟队列
-        queue.add(new DelayTask<>(new RecordTaskData(record), Duration.ofSeconds(20)));
+        addDelayTask(record);
+    }
+
+    /**
+     * 只提交延迟任务，用于缓存已经通过 compareAndWriteRecordCache更新过的场景
+     * @param record
+     */
+    public void addDelayTask(LearningRecord record) {
+        queue.offer(new RecordTaskData(record), Duration.ofSeconds(learningProperties.getDelay().getDelaySeconds()));
     }
 
     // 添加数据到缓存
     public void writeRecordToCache(LearningRecord record) {
         log.debug("更新学习记录的缓存数据");
         try {
-            // 1. 数据转换
-            String data = JsonUtils.toJsonStr(new RecordCacheData(record));
-            // 2. 写入 Redis
+            // 写入缓存的同时设置过期时间，一次往返完成
             String key = StringUtils.format(RECORD_KEY_TEMPLATE, record.getLessonId());
-            redisTemplate.opsForHash().put(key, record.getSectionId().toString(), data);
-            // 3. 设置过期时间
-            redisTemplate.expire(key, Duration.ofMinutes(1));
+            redisTemplate.execute(CACHE_PUT_SCRIPT, RedisSerializer.byteArray(), LONG_RESULT_SERIALIZER,
+                    List.of(key),
+                    toBytes(record.getSectionId()),
+                    encodeRecordCache(record.getId(), record.getMoment(), record.getFinished()),
+                    toBytes(RECORD_CACHE_TTL_SECONDS));
         } catch (Exception e) {
             log.error("添加学习记录的缓存数据缓存失败", e);
         }
     }
 
     /**
-     * 在缓存中读取播放记录
-     * @param lessonId
-     * @param sectionId
-     * @return
+     * 读取并更新缓存中的播放记录，通过 Lua脚本一次往返完成：
+     * 1. 缓存不存在时返回 null，由调用方查询数据库
+     * 2. 第一次学完该小节时删除缓存，由调用方直接更新数据库
+     * 3. 其它情况将缓存中的播放进度更新为 moment，并重置过期时间
+     * @return 更新前的播放记录，只包含 id、moment和 finished
      */
-    public LearningRecord readRecordCache(Long lessonId, Long sectionId) {
+    public LearningRecord compareAndWriteRecordCache(Long lessonId, Long sectionId, int moment, int duration) {
         try {
-            // 1. 读取数据
             String key = StringUtils.format(RECORD_KEY_TEMPLATE, lessonId);
-            Object cacheData = redisTemplate.opsForHash().get(key, sectionId.toString());
-            if (Objects.isNull(cacheData)) {
-                return null;
-            }
-            // 2. JSON数据转换
-            return JsonUtils.toBean(cacheData.toString(), LearningRecord.class);
+            byte[] old = redisTemplate.execute(CACHE_UPDATE_SCRIPT, RedisSerializer.byteArray(), RedisSerializer.byteArray(),
+                    List.of(key),
+                    toBytes(sectionId), toBytes(moment), toBytes(duration), toBytes(RECORD_CACHE_TTL_SECONDS));
+            return decodeRecordCache(old);
         } catch (Exception e) {
             log.error("缓存数据读取异常", e);
             return null;
         }
     }
 
+    /**
+     * 通过管道批量读取播放记录缓存，返回结果与任务一一对应，缓存不存在的位置为 null
+     */
+    private List<LearningRecord> readRecordCaches(List<RecordTaskData> tasks) {
+        List<Object> list = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (RecordTaskData data : tasks) {
+                String key = StringUtils.format(RECORD_KEY_TEMPLATE, data.getLessonId());
+                connection.hGet(toBytes(key), toBytes(data.getSectionId()));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        List<LearningRecord> records = new ArrayList<>(tasks.size());
+        for (Object cacheData : list) {
+            records.add(decodeRecordCache((byte[]) cacheData));
+        }
+        return records;
+    }
+
+    private static byte[] encodeRecordCache(Long id, Integer moment, Boolean finished) {
+        return ByteBuffer.allocate(RECORD_CACHE_SIZE)
+                .putLong(id)
+                .putInt(moment)
+                .put((byte) (BooleanUtils.isTrue(finished) ? 1 : 0))
+                .array();
+    }
+
+    // 长度不符的数据(例如旧版本的 JSON格式)视为缓存不存在
+    private static LearningRecord decodeRecordCache(byte[] data) {
+        if (data == null || data.length != RECORD_CACHE_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        LearningRecord record = new LearningRecord();
+        record.setId(buffer.getLong());
+        record.setMoment(buffer.getInt());
+        record.setFinished(buffer.get() == 1);
+        return record;
+    }
+
+    private static byte[] toBytes(Object value) {
+        return value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
     /**
      * 在缓存中删除播放记录
      * @param lessonId
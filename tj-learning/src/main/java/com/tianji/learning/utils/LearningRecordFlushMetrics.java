@@ -0,0 +1,74 @@
+package com.tianji.learning.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 学习记录批量刷新的统计指标：批次数量、批次大小、刷新耗时
+ */
+@Slf4j
+@Component
+public class LearningRecordFlushMetrics {
+    /**
+     * 刷新的批次数量
+     */
+    private final LongAdder flushCount = new LongAdder();
+    /**
+     * 处理的到期任务数量
+     */
+    private final LongAdder taskCount = new LongAdder();
+    /**
+     * 真正写入数据库的学习记录数量
+     */
+    private final LongAdder persistedCount = new LongAdder();
+    /**
+     * 刷新总耗时，单位毫秒
+     */
+    private final LongAdder totalLatencyMillis = new LongAdder();
+    /**
+     * 单批次最大耗时，单位毫秒
+     */
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+    /**
+     * 单批次最大任务数量
+     */
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    /**
+     * 记录一次批量刷新
+     * @param batchSize 批次中的任务数量
+     * @param persisted 批次中真正写入数据库的学习记录数量
+     * @param latencyMillis 刷新耗时
+     */
+    public void record(int batchSize, int persisted, long latencyMillis) {
+        flushCount.increment();
+        taskCount.add(batchSize);
+        persistedCount.add(persisted);
+        totalLatencyMillis.add(latencyMillis);
+        maxLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+        maxBatchSize.accumulateAndGet(batchSize, Math::max);
+        log.debug("批量刷新学习记录，任务数量：{}，写入数量：{}，耗时：{}ms", batchSize, persisted, latencyMillis);
+    }
+
+    /**
+     * 定时输出统计指标并重置
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void report() {
+        long flushes = flushCount.sumThenReset();
+        long tasks = taskCount.sumThenReset();
+        long persisted = persistedCount.sumThenReset();
+        long latency = totalLatencyMillis.sumThenReset();
+        long maxLatency = maxLatencyMillis.getAndSet(0);
+        long maxBatch = maxBatchSize.getAndSet(0);
+        if (flushes == 0) {
+            return;
+        }
+        log.info("学习记录批量刷新统计，批次：{}，任务：{}，写入：{}，平均批次大小：{}，最大批次大小：{}，平均耗时：{}ms，最大耗时：{}ms",
+                flushes, tasks, persisted, tasks / flushes, maxBatch, latency / flushes, maxLatency);
+    }
+}
@@ -0,0 +1,48 @@
+package com.tianji.learning.utils;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 JVM内 DelayQueue的延迟任务队列，仅适用于单节点部署，服务重启后未执行的任务会丢失
+ */
+@Component
+@ConditionalOnProperty(prefix = "tj.learning.delay", name = "type", havingValue = "local")
+public class LocalRecordDelayQueue implements RecordDelayQueue {
+
+    private final DelayQueue<DelayTask<RecordTaskData>> queue = new DelayQueue<>();
+
+    @Override
+    public void offer(RecordTaskData data, Duration delay) {
+        queue.add(new DelayTask<>(data, delay));
+    }
+
+    @Override
+    public List<RecordTaskData> poll(int consumerIndex, int maxSize, Duration timeout) throws InterruptedException {
+        // 1. 等待第一个到期的任务
+        DelayTask<RecordTaskData> first = queue.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return new ArrayList<>(0);
+        }
+        // 2. 顺带取出其它已经到期的任务
+        List<DelayTask<RecordTaskData>> tasks = new ArrayList<>();
+        tasks.add(first);
+        queue.drainTo(tasks, maxSize - 1);
+        List<RecordTaskData> list = new ArrayList<>(tasks.size());
+        for (DelayTask<RecordTaskData> task : tasks) {
+            list.add(task.getData());
+        }
+        return list;
+    }
+
+    @Override
+    public void ack(List<RecordTaskData> list) {
+        // 任务出队时就已经从队列中移除，无需确认
+    }
+}
@@ -0,0 +1,153 @@
+package com.tianji.learning.utils;
+
+import com.tianji.api.client.user.UserClient;
+import com.tianji.api.dto.user.UserDTO;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.learning.config.LearningProperties;
+import com.tianji.learning.domain.vo.PointsBoardItemVO;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 当前赛季积分榜单的热点缓存
+ * <p>
+ * 1. 缓存榜单前 hotSize名的快照，用户名已经填充好，所有用户查询前几页时直接从内存中截取
+ * 2. 快照过期后由单个后台线程异步刷新，刷新期间继续返回旧快照，避免并发请求同时击穿到 Redis和用户服务
+ * 3. 只有没有可用快照(服务刚启动或者赛季切换)时才同步加载，同一时间也只有一个线程加载
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PointsBoardHotCache {
+
+    private final StringRedisTemplate redisTemplate;
+    private final UserClient userClient;
+    private final LearningProperties learningProperties;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "points-board-hot-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Snapshot snapshot;
+
+    @PreDestroy
+    public void destroy() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * 查询榜单的指定页，超出缓存范围时返回 null，由调用方查询 Redis
+     */
+    public List<PointsBoardItemVO> getPage(String key, int pageNo, int pageSize) {
+        LearningProperties.Board properties = learningProperties.getBoard();
+        int from = (pageNo - 1) * pageSize;
+        if (from < 0 || from + pageSize > properties.getHotSize()) {
+            return null;
+        }
+        // 1. 获取快照
+        Snapshot current = snapshot;
+        if (current == null || !current.key.equals(key)) {
+            current = loadSync(key);
+        } else if (System.currentTimeMillis() - current.loadTime > properties.getHotTtlMillis()) {
+            refreshAsync(key);
+        }
+        // 2. 截取分页
+        List<PointsBoardItemVO> items = current.items;
+        if (from >= items.size()) {
+            return CollUtils.emptyList();
+        }
+        return new ArrayList<>(items.subList(from, Math.min(from + pageSize, items.size())));
+    }
+
+    private synchronized Snapshot loadSync(String key) {
+        Snapshot current = snapshot;
+        if (current != null && current.key.equals(key)) {
+            return current;// 其它线程已经加载完成
+        }
+        current = load(key);
+        snapshot = current;
+        return current;
+    }
+
+    private void refreshAsync(String key) {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;// 已经有刷新任务在执行
+        }
+        try {
+            loader.execute(() -> {
+                try {
+                    snapshot = load(key);
+                } catch (Exception e) {
+                    log.error("刷新积分榜单热点缓存失败", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        } catch (Exception e) {
+            refreshing.set(false);
+            log.error("提交积分榜单热点缓存刷新任务失败", e);
+        }
+    }
+
+    private Snapshot load(String key) {
+        // 1. 查询榜单前 hotSize名
+        Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet()
+                .reverseRangeWithScores(key, 0, learningProperties.getBoard().getHotSize() - 1);
+        if (CollUtils.isEmpty(tuples)) {
+            return new Snapshot(key, CollUtils.emptyList());
+        }
+        // 2. 一次查询所有用户名
+        Set<Long> userIds = tuples.stream()
+                .map(ZSetOperations.TypedTuple::getValue)
+                .filter(Objects::nonNull)
+                .map(Long::valueOf)
+                .collect(Collectors.toSet());
+        List<UserDTO> users = userClient.queryUserByIds(userIds);
+        Map<Long, String> userMap = new HashMap<>(userIds.size());
+        if (CollUtils.isNotEmpty(users)) {
+            for (UserDTO user : users) {
+                userMap.put(user.getId(), user.getName());
+            }
+        }
+        // 3. 封装快照
+        List<PointsBoardItemVO> items = new ArrayList<>(tuples.size());
+        int rank = 1;
+        for (ZSetOperations.TypedTuple<String> t : tuples) {
+            if (t.getScore() == null || t.getValue() == null) continue;
+            PointsBoardItemVO vo = new PointsBoardItemVO();
+            vo.setPoints(t.getScore().intValue());
+            vo.setRank(rank++);
+            vo.setName(userMap.get(Long.valueOf(t.getValue())));
+            items.add(vo);
+        }
+        return new Snapshot(key, items);
+    }
+
+    private static class Snapshot {
+        private final String key;
+        private final List<PointsBoardItemVO> items;
+        private final long loadTime = System.currentTimeMillis();
+
+        private Snapshot(String key, List<PointsBoardItemVO> items) {
+            this.key = key;
+            this.items = items;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.tianji.learning.utils;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 学习记录的延迟任务队列，任务到期后才能被领取，领取后需要确认，否则会被重新投递
+ */
+public interface RecordDelayQueue {
+    /**
+     * 添加延迟任务
+     * @param data 任务数据
+     * @param delay 延迟时间
+     */
+    void offer(RecordTaskData data, Duration delay);
+
+    /**
+     * 领取已到期的任务，没有到期任务时最多等待 timeout
+     * @param consumerIndex 消费者编号，用于分散不同消费者的领取起点
+     * @param maxSize 单次领取的最大数量
+     * @param timeout 最大等待时间
+     * @return 已到期的任务，可能为空
+     */
+    List<RecordTaskData> poll(int consumerIndex, int maxSize, Duration timeout) throws InterruptedException;
+
+    /**
+     * 批量确认任务已处理完成
+     */
+    void ack(List<RecordTaskData> list);
+}
@@ -0,0 +1,64 @@
+package com.tianji.learning.utils;
+
+import com.tianji.learning.domain.pojo.LearningRecord;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 学习记录延迟任务中的数据
+ */
+@Data
+@NoArgsConstructor
+public class RecordTaskData {
+    private static final char SEPARATOR = ':';
+
+    private Long lessonId;
+    private Long sectionId;
+    private Integer moment;
+    // 学习记录 id，缓存过期时直接用任务中的数据持久化，旧版本的任务中为 null
+    private Long recordId;
+
+    public RecordTaskData(LearningRecord record) {
+        this.lessonId = record.getLessonId();
+        this.sectionId = record.getSectionId();
+        this.moment = record.getMoment();
+        this.recordId = record.getId();
+    }
+
+    /**
+     * 编码为紧凑的字符串，格式为 lessonId:sectionId:moment:recordId，用作 Redis延迟队列中的 member
+     */
+    public String encode() {
+        String value = lessonId + String.valueOf(SEPARATOR) + sectionId + SEPARATOR + moment;
+        return recordId == null ? value : value + SEPARATOR + recordId;
+    }
+
+    /**
+     * 解析 {@link #encode()}生成的字符串，兼容旧版本的 lessonId:sectionId:moment格式，格式错误时返回 null
+     */
+    public static RecordTaskData decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        int first = value.indexOf(SEPARATOR);
+        int second = value.indexOf(SEPARATOR, first + 1);
+        if (first <= 0 || second <= first) {
+            return null;
+        }
+        int third = value.indexOf(SEPARATOR, second + 1);
+        try {
+            RecordTaskData data = new RecordTaskData();
+            data.setLessonId(Long.parseLong(value.substring(0, first)));
+            data.setSectionId(Long.parseLong(value.substring(first + 1, second)));
+            if (third < 0) {
+                data.setMoment(Integer.parseInt(value.substring(second + 1)));
+            } else {
+                data.setMoment(Integer.parseInt(value.substring(second + 1, third)));
+                data.setRecordId(Long.parseLong(value.substring(third + 1)));
+            }
+            return data;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.tianji.learning.utils;
+
+import com.tianji.common.utils.CollUtils;
+import com.tianji.learning.config.LearningProperties;
+import com.tianji.learning.constants.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Redis分片 ZSet的分布式延迟任务队列
+ * <p>
+ * 1. 任务按照 lessonId哈希到不同分片，score为任务到期时间
+ * 2. 通过 Lua脚本原子地领取到期任务，并移入未确认队列，多个节点、多个消费者之间不会重复领取
+ * 3. 任务处理完成后需要确认，未确认的任务在超时后重新投递，服务重启也不会丢失任务
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "tj.learning.delay", name = "type", havingValue = "redis", matchIfMissing = true)
+public class RedisRecordDelayQueue implements RecordDelayQueue {
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("lua/delay_task_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final LearningProperties.Delay properties;
+
+    public RedisRecordDelayQueue(StringRedisTemplate redisTemplate, LearningProperties learningProperties) {
+        this.redisTemplate = redisTemplate;
+        this.properties = learningProperties.getDelay();
+    }
+
+    @Override
+    public void offer(RecordTaskData data, Duration delay) {
+        long deadline = System.currentTimeMillis() + delay.toMillis();
+        redisTemplate.opsForZSet().add(readyKey(shardOf(data)), data.encode(), deadline);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RecordTaskData> poll(int consumerIndex, int maxSize, Duration timeout) throws InterruptedException {
+        int shards = properties.getShards();
+        long ackTimeout = TimeUnit.SECONDS.toMillis(properties.getAckTimeoutSeconds());
+        List<RecordTaskData> list = new ArrayList<>();
+        // 1. 从当前消费者对应的分片开始，依次领取各个分片中到期的任务
+        for (int i = 0; i < shards && list.size() < maxSize; i++) {
+            int shard = (consumerIndex + i) % shards;
+            long now = System.currentTimeMillis();
+            List<String> tasks = redisTemplate.execute(
+                    CLAIM_SCRIPT,
+                    List.of(readyKey(shard), ackKey(shard)),
+                    String.valueOf(now),
+                    String.valueOf(maxSize - list.size()),
+                    String.valueOf(now + ackTimeout));
+            if (CollUtils.isEmpty(tasks)) {
+                continue;
+            }
+            for (String task : tasks) {
+                RecordTaskData data = RecordTaskData.decode(task);
+                if (data == null) {
+                    log.error("无法解析的学习记录延迟任务：{}", task);
+                    continue;
+                }
+                list.add(data);
+            }
+        }
+        // 2. 所有分片都没有到期任务，等待一段时间再重试
+        if (list.isEmpty()) {
+            Thread.sleep(timeout.toMillis());
+        }
+        return list;
+    }
+
+    @Override
+    public void ack(List<RecordTaskData> list) {
+        if (CollUtils.isEmpty(list)) {
+            return;
+        }
+        // 按分片分组后，每个分片只需要一次 ZREM
+        Map<Integer, List<Object>> shardMap = new HashMap<>();
+        for (RecordTaskData data : list) {
+            shardMap.computeIfAbsent(shardOf(data), k -> new ArrayList<>()).add(data.encode());
+        }
+        shardMap.forEach((shard, members) -> redisTemplate.opsForZSet().remove(ackKey(shard), members.toArray()));
+    }
+
+    private int shardOf(RecordTaskData data) {
+        return Math.floorMod(data.getLessonId().hashCode(), properties.getShards());
+    }
+
+    private String readyKey(int shard) {
+        return RedisConstants.LEARNING_RECORD_DELAY_KEY_PREFIX + "{" + shard + "}";
+    }
+
+    private String ackKey(int shard) {
+        return readyKey(shard) + RedisConstants.LEARNING_RECORD_DELAY_ACK_SUFFIX;
+    }
+}
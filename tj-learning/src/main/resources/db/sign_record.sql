@@ -0,0 +1,15 @@
+-- 月度签到记录，由 redis中的签到位图压缩而来
+-- SignRecordMapper.insertBatch 使用 ON DUPLICATE KEY UPDATE 覆盖写入，依赖 uk_user_month 唯一索引
+CREATE TABLE IF NOT EXISTS `sign_record`
+(
+    `id`      BIGINT NOT NULL AUTO_INCREMENT COMMENT '签到记录id',
+    `user_id` BIGINT NOT NULL COMMENT '用户id',
+    `month`   INT    NOT NULL COMMENT '签到月份，例如 202401',
+    `bitmap`  INT    NOT NULL DEFAULT 0 COMMENT '签到位图，最低位为当月第一天，第 n位为 1表示第 n+1天已签到',
+    PRIMARY KEY (`id`) USING BTREE,
+    UNIQUE INDEX `uk_user_month` (`user_id`, `month`) USING BTREE
+)
+    COMMENT ='月度签到记录'
+    COLLATE = 'utf8mb4_0900_ai_ci'
+    ENGINE = InnoDB
+    ROW_FORMAT = DYNAMIC;
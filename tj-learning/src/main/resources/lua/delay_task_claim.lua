@@ -0,0 +1,19 @@
+-- 领取到期的延迟任务
+-- KEYS[1]：待执行任务的 ZSet，score为任务到期时间
+-- KEYS[2]：已领取但未确认任务的 ZSet，score为确认超时时间
+-- ARGV[1]：当前时间戳(毫秒)，ARGV[2]：单次领取的最大数量，ARGV[3]：本次领取任务的确认超时时间戳(毫秒)
+
+-- 1. 将确认超时的任务放回待执行队列，领取它们的节点可能已经宕机
+local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+for _, task in ipairs(expired) do
+    redis.call('ZREM', KEYS[2], task)
+    redis.call('ZADD', KEYS[1], ARGV[1], task)
+end
+
+-- 2. 领取到期的任务，并移入未确认队列
+local tasks = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+for _, task in ipairs(tasks) do
+    redis.call('ZREM', KEYS[1], task)
+    redis.call('ZADD', KEYS[2], ARGV[3], task)
+end
+return tasks
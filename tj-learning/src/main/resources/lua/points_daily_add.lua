@@ -0,0 +1,8 @@
+-- 累加用户当日没有上限的积分方式获得的积分，只用于查询今日积分
+-- 计数器不存在时不累加，也不需要加载，查询时会从数据库加载
+-- KEYS[1]：用户当日的积分计数器，points:daily:{userId}:{yyyyMMdd}
+-- ARGV[1]：积分方式，ARGV[2]：本次累加的积分
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,24 @@
+-- 累加用户当日某种方式获得的积分，同时判断积分上限
+-- KEYS[1]：用户当日的积分计数器，points:daily:{userId}:{yyyyMMdd}
+-- ARGV[1]：积分方式，ARGV[2]：本次要累加的积分，ARGV[3]：该方式的每日上限，0表示没有上限
+-- 返回值：-1表示计数器未初始化，需要先从数据库加载，否则返回实际累加的积分
+
+-- 1. 计数器不存在，说明今日还未从数据库加载
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return -1
+end
+
+-- 2. 计算实际能累加的积分
+local points = tonumber(ARGV[2])
+local maxPoints = tonumber(ARGV[3])
+if maxPoints > 0 then
+    local cur = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0')
+    points = math.min(points, maxPoints - cur)
+end
+if points <= 0 then
+    return 0
+end
+
+-- 3. 累加积分
+redis.call('HINCRBY', KEYS[1], ARGV[1], points)
+return points
@@ -0,0 +1,6 @@
+-- 写入小节的播放记录缓存并设置过期时间
+-- KEYS[1]：课表的播放记录缓存 key，learning:record:{lessonId}
+-- ARGV[1]：小节id，ARGV[2]：定长二进制的缓存值，ARGV[3]：缓存的过期时间(秒)
+redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+redis.call('EXPIRE', KEYS[1], ARGV[3])
+return 1
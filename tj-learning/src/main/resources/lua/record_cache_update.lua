@@ -0,0 +1,28 @@
+-- 读取并更新小节的播放记录缓存，一次往返完成 读取-比较-写入-续期
+-- 缓存值为定长二进制：id(8字节) + moment(4字节，大端) + finished(1字节)
+-- KEYS[1]：课表的播放记录缓存 key，learning:record:{lessonId}
+-- ARGV[1]：小节id，ARGV[2]：本次提交的播放进度，ARGV[3]：视频总时长，ARGV[4]：缓存的过期时间(秒)
+
+-- 1. 读取旧的播放记录，不存在或者格式无法识别时视为缓存未命中
+local old = redis.call('HGET', KEYS[1], ARGV[1])
+if not old then
+    return nil
+end
+if string.len(old) ~= 13 then
+    redis.call('HDEL', KEYS[1], ARGV[1])
+    return nil
+end
+
+-- 2. 第一次学完该小节，由调用方直接写入数据库，缓存删除即可
+local moment = tonumber(ARGV[2])
+if string.byte(old, 13) == 0 and moment * 2 >= tonumber(ARGV[3]) then
+    redis.call('HDEL', KEYS[1], ARGV[1])
+    return old
+end
+
+-- 3. 否则只替换播放进度，id和 finished保持不变，并重置过期时间
+local m = string.char(math.floor(moment / 16777216) % 256, math.floor(moment / 65536) % 256,
+        math.floor(moment / 256) % 256, moment % 256)
+redis.call('HSET', KEYS[1], ARGV[1], string.sub(old, 1, 8) .. m .. string.sub(old, 13, 13))
+redis.call('EXPIRE', KEYS[1], ARGV[4])
+return old
@@ -0,0 +1,22 @@
+-- 用户签到，一次往返完成 签到-读取本月签到记录-计算连续签到天数
+-- KEYS[1]：用户本月的签到记录，sign:uid:{userId}:{yyyyMM}
+-- ARGV[1]：今天是本月的第几天
+-- 返回值：{是否签到成功(0/1), 本月第一天到今天的签到记录, 连续签到天数}
+
+-- 1. 签到，已经签到过则直接返回
+local day = tonumber(ARGV[1])
+if redis.call('SETBIT', KEYS[1], day - 1, 1) == 1 then
+    return {0, 0, 0}
+end
+
+-- 2. 读取本月第一天到今天的签到记录，最低位为今天
+local bitmap = redis.call('BITFIELD', KEYS[1], 'GET', 'u' .. day, 0)[1]
+
+-- 3. 从今天开始往前统计连续签到的天数
+local streak = 0
+local num = bitmap
+while num % 2 == 1 do
+    streak = streak + 1
+    num = math.floor(num / 2)
+end
+return {1, bitmap, streak}
@@ -0,0 +1,56 @@
+package com.tianji.learning.service.impl;
+
+import com.tianji.learning.domain.pojo.PointsRecord;
+import com.tianji.learning.enums.PointsRecordType;
+import com.tianji.learning.mapper.PointsRecordMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PointsRecordServiceImplTest {
+
+    private StringRedisTemplate redisTemplate;
+    private PointsRecordMapper pointsRecordMapper;
+    private PointsRecordServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        pointsRecordMapper = mock(PointsRecordMapper.class);
+        service = new PointsRecordServiceImpl(redisTemplate);
+        ReflectionTestUtils.setField(service, "baseMapper", pointsRecordMapper);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBoardFailureAfterInsertIsNotRethrown() {
+        when(redisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("redis down"));
+
+        // 积分记录已经写入数据库，抛出异常会导致整批消息重新投递、重复新增积分
+        assertDoesNotThrow(() -> service.addPointsRecords(List.of(
+                new PointsRecord().setUserId(1L).setPoints(1).setType(PointsRecordType.SIGN),
+                new PointsRecord().setUserId(1L).setPoints(2).setType(PointsRecordType.SIGN))));
+
+        verify(pointsRecordMapper, times(1)).insertBatch(argThat(list -> list.size() == 1 && list.get(0).getPoints() == 3));
+    }
+
+    @Test
+    void testInsertFailureIsRethrown() {
+        doThrow(new IllegalStateException("db down")).when(pointsRecordMapper).insertBatch(anyList());
+
+        assertThrows(IllegalStateException.class, () -> service.addPointsRecords(List.of(
+                new PointsRecord().setUserId(1L).setPoints(1).setType(PointsRecordType.SIGN))));
+
+        verify(redisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+}
@@ -0,0 +1,93 @@
+package com.tianji.learning.utils;
+
+import com.tianji.learning.config.LearningProperties;
+import com.tianji.learning.domain.pojo.LearningLesson;
+import com.tianji.learning.domain.pojo.LearningRecord;
+import com.tianji.learning.mapper.LearningLessonMapper;
+import com.tianji.learning.mapper.LearningRecordMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.tianji.learning.utils.RecordTaskDataTest.task;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LearningRecordDelayTaskHandlerTest {
+
+    private StringRedisTemplate redisTemplate;
+    private LearningRecordMapper recordMapper;
+    private LearningLessonMapper lessonMapper;
+    private RecordDelayQueue queue;
+    private LearningRecordDelayTaskHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        recordMapper = mock(LearningRecordMapper.class);
+        lessonMapper = mock(LearningLessonMapper.class);
+        queue = mock(RecordDelayQueue.class);
+        handler = new LearningRecordDelayTaskHandler(redisTemplate, recordMapper, lessonMapper,
+                new LearningRecordFlushMetrics(), queue, new LearningProperties());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFlushPersistsCachedAndExpiredRecords() {
+        List<RecordTaskData> tasks = Arrays.asList(
+                task(1L, 11L, 100, 101L),// 缓存中的进度一致，正常持久化
+                task(1L, 12L, 50, 102L),// 用户还在继续学习，放弃旧数据
+                task(2L, 21L, 200, 201L),// 缓存已过期，使用任务中的数据持久化
+                task(2L, 21L, 180, 201L),// 同一条记录保留最大的进度
+                task(3L, 31L, 300, null));// 旧版本任务中没有记录 id，只能放弃
+        when(redisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenReturn(Arrays.asList(cache(101L, 100), cache(102L, 60), null, null, null));
+
+        handler.flushRecordTasks(tasks);
+
+        ArgumentCaptor<List<LearningRecord>> cached = ArgumentCaptor.forClass(List.class);
+        verify(recordMapper).updateMomentBatch(cached.capture());
+        assertEquals(1, cached.getValue().size());
+        assertEquals(101L, cached.getValue().get(0).getId());
+        assertEquals(100, cached.getValue().get(0).getMoment());
+
+        ArgumentCaptor<List<LearningRecord>> expired = ArgumentCaptor.forClass(List.class);
+        verify(recordMapper).advanceMomentBatch(expired.capture());
+        assertEquals(1, expired.getValue().size());
+        assertEquals(201L, expired.getValue().get(0).getId());
+        assertEquals(200, expired.getValue().get(0).getMoment());
+
+        ArgumentCaptor<List<LearningLesson>> lessons = ArgumentCaptor.forClass(List.class);
+        verify(lessonMapper).updateLatestLearnBatch(lessons.capture());
+        assertEquals(2, lessons.getValue().size());
+        assertEquals(11L, lessons.getValue().get(0).getLatestSectionId());
+        assertEquals(21L, lessons.getValue().get(1).getLatestSectionId());
+
+        verify(queue).ack(tasks);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFlushFailureLeavesTasksUnacked() {
+        List<RecordTaskData> tasks = List.of(task(1L, 11L, 100, 101L));
+        when(redisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenReturn(Arrays.asList((Object) null));
+        when(recordMapper.advanceMomentBatch(anyList())).thenThrow(new IllegalStateException("db down"));
+
+        assertThrows(IllegalStateException.class, () -> handler.flushRecordTasks(tasks));
+
+        verify(queue, never()).ack(anyList());
+    }
+
+    private static byte[] cache(Long id, int moment) {
+        return ByteBuffer.allocate(13).putLong(id).putInt(moment).put((byte) 0).array();
+    }
+}
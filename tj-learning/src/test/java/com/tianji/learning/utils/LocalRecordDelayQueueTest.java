@@ -0,0 +1,44 @@
+package com.tianji.learning.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static com.tianji.learning.utils.RecordTaskDataTest.task;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalRecordDelayQueueTest {
+
+    private final LocalRecordDelayQueue queue = new LocalRecordDelayQueue();
+
+    @Test
+    void testPollOnlyExpiredTasksInOrder() throws InterruptedException {
+        queue.offer(task(1L, 1L, 20, 1L), Duration.ofMillis(100));
+        queue.offer(task(2L, 1L, 10, 2L), Duration.ZERO);
+        queue.offer(task(3L, 1L, 30, 3L), Duration.ofHours(1));
+
+        // 未到期时等待第一个到期的任务，再顺带取出其它到期任务
+        List<RecordTaskData> first = queue.poll(0, 10, Duration.ofSeconds(1));
+        assertEquals(1, first.size());
+        assertEquals(2L, first.get(0).getLessonId());
+
+        List<RecordTaskData> second = queue.poll(0, 10, Duration.ofSeconds(1));
+        assertEquals(1, second.size());
+        assertEquals(1L, second.get(0).getLessonId());
+
+        // 没有到期任务时等待超时后返回空列表
+        assertTrue(queue.poll(0, 10, Duration.ofMillis(50)).isEmpty());
+    }
+
+    @Test
+    void testPollRespectsMaxSize() throws InterruptedException {
+        for (long i = 0; i < 5; i++) {
+            queue.offer(task(i, 1L, 10, i), Duration.ZERO);
+        }
+
+        assertEquals(3, queue.poll(0, 3, Duration.ZERO).size());
+        assertEquals(2, queue.poll(0, 3, Duration.ZERO).size());
+        assertTrue(queue.poll(0, 3, Duration.ZERO).isEmpty());
+    }
+}
@@ -0,0 +1,45 @@
+package com.tianji.learning.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordTaskDataTest {
+
+    @Test
+    void testEncodeAndDecode() {
+        RecordTaskData data = task(1L, 2L, 30, 4L);
+
+        assertEquals("1:2:30:4", data.encode());
+        assertEquals(data, RecordTaskData.decode(data.encode()));
+    }
+
+    @Test
+    void testDecodeLegacyFormat() {
+        // 旧版本的任务中没有学习记录 id，确认时需要编码回原来的 member
+        RecordTaskData data = RecordTaskData.decode("1:2:30");
+
+        assertNotNull(data);
+        assertEquals(30, data.getMoment());
+        assertNull(data.getRecordId());
+        assertEquals("1:2:30", data.encode());
+    }
+
+    @Test
+    void testDecodeIllegalValue() {
+        assertNull(RecordTaskData.decode(null));
+        assertNull(RecordTaskData.decode("1"));
+        assertNull(RecordTaskData.decode("1:2"));
+        assertNull(RecordTaskData.decode("1:a:30"));
+        assertNull(RecordTaskData.decode("1:2:30:b"));
+    }
+
+    static RecordTaskData task(Long lessonId, Long sectionId, Integer moment, Long recordId) {
+        RecordTaskData data = new RecordTaskData();
+        data.setLessonId(lessonId);
+        data.setSectionId(sectionId);
+        data.setMoment(moment);
+        data.setRecordId(recordId);
+        return data;
+    }
+}
@@ -0,0 +1,111 @@
+package com.tianji.learning.utils;
+
+import com.tianji.learning.config.LearningProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static com.tianji.learning.utils.RecordTaskDataTest.task;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RedisRecordDelayQueueTest {
+
+    private static final String READY_KEY = "learning:record:delay:{%d}";
+    private static final String ACK_KEY = "learning:record:delay:{%d}:ack";
+
+    private StringRedisTemplate redisTemplate;
+    private ZSetOperations<String, String> zSetOps;
+    private RedisRecordDelayQueue queue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        zSetOps = mock(ZSetOperations.class);
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOps);
+        LearningProperties properties = new LearningProperties();
+        properties.getDelay().setShards(4);
+        properties.getDelay().setAckTimeoutSeconds(30);
+        queue = new RedisRecordDelayQueue(redisTemplate, properties);
+    }
+
+    @Test
+    void testOfferToShardByLessonId() {
+        long before = System.currentTimeMillis();
+        queue.offer(task(6L, 2L, 30, 9L), Duration.ofSeconds(20));
+
+        // 6 % 4 = 2，score为任务到期时间
+        verify(zSetOps).add(eq(String.format(READY_KEY, 2)), eq("6:2:30:9"),
+                doubleThat(score -> score >= before + 20_000 && score <= System.currentTimeMillis() + 20_000));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPollClaimsShardsFromConsumerIndex() throws InterruptedException {
+        when(redisTemplate.execute(any(RedisScript.class), eq(keys(1)), any(), any(), any()))
+                .thenReturn(List.of("5:1:10:7", "bad-member"));
+        when(redisTemplate.execute(any(RedisScript.class), eq(keys(2)), any(), any(), any()))
+                .thenReturn(List.of("6:1:20:8"));
+
+        long before = System.currentTimeMillis();
+        List<RecordTaskData> tasks = queue.poll(1, 2, Duration.ofSeconds(10));
+
+        // 无法解析的任务被跳过，领取到足够的数量后不再访问其它分片
+        assertEquals(List.of(task(5L, 1L, 10, 7L), task(6L, 1L, 20, 8L)), tasks);
+        verify(redisTemplate).execute(any(RedisScript.class), eq(keys(1)),
+                argThat(now -> Long.parseLong((String) now) >= before), eq("2"),
+                argThat(deadline -> Long.parseLong((String) deadline) >= before + 30_000));
+        verify(redisTemplate).execute(any(RedisScript.class), eq(keys(2)), any(), eq("1"), any());
+        verify(redisTemplate, never()).execute(any(RedisScript.class), eq(keys(3)), any(), any(), any());
+        verify(redisTemplate, never()).execute(any(RedisScript.class), eq(keys(0)), any(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPollWaitsWhenNothingClaimed() throws InterruptedException {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenReturn(Collections.emptyList());
+
+        long start = System.currentTimeMillis();
+        assertTrue(queue.poll(0, 10, Duration.ofMillis(100)).isEmpty());
+
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        verify(redisTemplate, times(4)).execute(any(RedisScript.class), anyList(), any(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testUnackedTaskIsClaimedAgain() throws InterruptedException {
+        // 未确认的任务超时后由领取脚本放回待执行队列，再次领取时解析出同样的任务
+        when(redisTemplate.execute(any(RedisScript.class), eq(keys(0)), any(), any(), any()))
+                .thenReturn(List.of("4:1:10:7"))
+                .thenReturn(List.of("4:1:10:7"));
+
+        List<RecordTaskData> first = queue.poll(0, 1, Duration.ZERO);
+        List<RecordTaskData> redelivered = queue.poll(0, 1, Duration.ZERO);
+
+        assertEquals(first, redelivered);
+        verify(zSetOps, never()).remove(anyString(), any());
+    }
+
+    @Test
+    void testAckRemovesFromAckQueueGroupedByShard() {
+        queue.ack(List.of(task(1L, 1L, 10, 7L), task(5L, 2L, 20, 8L), task(2L, 1L, 30, null)));
+
+        // 1和 5都在分片 1，只需要一次 ZREM；旧格式的任务按原来的 member确认
+        verify(zSetOps).remove(String.format(ACK_KEY, 1), "1:1:10:7", "5:2:20:8");
+        verify(zSetOps).remove(String.format(ACK_KEY, 2), "2:1:30");
+        verifyNoMoreInteractions(zSetOps);
+    }
+
+    private static List<String> keys(int shard) {
+        return List.of(String.format(READY_KEY, shard), String.format(ACK_KEY, shard));
+    }
+}
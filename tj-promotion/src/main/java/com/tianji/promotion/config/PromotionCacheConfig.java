@@ -0,0 +1,36 @@
+package com.tianji.promotion.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tianji.promotion.domain.pojo.Coupon;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class PromotionCacheConfig {
+    /**
+     * 优惠券使用范围的caffeine缓存，value为排好序的分类 id，修改或删除优惠券时失效
+     */
+    @Bean
+    public Cache<Long, long[]> couponScopeCaches() {
+        return Caffeine.newBuilder()
+                .initialCapacity(1_000) // 初始容量
+                .maximumSize(50_000) // 最大缓存数量
+                .expireAfterWrite(Duration.ofMinutes(30)) // 有效期，兜底其它节点修改优惠券的情况
+                .build();
+    }
+
+    /**
+     * 发放中优惠券的发放时间、每人限领数量的caffeine缓存，库存仍以 Redis为准，暂停或开始发放时失效
+     */
+    @Bean
+    public Cache<Long, Coupon> couponIssueCaches() {
+        return Caffeine.newBuilder()
+                .initialCapacity(100) // 初始容量
+                .maximumSize(10_000) // 最大缓存数量
+                .expireAfterWrite(Duration.ofSeconds(3)) // 有效期，兜底其它节点暂停发放的情况
+                .build();
+    }
+}
@@ -0,0 +1,35 @@
+package com.tianji.promotion.config;
+
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PromotionMqConfig {
+    /**
+     * 批量消费领券消息的监听容器工厂的名称
+     */
+    public static final String RECEIVE_BATCH_CONTAINER_FACTORY = "receiveBatchContainerFactory";
+
+    /**
+     * 批量消费领券消息的监听容器工厂，消息按批次交给监听方法，重试、确认等配置与默认工厂保持一致
+     */
+    @Bean(RECEIVE_BATCH_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory receiveBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory,
+            PromotionProperties promotionProperties) {
+        PromotionProperties.Receive properties = promotionProperties.getReceive();
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        // 1. 开启批量监听，由消费者攒批
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(properties.getBatchSize());
+        factory.setReceiveTimeout(properties.getReceiveTimeoutMillis());
+        // 2. 预取数量不能小于批次大小，否则永远攒不满一批
+        factory.setPrefetchCount(properties.getBatchSize());
+        return factory;
+    }
+}
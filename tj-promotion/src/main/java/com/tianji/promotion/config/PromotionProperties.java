@@ -0,0 +1,27 @@
+package com.tianji.promotion.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "tj.promotion")
+public class PromotionProperties {
+    /**
+     * 领券消息批量消费的配置
+     */
+    private Receive receive = new Receive();
+
+    @Data
+    public static class Receive {
+        /**
+         * 单次批量消费的最大消息数量
+         */
+        private int batchSize = 200;
+        /**
+         * 攒批时等待消息的最长时间，单位毫秒，达到该时间后即使数量不足也会消费
+         */
+        private long receiveTimeoutMillis = 200;
+    }
+}
@@ -29,6 +29,27 @@ public class ThreadPoolConfig {
         return executor;
     }
 
+    /**
+     * 并行生成兑换码分块的线程池，与 generateExchangeCodeExecutor分开，避免调度线程等待分块任务时占满线程
+     */
+    @Bean
+    public Executor exchangeCodeChunkExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        int cpus = Runtime.getRuntime().availableProcessors();
+        // 1. 核心线程数量，生成兑换码是计算密集型任务，写库时会有一段等待
+        executor.setCorePoolSize(cpus);
+        // 2. 线程池最大线程数量
+        executor.setMaxPoolSize(cpus * 2);
+        // 3. 任务队列大小
+        executor.setQueueCapacity(1000);
+        // 4. 线程名称
+        executor.setThreadNamePrefix("exchange-code-chunk-");
+        // 5. 拒绝策略，队列满时由调度线程自己执行，起到限流的作用
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
     /**
      * 计算折扣方案的线程池
      */
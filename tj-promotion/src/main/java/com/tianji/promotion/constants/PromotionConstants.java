@@ -16,6 +16,11 @@ public class PromotionConstants {
      */
     public final static String COUPON_CACHE_KEY_PREFIX = "prs:coupon:";
 
+    /**
+     * 领券中心发放中优惠券目录的快照 key
+     */
+    public final static String COUPON_CATALOG_KEY = "prs:coupon:catalog";
+
     /**
      * 缓存的用户券信息 key前缀
      */
@@ -25,4 +30,24 @@ public class PromotionConstants {
      * 兑换码序列号，便于找到对应优惠券 id
      */
     public final static String COUPON_RANGE_KEY = "coupon:code:range";
+
+    /**
+     * 兑换码序列号区间的版本号，每次写入 COUPON_RANGE_KEY后递增，通知各节点重新加载本地索引
+     */
+    public final static String COUPON_RANGE_VERSION_KEY = "coupon:code:range:version";
+
+    /**
+     * 兑换码生成进度 key前缀，hash结构：begin、end-序列号区间，total-总数，done-已生成数量，finished-是否完成，ts-心跳时间
+     */
+    public final static String COUPON_CODE_PROGRESS_KEY_PREFIX = "coupon:code:progress:";
+
+    /**
+     * 兑换码已生成的分块 key前缀，bitmap结构，每个分块写入数据库后标记为 1
+     */
+    public final static String COUPON_CODE_CHUNK_KEY_PREFIX = "coupon:code:chunk:";
+
+    /**
+     * 正在生成兑换码的优惠券 id集合
+     */
+    public final static String COUPON_CODE_GENERATING_KEY = "coupon:code:generating";
 }
@@ -2,6 +2,7 @@ package com.tianji.promotion.controller;
 
 
 import com.tianji.common.domain.dto.PageDTO;
+import com.tianji.common.domain.query.PageQuery;
 import com.tianji.promotion.domain.dto.CouponFormDTO;
 import com.tianji.promotion.domain.dto.CouponIssueFormDTO;
 import com.tianji.promotion.domain.query.CouponQuery;
@@ -80,4 +81,10 @@ public class CouponController {
     public List<CouponVO> queryIssuingCoupon() {
         return couponService.queryIssuingCoupon();
     }
+
+    @ApiOperation("用户端分页查看发放中且手动领取的优惠券")
+    @GetMapping("/list/page")
+    public PageDTO<CouponVO> queryIssuingCouponPage(@Valid PageQuery query) {
+        return couponService.queryIssuingCouponPage(query);
+    }
 }
@@ -3,11 +3,13 @@ package com.tianji.promotion.controller;
 
 import com.tianji.common.domain.dto.PageDTO;
 import com.tianji.promotion.domain.query.CodeQuery;
+import com.tianji.promotion.domain.vo.ExchangeCodeProgressVO;
 import com.tianji.promotion.domain.vo.ExchangeCodeVO;
 import com.tianji.promotion.service.IExchangeCodeService;
 import io.swagger.annotations.ApiOperation;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
@@ -34,4 +36,10 @@ public class ExchangeCodeController {
     public PageDTO<ExchangeCodeVO> queryExchangeCodePage(@Valid CodeQuery codeQuery) {
         return exchangeCodeService.queryExchangeCodePage(codeQuery);
     }
+
+    @ApiOperation("查询兑换码生成进度")
+    @GetMapping("/progress/{couponId}")
+    public ExchangeCodeProgressVO queryGenerateProgress(@PathVariable("couponId") Long couponId) {
+        return exchangeCodeService.queryGenerateProgress(couponId);
+    }
 }
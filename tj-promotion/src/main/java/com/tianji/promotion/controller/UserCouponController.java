@@ -7,6 +7,7 @@ import com.tianji.common.domain.dto.PageDTO;
 import com.tianji.api.promotion.OrderCouponDTO;
 import com.tianji.promotion.domain.query.UserCouponQuery;
 import com.tianji.promotion.domain.vo.CouponVO;
+import com.tianji.promotion.domain.vo.ExchangeCodeResultVO;
 import com.tianji.promotion.service.IDiscountService;
 import com.tianji.promotion.service.IUserCouponService;
 import io.swagger.annotations.Api;
@@ -44,6 +45,12 @@ public class UserCouponController {
         userCouponService.receiveCouponByExchangeCode(code);
     }
 
+    @ApiOperation("用户批量兑换优惠券，返回结果与兑换码的顺序一致")
+    @PostMapping("/exchange/batch")
+    public List<ExchangeCodeResultVO> receiveCouponByExchangeCodes(@RequestBody List<String> codes) {
+        return userCouponService.receiveCouponByExchangeCodes(codes);
+    }
+
     @ApiOperation("分页查询我的优惠券")
     @GetMapping("/page")
     public PageDTO<CouponVO> queryMyCoupon(UserCouponQuery query) {
@@ -16,4 +16,8 @@ public class UserCouponDTO {
      * 兑换码序列号
      */
     private Integer serialNum;
+    /**
+     * 用户券id，发送消息前生成，作为消息的幂等键，消息重复投递时主键冲突被忽略，不会重复发券
+     */
+    private Long userCouponId;
 }
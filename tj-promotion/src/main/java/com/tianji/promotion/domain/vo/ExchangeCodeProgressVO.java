@@ -0,0 +1,20 @@
+package com.tianji.promotion.domain.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+@Data
+@ApiModel(description = "兑换码生成进度")
+public class ExchangeCodeProgressVO {
+    @ApiModelProperty("优惠券id")
+    private Long couponId;
+    @ApiModelProperty("兑换码总数")
+    private Integer total;
+    @ApiModelProperty("已生成数量")
+    private Integer done;
+    @ApiModelProperty("完成百分比，0~100")
+    private Integer percent;
+    @ApiModelProperty("是否生成完毕")
+    private Boolean finished;
+}
@@ -0,0 +1,20 @@
+package com.tianji.promotion.domain.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@ApiModel(description = "兑换码兑换结果")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExchangeCodeResultVO {
+    @ApiModelProperty("兑换码")
+    private String code;
+    @ApiModelProperty("是否兑换成功")
+    private Boolean success;
+    @ApiModelProperty("失败原因")
+    private String message;
+}
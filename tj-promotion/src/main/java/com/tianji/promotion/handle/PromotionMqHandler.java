@@ -1,6 +1,7 @@
 package com.tianji.promotion.handle;
 
 import com.tianji.common.constants.MqConstants;
+import com.tianji.promotion.config.PromotionMqConfig;
 import com.tianji.promotion.domain.dto.UserCouponDTO;
 import com.tianji.promotion.service.IUserCouponService;
 import lombok.RequiredArgsConstructor;
@@ -11,6 +12,8 @@ import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
 @RequiredArgsConstructor
 public class PromotionMqHandler {
@@ -20,8 +23,20 @@ public class PromotionMqHandler {
             value = @Queue(value = "coupon.receive.queue", durable = "true"),
             exchange = @Exchange(value = MqConstants.Exchange.PROMOTION_EXCHANGE, type = ExchangeTypes.TOPIC),
             key = MqConstants.Key.COUPON_RECEIVE
+    ), containerFactory = PromotionMqConfig.RECEIVE_BATCH_CONTAINER_FACTORY)
+    public void listenCouponReceiveMessage(List<UserCouponDTO> list) {
+        userCouponService.checkAndCreateUserCoupons(list);
+    }
+
+    /**
+     * 批量兑换优惠券的消息，一条消息中包含多个领券记录
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(value = "coupon.receive.batch.queue", durable = "true"),
+            exchange = @Exchange(value = MqConstants.Exchange.PROMOTION_EXCHANGE, type = ExchangeTypes.TOPIC),
+            key = MqConstants.Key.COUPON_RECEIVE_BATCH
     ))
-    public void listenCouponReceiveMessage(UserCouponDTO ucd) {
-        userCouponService.checkAndCreateUserCoupon(ucd);
+    public void listenCouponReceiveBatchMessage(List<UserCouponDTO> list) {
+        userCouponService.checkAndCreateUserCoupons(list);
     }
 }
@@ -0,0 +1,31 @@
+package com.tianji.promotion.handler;
+
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.service.IExchangeCodeService;
+import com.xxl.job.core.handler.annotation.XxlJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ExchangeCodeHandler {
+    private final IExchangeCodeService exchangeCodeService;
+
+    /**
+     * 继续生成中断的兑换码，例如生成过程中服务宕机或写库失败
+     */
+    @XxlJob("exchangeCodeResumeJob") // 指定任务名称
+    public void handleExchangeCodeResumeJob() {
+        // 1. 查询生成中断的优惠券
+        List<Coupon> coupons = exchangeCodeService.queryStalledGenerations();
+        // 2. 重新提交生成任务，已完成的分块会被跳过
+        for (Coupon coupon : coupons) {
+            log.info("继续生成兑换码，优惠券：{}", coupon.getId());
+            exchangeCodeService.asyncGenerateExchangeCode(coupon);
+        }
+    }
+}
@@ -20,6 +20,9 @@ public interface CouponMapper extends BaseMapper<Coupon> {
     @Update("update coupon set issue_num = issue_num + 1 where id = #{couponId} and issue_num < total_num")
     int incrIssueNum(@Param("couponId") Long couponId);
 
+    @Update("update coupon set issue_num = issue_num + #{count} where id = #{couponId} and issue_num + #{count} <= total_num")
+    int incrIssueNumBy(@Param("couponId") Long couponId, @Param("count") int count);
+
     int incrUserNum(@Param("userCouponIds") List<Long> userCouponIdList,
                     @Param("count") int count);
 }
@@ -2,6 +2,9 @@ package com.tianji.promotion.mapper;
 
 import com.tianji.promotion.domain.pojo.ExchangeCode;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ExchangeCodeMapper extends BaseMapper<ExchangeCode> {
 
+    /**
+     * 批量写入兑换码，序列号(id)冲突的记录忽略，中断后重新生成同一分块时不会报错
+     */
+    int insertIgnoreBatch(@Param("codes") List<ExchangeCode> codes);
 }
@@ -22,4 +22,9 @@ public interface UserCouponMapper extends BaseMapper<UserCoupon> {
 
     List<Coupon> queryCouponsByUserCouponIds(@Param("userCouponIds") List<Long> userCouponIds,
                                              @Param("status") UserCouponStatus unused);
+
+    /**
+     * 批量写入用户券，主键(发送消息时生成的用户券 id)冲突的记录忽略
+     */
+    int insertIgnoreBatch(@Param("userCoupons") List<UserCoupon> userCoupons);
 }
@@ -3,6 +3,9 @@ package com.tianji.promotion.service;
 import com.tianji.promotion.domain.pojo.CouponScope;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * <p>
  * 优惠券作用范围信息 服务类
@@ -13,4 +16,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ICouponScopeService extends IService<CouponScope> {
 
+    /**
+     * 批量查询优惠券的使用范围，只查询 couponId和 bizId
+     */
+    List<CouponScope> queryByCouponIds(Collection<Long> couponIds);
 }
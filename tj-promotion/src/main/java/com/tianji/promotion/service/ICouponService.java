@@ -1,6 +1,7 @@
 package com.tianji.promotion.service;
 
 import com.tianji.common.domain.dto.PageDTO;
+import com.tianji.common.domain.query.PageQuery;
 import com.tianji.promotion.domain.dto.CouponFormDTO;
 import com.tianji.promotion.domain.dto.CouponIssueFormDTO;
 import com.tianji.promotion.domain.pojo.Coupon;
@@ -41,4 +42,6 @@ public interface ICouponService extends IService<Coupon> {
     void finishIssueCouponBatch(List<Coupon> records);
 
     List<CouponVO> queryIssuingCoupon();
+
+    PageDTO<CouponVO> queryIssuingCouponPage(PageQuery query);
 }
@@ -5,8 +5,11 @@ import com.tianji.promotion.domain.pojo.Coupon;
 import com.tianji.promotion.domain.pojo.ExchangeCode;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.tianji.promotion.domain.query.CodeQuery;
+import com.tianji.promotion.domain.vo.ExchangeCodeProgressVO;
 import com.tianji.promotion.domain.vo.ExchangeCodeVO;
 
+import java.util.List;
+
 /**
  * <p>
  * 兑换码 服务类
@@ -24,4 +27,8 @@ public interface IExchangeCodeService extends IService<ExchangeCode> {
     boolean updateExchangeCodeMark(long serialNum, boolean b);
 
     Long exchangeTargetId(long serialNum);
+
+    ExchangeCodeProgressVO queryGenerateProgress(Long couponId);
+
+    List<Coupon> queryStalledGenerations();
 }
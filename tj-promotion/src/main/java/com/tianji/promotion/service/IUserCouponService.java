@@ -7,6 +7,7 @@ import com.tianji.promotion.domain.pojo.UserCoupon;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.tianji.promotion.domain.query.UserCouponQuery;
 import com.tianji.promotion.domain.vo.CouponVO;
+import com.tianji.promotion.domain.vo.ExchangeCodeResultVO;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
@@ -23,10 +24,12 @@ public interface IUserCouponService extends IService<UserCoupon> {
 
     void receiveCoupon(Long couponId);
 
-    void checkAndCreateUserCoupon(UserCouponDTO ucd);
+    void checkAndCreateUserCoupons(List<UserCouponDTO> list);
 
     void receiveCouponByExchangeCode(String code);
 
+    List<ExchangeCodeResultVO> receiveCouponByExchangeCodes(List<String> codes);
+
     PageDTO<CouponVO> queryMyCoupon(UserCouponQuery query);
 
     void writeOffCoupon(List<Long> userCouponIds);
@@ -6,6 +6,9 @@ import com.tianji.promotion.service.ICouponScopeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * <p>
  * 优惠券作用范围信息 服务实现类
@@ -17,4 +20,14 @@ import org.springframework.stereotype.Service;
 @Service
 public class CouponScopeServiceImpl extends ServiceImpl<CouponScopeMapper, CouponScope> implements ICouponScopeService {
 
+    /**
+     * 批量查询优惠券的使用范围，只查询 couponId和 bizId
+     */
+    @Override
+    public List<CouponScope> queryByCouponIds(Collection<Long> couponIds) {
+        return lambdaQuery()
+                .select(CouponScope::getCouponId, CouponScope::getBizId)
+                .in(CouponScope::getCouponId, couponIds)
+                .list();
+    }
 }
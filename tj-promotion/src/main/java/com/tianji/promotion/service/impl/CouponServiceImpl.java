@@ -2,15 +2,16 @@ package com.tianji.promotion.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.tianji.api.cache.CategoryCache;
 import com.tianji.common.domain.dto.PageDTO;
+import com.tianji.common.domain.query.PageQuery;
 import com.tianji.common.exceptions.BadRequestException;
 import com.tianji.common.utils.*;
 import com.tianji.promotion.domain.dto.CouponFormDTO;
 import com.tianji.promotion.domain.dto.CouponIssueFormDTO;
 import com.tianji.promotion.domain.pojo.Coupon;
 import com.tianji.promotion.domain.pojo.CouponScope;
-import com.tianji.promotion.domain.pojo.UserCoupon;
 import com.tianji.promotion.domain.query.CouponQuery;
 import com.tianji.promotion.domain.vo.CouponDetailVO;
 import com.tianji.promotion.domain.vo.CouponPageVO;
@@ -18,13 +19,14 @@ import com.tianji.promotion.domain.vo.CouponScopeVO;
 import com.tianji.promotion.domain.vo.CouponVO;
 import com.tianji.promotion.enums.CouponStatus;
 import com.tianji.promotion.enums.ObtainType;
-import com.tianji.promotion.enums.UserCouponStatus;
 import com.tianji.promotion.mapper.CouponMapper;
 import com.tianji.promotion.service.ICouponScopeService;
 import com.tianji.promotion.service.ICouponService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.tianji.promotion.service.IExchangeCodeService;
-import com.tianji.promotion.service.IUserCouponService;
+import com.tianji.promotion.utils.CouponScopeIndex;
+import com.tianji.promotion.utils.IssuingCouponCatalog;
+import com.tianji.promotion.utils.TransactionUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.connection.StringRedisConnection;
@@ -38,7 +40,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static com.tianji.promotion.constants.PromotionConstants.COUPON_CACHE_KEY_PREFIX;
-import static com.tianji.promotion.constants.PromotionConstants.COUPON_CODE_SERIAL_KEY;
+import static com.tianji.promotion.constants.PromotionConstants.USER_COUPON_CACHE_KEY_PREFIX;
 
 /**
  * <p>
@@ -56,7 +58,9 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
     private final IExchangeCodeService exchangeCodeService;
     private final CategoryCache categoryCache;
     private final StringRedisTemplate redisTemplate;
-    private final IUserCouponService userCouponService;
+    private final CouponScopeIndex couponScopeIndex;
+    private final Cache<Long, Coupon> couponIssueCaches;
+    private final IssuingCouponCatalog issuingCouponCatalog;
 
     /**
      * 新增优惠券
@@ -140,6 +144,7 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
             coupon.setIssueBeginTime(c.getIssueBeginTime());
             coupon.setIssueEndTime(c.getIssueEndTime());
             cacheCouponInfo(coupon);
+            issuingCouponCatalog.invalidate();
         }
         // 5. 判断是否需要生成兑换码
         if (coupon.getObtainWay() == ObtainType.ISSUE && coupon.getStatus() == CouponStatus.DRAFT) {
@@ -161,12 +166,14 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
 
         // 2. 写入缓存
         redisTemplate.opsForHash().putAll(COUPON_CACHE_KEY_PREFIX + coupon.getId(), map);
+        couponIssueCaches.invalidate(coupon.getId());
     }
 
     /**
      * 更新优惠券
      */
     @Override
+    @Transactional
     public void updateCoupon(CouponFormDTO couponFormDTO) {
         // 1. 查询优惠券
         Coupon coupon = getById(couponFormDTO.getId());
@@ -181,7 +188,11 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
         Coupon c = BeanUtils.copyBean(couponFormDTO, Coupon.class);
         c.setId(coupon.getId());
         updateById(c);
-        // 3. 更新优惠券使用范围信息
+        // 3. 更新优惠券使用范围信息，先删除旧的范围再写入新的范围
+        couponScopeService.remove(new LambdaQueryWrapper<CouponScope>()
+                .eq(CouponScope::getCouponId, coupon.getId()));
+        // 事务提交后再失效本地索引，避免提交前的查询把旧的范围重新加载进缓存
+        TransactionUtils.afterCommit(() -> couponScopeIndex.invalidate(coupon.getId()));
         if (!couponFormDTO.getSpecific()) {
             return;// 没有限定范围
         }
@@ -193,13 +204,14 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
                         .setBizId(bizId)
                         .setCouponId(coupon.getId()))
                 .collect(Collectors.toList());
-        couponScopeService.updateBatchById(couponScopeList);
+        couponScopeService.saveBatch(couponScopeList);
     }
 
     /**
      * 删除优惠券
      */
     @Override
+    @Transactional
     public void deleteCouponById(Long id) {
         // 1. 查询优惠券
         Coupon coupon = getById(id);
@@ -215,6 +227,7 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
         }
         couponScopeService.remove(new LambdaQueryWrapper<CouponScope>()
                 .eq(CouponScope::getCouponId, id));
+        TransactionUtils.afterCommit(() -> couponScopeIndex.invalidate(id));
     }
 
     /**
@@ -270,10 +283,12 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
                 map.put("userLimit", String.valueOf(record.getUserLimit()));
                 // 写入缓存
                 // mSet用于同时设置多个键值对
-                src.hMSet(COUPON_CODE_SERIAL_KEY + record.getId(), map);
+                src.hMSet(COUPON_CACHE_KEY_PREFIX + record.getId(), map);
             }
             return null;
         });
+        couponIssueCaches.invalidateAll(records.stream().map(Coupon::getId).collect(Collectors.toList()));
+        issuingCouponCatalog.invalidate();
     }
 
     /**
@@ -284,10 +299,12 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
         redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
             StringRedisConnection src = (StringRedisConnection) connection;// 强转为 StringRedisConnection
             for (Coupon record : records) {
-                src.unlink(COUPON_CODE_SERIAL_KEY + record.getId());
+                src.unlink(COUPON_CACHE_KEY_PREFIX + record.getId());
             }
             return null;
         });
+        couponIssueCaches.invalidateAll(records.stream().map(Coupon::getId).collect(Collectors.toList()));
+        issuingCouponCatalog.invalidate();
     }
 
     /**
@@ -316,51 +333,89 @@ public class CouponServiceImpl extends ServiceImpl<CouponMapper, Coupon> impleme
         }
         // 3.删除缓存
         redisTemplate.delete(COUPON_CACHE_KEY_PREFIX + id);
+        couponIssueCaches.invalidate(id);
+        issuingCouponCatalog.invalidate();
     }
 
     /**
-     * 用户端分页查看发放中且手动领取的优惠券
+     * 用户端查看发放中且手动领取的优惠券
+     * 优惠券来自本地快照，剩余库存和用户领取数量来自 Redis，不查询数据库
      */
     @Override
     public List<CouponVO> queryIssuingCoupon() {
         // 1. 查询发放中且手动领取的优惠券
-        List<Coupon> couponList = lambdaQuery()
-                .eq(Coupon::getStatus, CouponStatus.ISSUING)
-                .eq(Coupon::getObtainWay, ObtainType.PUBLIC)
-                .list();
+        List<Coupon> couponList = issuingCouponCatalog.getCoupons();
         if (CollUtils.isEmpty(couponList)) {
             return CollUtils.emptyList();
         }
-        // 2. 统计当前用户已经领取的优惠券信息(用于前端动态展示优惠券状态)
-        List<Long> couponIdList = couponList.stream()
-                .map(Coupon::getId)
-                .collect(Collectors.toList());
-        // 2.1 查询当前用户已经领取的优惠券数据
-        List<UserCoupon> userCouponList = userCouponService.lambdaQuery()
-                .eq(UserCoupon::getUserId, UserContext.getUser())
-                .in(UserCoupon::getCouponId, couponIdList)
-                .list();
-        // 2.2 统计当前用户对指定优惠券领取的数量
-        Map<Long, Long> issuedMap = userCouponList.stream()
-                .collect(Collectors.groupingBy(UserCoupon::getCouponId, Collectors.counting()));
-        // 2.3 统计当前用户对优惠券已经领取并未使用的数量
-        Map<Long, Long> unusedMap = userCouponList.stream()
-                .filter(uc -> uc.getStatus() == UserCouponStatus.UNUSED)
-                .collect(Collectors.groupingBy(UserCoupon::getCouponId, Collectors.counting()));
-        // 3. 封装 vo数据
+        // 2. 封装 vo数据
+        return toIssuingCouponVOs(couponList);
+    }
+
+    /**
+     * 用户端分页查看发放中且手动领取的优惠券
+     * 在本地快照上分页，只查询当前页优惠券的剩余库存和用户领取数量
+     */
+    @Override
+    public PageDTO<CouponVO> queryIssuingCouponPage(PageQuery query) {
+        // 1. 查询发放中且手动领取的优惠券，总数和当前页取自同一个快照
+        List<Coupon> couponList = issuingCouponCatalog.getCoupons();
+        long total = couponList.size();
+        long pages = (total + query.getPageSize() - 1) / query.getPageSize();
+        long from = (long) (query.getPageNo() - 1) * query.getPageSize();
+        if (from >= total) {
+            return PageDTO.empty(total, pages);
+        }
+        // 2. 截取当前页，封装 vo数据
+        List<Coupon> records = couponList.subList((int) from, (int) Math.min(total, from + query.getPageSize()));
+        return new PageDTO<>(total, pages, toIssuingCouponVOs(records));
+    }
+
+    private List<CouponVO> toIssuingCouponVOs(List<Coupon> couponList) {
+        // 1. 通过管道一次查询每个优惠券的剩余库存以及当前用户的领取数量(用于前端动态展示优惠券状态)
+        Long userId = UserContext.getUser();
+        List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection src = (StringRedisConnection) connection;
+            for (Coupon coupon : couponList) {
+                src.hGet(COUPON_CACHE_KEY_PREFIX + coupon.getId(), "totalNum");
+                src.hGet(USER_COUPON_CACHE_KEY_PREFIX + coupon.getId(), String.valueOf(userId));
+            }
+            return null;
+        });
+        // 2. 封装 vo数据
         List<CouponVO> couponVOList = new ArrayList<>(couponList.size());
-        for (Coupon coupon : couponList) {
-            // 3.1 拷贝基础属性
-            CouponVO couponVO = BeanUtils.copyBean(coupon, CouponVO.class);
-            // 3.2 是否可以领取:
-            // 3.2.1 优惠券已被领取的数量 < 优惠券总的数量
-            // 3.2.2 用户领取该优惠券的数量 < 每个用户限领的优惠券数量
-            couponVO.setAvailable(coupon.getIssueNum() < coupon.getTotalNum()
-                                && issuedMap.getOrDefault(coupon.getId(), 0L) < coupon.getUserLimit());
-            // 3.3 是否可以使用:是否存在已经领取且未使用的优惠券
-            couponVO.setReceived(unusedMap.getOrDefault(coupon.getId(), 0L) > 0);
+        for (int i = 0; i < couponList.size(); i++) {
+            Coupon coupon = couponList.get(i);
+            long stock = toLong(values.get(2 * i));
+            long issued = toLong(values.get(2 * i + 1));
+            // 2.1 拷贝基础属性
+            CouponVO couponVO = toCouponVO(coupon);
+            // 2.2 是否可以领取:
+            // 2.2.1 优惠券剩余库存 > 0
+            // 2.2.2 用户领取该优惠券的数量 < 每个用户限领的优惠券数量
+            couponVO.setAvailable(stock > 0 && issued < coupon.getUserLimit());
+            // 2.3 是否可以使用:用户是否领取过该优惠券
+            couponVO.setReceived(issued > 0);
             couponVOList.add(couponVO);
         }
         return couponVOList;
     }
+
+    private static long toLong(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    private CouponVO toCouponVO(Coupon coupon) {
+        CouponVO couponVO = new CouponVO();
+        couponVO.setId(coupon.getId());
+        couponVO.setName(coupon.getName());
+        couponVO.setSpecific(coupon.getSpecific());
+        couponVO.setDiscountType(coupon.getDiscountType());
+        couponVO.setThresholdAmount(coupon.getThresholdAmount());
+        couponVO.setDiscountValue(coupon.getDiscountValue());
+        couponVO.setMaxDiscountAmount(coupon.getMaxDiscountAmount());
+        couponVO.setTermDays(coupon.getTermDays());
+        couponVO.setTermEndTime(coupon.getTermEndTime());
+        return couponVO;
+    }
 }
@@ -8,20 +8,33 @@ import com.tianji.promotion.constants.PromotionConstants;
 import com.tianji.promotion.domain.pojo.Coupon;
 import com.tianji.promotion.domain.pojo.ExchangeCode;
 import com.tianji.promotion.domain.query.CodeQuery;
+import com.tianji.promotion.domain.vo.ExchangeCodeProgressVO;
 import com.tianji.promotion.domain.vo.ExchangeCodeVO;
+import com.tianji.promotion.mapper.CouponMapper;
 import com.tianji.promotion.mapper.ExchangeCodeMapper;
 import com.tianji.promotion.service.IExchangeCodeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.tianji.promotion.utils.Base32;
 import com.tianji.promotion.utils.CodeUtil;
+import com.tianji.promotion.utils.ExchangeCodeRangeIndex;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.BoundValueOperations;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static com.tianji.promotion.constants.PromotionConstants.COUPON_CODE_MAP_KEY;
 
@@ -33,43 +46,171 @@ import static com.tianji.promotion.constants.PromotionConstants.COUPON_CODE_MAP_
  * @author QianCCC
  * @since 2024-02-07
  */
+@Slf4j
 @Service
+@RequiredArgsConstructor
 public class ExchangeCodeServiceImpl extends ServiceImpl<ExchangeCodeMapper, ExchangeCode> implements IExchangeCodeService {
-    private BoundValueOperations<String, String> redisTemplate;
-    private final StringRedisTemplate stringRedisTemplate;
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT;
+    /**
+     * 每个分块的兑换码数量，生成后一次批量写入数据库
+     */
+    private static final int CHUNK_SIZE = 5000;
+    /**
+     * 生成进度超过该时间没有更新，认为生成任务已中断，单位毫秒
+     */
+    private static final long STALLED_MILLIS = 120_000;
+    /**
+     * 生成完毕后，进度信息保留的天数，供管理端查看
+     */
+    private static final long PROGRESS_TTL_DAYS = 7;
 
-    public ExchangeCodeServiceImpl(StringRedisTemplate redisTemplate) {
-        this.redisTemplate = redisTemplate.boundValueOps(PromotionConstants.COUPON_CODE_SERIAL_KEY);
-        this.stringRedisTemplate = redisTemplate;
+    static {
+        RESERVE_SCRIPT = new DefaultRedisScript<>();
+        RESERVE_SCRIPT.setLocation(new ClassPathResource("lua/reserve_code_range.lua"));
+        RESERVE_SCRIPT.setResultType(Long.class);
     }
 
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Executor exchangeCodeChunkExecutor;
+    private final CouponMapper couponMapper;
+    private final ExchangeCodeRangeIndex exchangeCodeRangeIndex;
+
     /**
      * 异步生成兑换码
+     * 1. 一次 INCRBY预留整个序列号区间，进度记录在 Redis中，中断后再次调用会沿用原区间
+     * 2. 区间按 CHUNK_SIZE拆分为多个分块，并行生成并分别写入数据库，内存中最多只有线程数个分块
+     * 3. 每个分块写入后在 bitmap中标记，继续生成时跳过已完成的分块
      */
     @Async("generateExchangeCodeExecutor")
     @Override
     public void asyncGenerateExchangeCode(Coupon coupon) {
-        // 1. 获取优惠券发放数量
-        Integer totalNum = coupon.getTotalNum();
-        // 2. 获取Redis的自增序列号
-        Long maxSerialNum = redisTemplate.increment(totalNum);
-        if (maxSerialNum == null) return;
-        List<ExchangeCode> list = new ArrayList<>(totalNum);
-        for (long serialNum = maxSerialNum - totalNum + 1; serialNum <= maxSerialNum; serialNum++) {
-            // 3. 生成兑换码
-            String code = CodeUtil.generateCode(serialNum, coupon.getId());
+        Long couponId = coupon.getId();
+        int totalNum = coupon.getTotalNum();
+        String progressKey = PromotionConstants.COUPON_CODE_PROGRESS_KEY_PREFIX + couponId;
+        String chunkKey = PromotionConstants.COUPON_CODE_CHUNK_KEY_PREFIX + couponId;
+        // 1. 预留序列号区间
+        Long begin = stringRedisTemplate.execute(RESERVE_SCRIPT,
+                Arrays.asList(PromotionConstants.COUPON_CODE_SERIAL_KEY, progressKey, PromotionConstants.COUPON_CODE_GENERATING_KEY),
+                String.valueOf(totalNum), couponId.toString(), String.valueOf(System.currentTimeMillis()));
+        if (begin == null || begin < 0) {
+            return;
+        }
+        long maxSerialNum = begin + totalNum - 1;
+        // 2. 查询已完成的分块
+        int chunks = (totalNum + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        List<Object> marks = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection src = (StringRedisConnection) connection;
+            for (int i = 0; i < chunks; i++) {
+                src.getBit(chunkKey, i);
+            }
+            return null;
+        });
+        // 3. 并行生成未完成的分块
+        long startTime = System.currentTimeMillis();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            if (Boolean.TRUE.equals(marks.get(i))) {
+                continue;
+            }
+            int chunk = i;
+            long from = begin + (long) i * CHUNK_SIZE;
+            long to = Math.min(from + CHUNK_SIZE - 1, maxSerialNum);
+            futures.add(CompletableFuture.runAsync(
+                    () -> generateChunk(coupon, chunk, from, to), exchangeCodeChunkExecutor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            // 保留进度，由定时任务继续生成
+            log.error("生成兑换码失败，优惠券：{}，等待继续生成", couponId, e.getCause());
+            return;
+        }
+        // 4. 生成完毕，将优惠券及对应兑换码序列号的最大值缓存到Redis中(member:couponId,score:兑换码的最大序列号)
+        stringRedisTemplate.opsForZSet()
+                .add(PromotionConstants.COUPON_RANGE_KEY, couponId.toString(), maxSerialNum);
+        exchangeCodeRangeIndex.publishChange();
+        // 5. 标记完成，清理分块标记
+        stringRedisTemplate.opsForHash().put(progressKey, "finished", "1");
+        stringRedisTemplate.expire(progressKey, PROGRESS_TTL_DAYS, TimeUnit.DAYS);
+        stringRedisTemplate.delete(chunkKey);
+        stringRedisTemplate.opsForSet().remove(PromotionConstants.COUPON_CODE_GENERATING_KEY, couponId.toString());
+        log.info("生成兑换码完成，优惠券：{}，数量：{}，分块：{}，耗时：{} ms",
+                couponId, totalNum, futures.size(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 生成一个分块的兑换码并写入数据库，然后更新进度
+     */
+    private void generateChunk(Coupon coupon, int chunk, long from, long to) {
+        Long couponId = coupon.getId();
+        // 1. 生成兑换码
+        List<ExchangeCode> list = new ArrayList<>((int) (to - from + 1));
+        char[] buf = new char[Base32.MAX_LONG_CHARS];
+        for (long serialNum = from; serialNum <= to; serialNum++) {
+            int len = CodeUtil.generateCode(serialNum, couponId, buf, 0);
             ExchangeCode exchangeCode = new ExchangeCode();
             exchangeCode.setId((int) serialNum);
-            exchangeCode.setCode(code);
-            exchangeCode.setExchangeTargetId(coupon.getId());
+            exchangeCode.setCode(new String(buf, 0, len));
+            exchangeCode.setExchangeTargetId(couponId);
             exchangeCode.setExpiredTime(coupon.getIssueEndTime());
             list.add(exchangeCode);
         }
-        // 4. 写入数据库
-        saveBatch(list);
-        // 5. 生成兑换码时，将优惠券及对应兑换码序列号的最大值缓存到Redis中(member:couponId,score:兑换码的最大序列号)
-        stringRedisTemplate.opsForZSet()
-                .add(PromotionConstants.COUPON_RANGE_KEY, coupon.getId().toString(), maxSerialNum);
+        // 2. 写入数据库，每个分块单独提交
+        getBaseMapper().insertIgnoreBatch(list);
+        // 3. 标记分块完成，之前没有标记过才累加进度，避免重复生成时重复计数
+        String progressKey = PromotionConstants.COUPON_CODE_PROGRESS_KEY_PREFIX + couponId;
+        Boolean marked = stringRedisTemplate.opsForValue()
+                .setBit(PromotionConstants.COUPON_CODE_CHUNK_KEY_PREFIX + couponId, chunk, true);
+        if (!Boolean.TRUE.equals(marked)) {
+            stringRedisTemplate.opsForHash().increment(progressKey, "done", list.size());
+        }
+        stringRedisTemplate.opsForHash().put(progressKey, "ts", String.valueOf(System.currentTimeMillis()));
+    }
+
+    /**
+     * 查询兑换码生成进度
+     */
+    @Override
+    public ExchangeCodeProgressVO queryGenerateProgress(Long couponId) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(
+                PromotionConstants.COUPON_CODE_PROGRESS_KEY_PREFIX + couponId,
+                Arrays.asList("total", "done", "finished"));
+        if (values.get(0) == null) {
+            return null;
+        }
+        ExchangeCodeProgressVO vo = new ExchangeCodeProgressVO();
+        vo.setCouponId(couponId);
+        vo.setTotal(Integer.valueOf(values.get(0).toString()));
+        vo.setDone(values.get(1) == null ? 0 : Integer.parseInt(values.get(1).toString()));
+        vo.setFinished("1".equals(values.get(2)));
+        vo.setPercent(vo.getFinished() ? 100 : (int) (vo.getDone() * 100L / Math.max(vo.getTotal(), 1)));
+        return vo;
+    }
+
+    /**
+     * 查询生成中断的优惠券，并刷新它们的心跳时间，避免被重复领取
+     */
+    @Override
+    public List<Coupon> queryStalledGenerations() {
+        Set<String> couponIds = stringRedisTemplate.opsForSet().members(PromotionConstants.COUPON_CODE_GENERATING_KEY);
+        if (CollUtils.isEmpty(couponIds)) {
+            return CollUtils.emptyList();
+        }
+        long now = System.currentTimeMillis();
+        List<Long> stalledIds = new ArrayList<>();
+        for (String couponId : couponIds) {
+            String progressKey = PromotionConstants.COUPON_CODE_PROGRESS_KEY_PREFIX + couponId;
+            Object ts = stringRedisTemplate.opsForHash().get(progressKey, "ts");
+            if (ts != null && now - Long.parseLong(ts.toString()) < STALLED_MILLIS) {
+                continue;
+            }
+            stringRedisTemplate.opsForHash().put(progressKey, "ts", String.valueOf(now));
+            stalledIds.add(Long.valueOf(couponId));
+        }
+        if (stalledIds.isEmpty()) {
+            return CollUtils.emptyList();
+        }
+        return couponMapper.selectBatchIds(stalledIds);
     }
 
     /**
@@ -101,17 +242,10 @@ public class ExchangeCodeServiceImpl extends ServiceImpl<ExchangeCodeMapper, Exc
     }
 
     /**
-     * 查询指定序列号(兑换码)对应的优惠券 id
+     * 查询指定序列号(兑换码)对应的优惠券 id，通过本地区间索引查找，不访问 Redis
      */
     @Override
     public Long exchangeTargetId(long serialNum) {
-        Set<String> set = stringRedisTemplate.opsForZSet()
-                .rangeByScore(PromotionConstants.COUPON_RANGE_KEY, serialNum, serialNum + 5000,
-                        0L, 1L);
-        if (CollUtils.isEmpty(set)) {
-            return null;
-        }
-        String next = set.iterator().next();
-        return Long.parseLong(next);
+        return exchangeCodeRangeIndex.findCouponId(serialNum);
     }
 }
@@ -1,7 +1,8 @@
 package com.tianji.promotion.service.impl;
 
-import cn.hutool.core.bean.copier.CopyOptions;
 import com.baomidou.mybatisplus.core.metadata.OrderItem;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.tianji.common.autoconfigure.mq.RabbitMqHelper;
 import com.tianji.common.autoconfigure.redisson.annotations.Lock;
@@ -12,6 +13,7 @@ import com.tianji.common.exceptions.BizIllegalException;
 import com.tianji.common.exceptions.DbException;
 import com.tianji.common.utils.BeanUtils;
 import com.tianji.common.utils.CollUtils;
+import com.tianji.common.utils.DateUtils;
 import com.tianji.common.utils.UserContext;
 import com.tianji.promotion.constants.PromotionConstants;
 import com.tianji.promotion.domain.dto.UserCouponDTO;
@@ -19,6 +21,7 @@ import com.tianji.promotion.domain.pojo.Coupon;
 import com.tianji.promotion.domain.pojo.UserCoupon;
 import com.tianji.promotion.domain.query.UserCouponQuery;
 import com.tianji.promotion.domain.vo.CouponVO;
+import com.tianji.promotion.domain.vo.ExchangeCodeResultVO;
 import com.tianji.promotion.enums.UserCouponStatus;
 import com.tianji.promotion.mapper.CouponMapper;
 import com.tianji.promotion.mapper.UserCouponMapper;
@@ -27,13 +30,21 @@ import com.tianji.promotion.service.IUserCouponService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.tianji.promotion.strategy.discount.DiscountStrategy;
 import com.tianji.promotion.utils.CodeUtil;
-import com.tianji.promotion.utils.MyRedisLock;
+import com.tianji.promotion.utils.TransactionUtils;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -48,6 +59,7 @@ import java.util.stream.Collectors;
  * @author QianCCC
  * @since 2024-02-18
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class UserCouponServiceImpl extends ServiceImpl<UserCouponMapper, UserCoupon> implements IUserCouponService {
@@ -55,92 +67,222 @@ public class UserCouponServiceImpl extends ServiceImpl<UserCouponMapper, UserCou
     private final IExchangeCodeService exchangeCodeService;
     private final StringRedisTemplate redisTemplate;
     private final RabbitMqHelper mqHelper;
+    private final Cache<Long, Coupon> couponIssueCaches;
+
+    private static final DefaultRedisScript<Long> RECEIVE_COUPON_SCRIPT;
+    // 领取优惠券脚本的失败返回值，成功时返回领取序号
+    private static final int RECEIVE_NOT_EXISTS = -1;
+    private static final int RECEIVE_NOT_ISSUING = -2;
+    private static final int RECEIVE_NO_STOCK = -3;
+    private static final int RECEIVE_OVER_LIMIT = -4;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> EXCHANGE_CODES_SCRIPT;
+    // 批量兑换脚本的失败返回值，成功时返回领取序号
+    private static final long EXCHANGE_USED = -1;
+    private static final long EXCHANGE_OVER_LIMIT = -2;
+    // 单次批量兑换的最大兑换码数量
+    private static final int MAX_EXCHANGE_CODES = 1000;
+
+    static {
+        RECEIVE_COUPON_SCRIPT = new DefaultRedisScript<>();
+        RECEIVE_COUPON_SCRIPT.setLocation(new ClassPathResource("lua/receive_coupon.lua"));
+        RECEIVE_COUPON_SCRIPT.setResultType(Long.class);
+        EXCHANGE_CODES_SCRIPT = new DefaultRedisScript<>();
+        EXCHANGE_CODES_SCRIPT.setLocation(new ClassPathResource("lua/exchange_codes.lua"));
+        EXCHANGE_CODES_SCRIPT.setResultType(List.class);
+    }
 
     /**
      * 用户领取优惠券
+     * 发放时间、库存、限领数量的校验以及扣减都由 Lua脚本原子地完成，无需加锁，同一优惠券的并发领取不再串行
      */
-    @MyRedisLock(name = "lock:coupon:#{couponId}")
     @Override
     public void receiveCoupon(Long couponId) {
-        // 1. 查询优惠券
-        // Coupon coupon = couponMapper.selectById(couponId);
-        Coupon coupon = queryCouponByCache(couponId);
-        if (Objects.isNull(coupon)) {
-            throw new BadRequestException("优惠券不存在");
-        }
-        // 2. 校验发放时间
-        LocalDateTime now = LocalDateTime.now();
-        if (now.isBefore(coupon.getIssueBeginTime()) || now.isAfter(coupon.getIssueEndTime())) {
-            throw new BadRequestException("优惠券发放结束或尚未开始");
-        }
-        // 3. 校验库存
-        // if (coupon.getIssueNum() >= coupon.getTotalNum()) {
-        if (coupon.getTotalNum() <= 0) {// redis中存储的totalNum为剩余库存
-            throw new BadRequestException("优惠券库存不足");
-        }
-        // 4. 校验并且创建用户券
-        // 4.1 查询领取数量
-        String key = PromotionConstants.USER_COUPON_CACHE_KEY_PREFIX + couponId;
-        Long count = redisTemplate.opsForHash().increment(key, UserContext.getUser().toString(), 1);
-        // 4.2 校验限领数量
-        if (count > coupon.getUserLimit()) {
-            throw new BizIllegalException("超过领取数量");
+        Long userId = UserContext.getUser();
+        // 1. 校验并扣减库存、增加用户领取数量
+        String couponKey = PromotionConstants.COUPON_CACHE_KEY_PREFIX + couponId;
+        String userCouponKey = PromotionConstants.USER_COUPON_CACHE_KEY_PREFIX + couponId;
+        Long result = redisTemplate.execute(RECEIVE_COUPON_SCRIPT, List.of(couponKey, userCouponKey),
+                userId.toString(), String.valueOf(System.currentTimeMillis()));
+        // 2. 处理校验结果
+        long count = result == null ? RECEIVE_NOT_EXISTS : result;
+        if (count <= 0) {
+            switch ((int) count) {
+                case RECEIVE_NOT_ISSUING:
+                    throw new BadRequestException("优惠券发放结束或尚未开始");
+                case RECEIVE_NO_STOCK:
+                    throw new BadRequestException("优惠券库存不足");
+                case RECEIVE_OVER_LIMIT:
+                    throw new BizIllegalException("超过领取数量");
+                default:
+                    throw new BadRequestException("优惠券不存在");
+            }
         }
-        // 5. 扣减库存
-        redisTemplate.opsForHash().increment(PromotionConstants.COUPON_CACHE_KEY_PREFIX + couponId, "totalNum", -1);
-        // 6. 发送MQ消息
+        // 3. 发送MQ消息，发送失败时归还库存和领取数量，用户券 id在发送前生成，作为消息的幂等键
         UserCouponDTO userCouponDTO = new UserCouponDTO();
-        userCouponDTO.setUserId(UserContext.getUser());
+        userCouponDTO.setUserId(userId);
         userCouponDTO.setCouponId(couponId);
-        mqHelper.send(MqConstants.Exchange.PROMOTION_EXCHANGE, MqConstants.Key.COUPON_RECEIVE, userCouponDTO);
+        userCouponDTO.setUserCouponId(IdWorker.getId());
+        try {
+            mqHelper.send(MqConstants.Exchange.PROMOTION_EXCHANGE, MqConstants.Key.COUPON_RECEIVE, userCouponDTO);
+        } catch (Exception e) {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection src = (StringRedisConnection) connection;
+                src.hIncrBy(couponKey, "totalNum", 1);
+                src.hIncrBy(userCouponKey, userId.toString(), -1);
+                return null;
+            });
+            throw e;
+        }
     }
 
     /**
-     * 从缓存查询优惠券
+     * 从缓存查询优惠券，只包含发放时间和每人限领数量
+     * 发放中的优惠券这些字段不会变化，先查本地缓存，未命中再查 Redis
      */
     private Coupon queryCouponByCache(Long couponId) {
+        return couponIssueCaches.get(couponId, this::loadCouponFromRedis);
+    }
+
+    private Coupon loadCouponFromRedis(Long couponId) {
         // 1. 准备key
         String key = PromotionConstants.COUPON_CACHE_KEY_PREFIX + couponId;
-        // 2. 查询数据
-        Map<Object, Object> entries = redisTemplate.opsForHash().entries(key);
-        if (CollUtils.isEmpty(entries)) {
+        // 2. 查询数据，库存会变化，不需要查询
+        List<Object> values = redisTemplate.opsForHash()
+                .multiGet(key, List.of("issueBeginTime", "issueEndTime", "userLimit"));
+        if (values.get(0) == null || values.get(1) == null || values.get(2) == null) {
             return null;
         }
         // 3. 数据反序列化
-        return BeanUtils.mapToBean(entries, Coupon.class, false, CopyOptions.create());
+        Coupon coupon = new Coupon();
+        coupon.setId(couponId);
+        coupon.setIssueBeginTime(DateUtils.of(Long.parseLong(values.get(0).toString())));
+        coupon.setIssueEndTime(DateUtils.of(Long.parseLong(values.get(1).toString())));
+        coupon.setUserLimit(Integer.valueOf(values.get(2).toString()));
+        return coupon;
     }
 
     /**
-     * 更新优惠券数量以及写入用户券至数据库
+     * 批量更新优惠券发放数量以及写入用户券至数据库，消息重复投递时按照用户券 id跳过已写入的用户券
+     * 优惠券不存在或者数据库库存不足时，发放失败的领券记录在事务提交后归还 Redis中的库存、领取数量和兑换标记
      */
     @Transactional
     @Override
-    public void checkAndCreateUserCoupon(UserCouponDTO ucd) {
+    public void checkAndCreateUserCoupons(List<UserCouponDTO> list) {
         // 1. 查询优惠券
-        Coupon coupon = couponMapper.selectById(ucd.getCouponId());
-        if (coupon == null) {
-            throw new BizIllegalException("优惠券不存在");
+        Map<Long, List<UserCouponDTO>> couponMap = list.stream().collect(Collectors.groupingBy(UserCouponDTO::getCouponId));
+        Map<Long, Coupon> coupons = couponMapper.selectBatchIds(couponMap.keySet())
+                .stream().collect(Collectors.toMap(Coupon::getId, c -> c));
+        // 2. 查询已经写入的用户券，过滤重复投递的消息
+        Set<Long> userCouponIds = list.stream()
+                .map(UserCouponDTO::getUserCouponId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Long> existIds = CollUtils.isEmpty(userCouponIds) ? new HashSet<>() : lambdaQuery()
+                .select(UserCoupon::getId)
+                .in(UserCoupon::getId, userCouponIds)
+                .list()
+                .stream()
+                .map(UserCoupon::getId)
+                .collect(Collectors.toSet());
+        // 3. 按优惠券分组，每个优惠券一条语句更新发放数量
+        LocalDateTime now = LocalDateTime.now();
+        List<UserCoupon> userCoupons = new ArrayList<>(list.size());
+        List<UserCouponDTO> rejected = new ArrayList<>();
+        for (Map.Entry<Long, List<UserCouponDTO>> entry : couponMap.entrySet()) {
+            // 3.1 同一批次中的重复消息也只保留一条
+            List<UserCouponDTO> group = new ArrayList<>(entry.getValue().size());
+            for (UserCouponDTO ucd : entry.getValue()) {
+                if (ucd.getUserCouponId() == null || existIds.add(ucd.getUserCouponId())) {
+                    group.add(ucd);
+                }
+            }
+            if (group.isEmpty()) {
+                continue;
+            }
+            Coupon coupon = coupons.get(entry.getKey());
+            if (coupon == null) {
+                log.error("优惠券不存在，领券记录全部回退，couponId：{}，数量：{}", entry.getKey(), group.size());
+                rejected.addAll(group);
+                continue;
+            }
+            // 3.2 更新优惠券发放数量+k，库存不足时逐个发放，发放不了的领券记录回退
+            int issued = incrIssueNum(coupon.getId(), group.size());
+            if (issued < group.size()) {
+                log.error("优惠券库存不足，领券记录部分回退，couponId：{}，领取数量：{}，发放数量：{}",
+                        coupon.getId(), group.size(), issued);
+                rejected.addAll(group.subList(issued, group.size()));
+            }
+            for (UserCouponDTO ucd : group.subList(0, issued)) {
+                userCoupons.add(buildUserCoupon(ucd, coupon, now));
+            }
+        }
+        // 4. 一条语句批量写入用户券，主键冲突的记录忽略
+        if (CollUtils.isNotEmpty(userCoupons)) {
+            getBaseMapper().insertIgnoreBatch(userCoupons);
+        }
+        // 5. 事务提交后再回退发放失败的领券记录，事务回滚时消息会重新投递，不能提前回退
+        if (CollUtils.isNotEmpty(rejected)) {
+            TransactionUtils.afterCommit(() -> releaseReceived(rejected, coupons.keySet()));
+        }
+    }
+
+    /**
+     * 增加优惠券的发放数量，一次增加失败说明库存不足，逐个增加直到库存用完
+     * @return 实际发放的数量
+     */
+    private int incrIssueNum(Long couponId, int count) {
+        if (couponMapper.incrIssueNumBy(couponId, count) > 0) {
+            return count;
+        }
+        int issued = 0;
+        while (issued < count && couponMapper.incrIssueNum(couponId) > 0) {
+            issued++;
         }
-        // 2. 更新优惠券发放数量+1
-        int sucRow = couponMapper.incrIssueNum(coupon.getId());
-        if (sucRow == 0) {
-            throw new BizIllegalException("优惠券库存不足");
+        return issued;
+    }
+
+    /**
+     * 回退发放失败的领券记录，减少用户领取数量，兑换码领取的归还兑换标记，直接领取的归还库存
+     * 优惠券已经不存在时不归还库存，避免重新生成优惠券缓存
+     */
+    private void releaseReceived(List<UserCouponDTO> rejected, Set<Long> existCouponIds) {
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection src = (StringRedisConnection) connection;
+                for (UserCouponDTO ucd : rejected) {
+                    src.hIncrBy(PromotionConstants.USER_COUPON_CACHE_KEY_PREFIX + ucd.getCouponId(),
+                            ucd.getUserId().toString(), -1);
+                    if (ucd.getSerialNum() != null) {
+                        src.setBit(PromotionConstants.COUPON_CODE_MAP_KEY, ucd.getSerialNum(), false);
+                    } else if (existCouponIds.contains(ucd.getCouponId())) {
+                        src.hIncrBy(PromotionConstants.COUPON_CACHE_KEY_PREFIX + ucd.getCouponId(), "totalNum", 1);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("回退领券记录失败，需要人工处理：{}", rejected, e);
         }
-        Long userId = ucd.getUserId();
-        // 3. 写入数据库
+    }
+
+    private UserCoupon buildUserCoupon(UserCouponDTO ucd, Coupon coupon, LocalDateTime now) {
         UserCoupon userCoupon = new UserCoupon();
-        userCoupon.setUserId(userId);
+        // 历史消息中没有用户券 id，直接生成
+        userCoupon.setId(ucd.getUserCouponId() != null ? ucd.getUserCouponId() : IdWorker.getId());
+        userCoupon.setUserId(ucd.getUserId());
         userCoupon.setCouponId(coupon.getId());
-        // 3.1 设置优惠券有效期
+        // 设置优惠券有效期
         LocalDateTime termBeginTime = coupon.getTermBeginTime();
         LocalDateTime termEndTime = coupon.getTermEndTime();
         if (Objects.isNull(termBeginTime)) {// 为空则表示有效期为天数
-            termBeginTime = LocalDateTime.now();
+            termBeginTime = now;
             termEndTime = termBeginTime.plusDays(coupon.getTermDays());
         }
         userCoupon.setTermBeginTime(termBeginTime);
         userCoupon.setTermEndTime(termEndTime);
-        save(userCoupon);
+        return userCoupon;
     }
 
     /**
@@ -184,6 +326,8 @@ public class UserCouponServiceImpl extends ServiceImpl<UserCouponMapper, UserCou
             UserCouponDTO userCouponDTO = new UserCouponDTO();
             userCouponDTO.setUserId(userId);
             userCouponDTO.setCouponId(couponId);
+            userCouponDTO.setSerialNum((int) serialNum);
+            userCouponDTO.setUserCouponId(IdWorker.getId());
             mqHelper.send(MqConstants.Exchange.PROMOTION_EXCHANGE, MqConstants.Key.COUPON_RECEIVE, userCouponDTO);
         } catch (Exception e) {
             // 出现异常，将兑换标记标志位 false，因为在上面exchangeCodeService方法中标记为 true了
@@ -192,6 +336,116 @@ public class UserCouponServiceImpl extends ServiceImpl<UserCouponMapper, UserCou
         }
     }
 
+    /**
+     * 用户批量兑换优惠券，返回结果与兑换码的顺序一致
+     * 1. 兑换码的解析、优惠券的查找、发放时间的校验都在本地完成
+     * 2. 兑换标记和限领数量的校验由一次 Lua脚本完成，无需加锁
+     * 3. 所有兑换成功的记录合并为一条 MQ消息
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ExchangeCodeResultVO> receiveCouponByExchangeCodes(List<String> codes) {
+        if (CollUtils.isEmpty(codes)) {
+            return CollUtils.emptyList();
+        }
+        if (codes.size() > MAX_EXCHANGE_CODES) {
+            throw new BadRequestException("单次最多兑换" + MAX_EXCHANGE_CODES + "个兑换码");
+        }
+        Long userId = UserContext.getUser();
+        int n = codes.size();
+        String[] errors = new String[n];
+        long[] serialNums = new long[n];
+        Long[] couponIds = new Long[n];
+        // 1. 解析兑换码，查找对应的优惠券并校验发放时间
+        Map<Long, Coupon> coupons = new HashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < n; i++) {
+            serialNums[i] = CodeUtil.tryParseCode(codes.get(i));
+            if (serialNums[i] < 0) {
+                errors[i] = "无效兑换码";
+                continue;
+            }
+            Long couponId = exchangeCodeService.exchangeTargetId(serialNums[i]);
+            Coupon coupon = couponId == null ? null : coupons.computeIfAbsent(couponId, this::queryCouponByCache);
+            if (coupon == null) {
+                errors[i] = "兑换码不存在";
+                continue;
+            }
+            if (now.isBefore(coupon.getIssueBeginTime()) || now.isAfter(coupon.getIssueEndTime())) {
+                errors[i] = "优惠券发放结束或尚未开始";
+                continue;
+            }
+            couponIds[i] = couponId;
+        }
+        // 2. 一次 Lua脚本完成所有兑换码的兑换标记和限领校验
+        List<String> keys = new ArrayList<>();
+        keys.add(PromotionConstants.COUPON_CODE_MAP_KEY);
+        Map<Long, Integer> keyIndexes = new HashMap<>();
+        List<String> args = new ArrayList<>();
+        args.add(userId.toString());
+        for (int i = 0; i < n; i++) {
+            if (couponIds[i] == null) {
+                continue;
+            }
+            Integer keyIndex = keyIndexes.computeIfAbsent(couponIds[i], id -> {
+                keys.add(PromotionConstants.USER_COUPON_CACHE_KEY_PREFIX + id);
+                return keys.size();// Lua中 KEYS的下标从 1开始
+            });
+            args.add(String.valueOf(serialNums[i]));
+            args.add(keyIndex.toString());
+            args.add(coupons.get(couponIds[i]).getUserLimit().toString());
+        }
+        List<UserCouponDTO> userCouponDTOList = new ArrayList<>();
+        List<Long> successSerialNums = new ArrayList<>();
+        if (args.size() > 1) {
+            List<Long> results = redisTemplate.execute(EXCHANGE_CODES_SCRIPT, keys, args.toArray());
+            // 3. 处理校验结果，按顺序与兑换码对应
+            int r = 0;
+            for (int i = 0; i < n; i++) {
+                if (couponIds[i] == null) {
+                    continue;
+                }
+                long result = results == null ? EXCHANGE_USED : results.get(r++);
+                if (result == EXCHANGE_USED) {
+                    errors[i] = "兑换码已被兑换";
+                } else if (result == EXCHANGE_OVER_LIMIT) {
+                    errors[i] = "超过领取数量";
+                } else {
+                    UserCouponDTO userCouponDTO = new UserCouponDTO();
+                    userCouponDTO.setUserId(userId);
+                    userCouponDTO.setCouponId(couponIds[i]);
+                    userCouponDTO.setSerialNum((int) serialNums[i]);
+                    userCouponDTO.setUserCouponId(IdWorker.getId());
+                    userCouponDTOList.add(userCouponDTO);
+                    successSerialNums.add(serialNums[i]);
+                }
+            }
+        }
+        // 4. 发送一条 MQ消息，发送失败时归还兑换标记和领取数量
+        if (CollUtils.isNotEmpty(userCouponDTOList)) {
+            try {
+                mqHelper.send(MqConstants.Exchange.PROMOTION_EXCHANGE, MqConstants.Key.COUPON_RECEIVE_BATCH, userCouponDTOList);
+            } catch (Exception e) {
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection src = (StringRedisConnection) connection;
+                    for (int i = 0; i < successSerialNums.size(); i++) {
+                        src.setBit(PromotionConstants.COUPON_CODE_MAP_KEY, successSerialNums.get(i), false);
+                        src.hIncrBy(PromotionConstants.USER_COUPON_CACHE_KEY_PREFIX + userCouponDTOList.get(i).getCouponId(),
+                                userId.toString(), -1);
+                    }
+                    return null;
+                });
+                throw e;
+            }
+        }
+        // 5. 组装结果
+        List<ExchangeCodeResultVO> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(new ExchangeCodeResultVO(codes.get(i), errors[i] == null, errors[i]));
+        }
+        return list;
+    }
+
     /**
      * 查询我的优惠券
      */
@@ -1,53 +1,134 @@
 package com.tianji.promotion.utils;
 
-import cn.hutool.core.text.StrBuilder;
+import java.util.Arrays;
 
 /**
  * 将整数转为base32字符的工具，因为是32进制，所以每5个bit位转一次
+ * 编解码都通过预先计算的码表完成，并提供写入调用方数组的版本，批量生成和校验兑换码时不产生中间对象
  */
 public class Base32 {
     private final static String baseChars = "6CSB7H8DAKXZF3N95RTMVUQG2YE4JWPL";
+    /**
+     * 编码表，下标为 5位数值，值为字符
+     */
+    private final static char[] ENCODE_TABLE = baseChars.toCharArray();
+    /**
+     * 解码表，下标为字符，值为 5位数值，不合法的字符为 -1
+     */
+    private final static byte[] DECODE_TABLE = new byte[128];
+    /**
+     * long编码后的最大长度，64位每5位一个字符
+     */
+    public final static int MAX_LONG_CHARS = 13;
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ENCODE_TABLE.length; i++) {
+            DECODE_TABLE[ENCODE_TABLE[i]] = (byte) i;
+        }
+    }
 
     public static String encode(long raw) {
-        StrBuilder sb = new StrBuilder();
+        char[] buf = new char[MAX_LONG_CHARS];
+        int len = encode(raw, buf, 0);
+        return new String(buf, 0, len);
+    }
+
+    /**
+     * 编码并写入 dest，从低位开始每5位一个字符
+     * @return 写入的字符数
+     */
+    public static int encode(long raw, char[] dest, int offset) {
+        int i = offset;
         while (raw != 0) {
-            int i = (int) (raw & 0b11111);
-            sb.append(baseChars.charAt(i));
+            dest[i++] = ENCODE_TABLE[(int) (raw & 0b11111)];
             raw = raw >>> 5;
         }
-        return sb.toString();
+        return i - offset;
+    }
+
+    /**
+     * 编码并以 ASCII写入 dest，从低位开始每5位一个字符
+     * @return 写入的字节数
+     */
+    public static int encode(long raw, byte[] dest, int offset) {
+        int i = offset;
+        while (raw != 0) {
+            dest[i++] = (byte) ENCODE_TABLE[(int) (raw & 0b11111)];
+            raw = raw >>> 5;
+        }
+        return i - offset;
     }
 
-    public static long decode(String code) {
+    /**
+     * 解码，包含不合法字符时返回 -1
+     */
+    public static long decode(CharSequence code) {
         long r = 0;
-        char[] chars = code.toCharArray();
-        for (int i = chars.length - 1; i >= 0; i--) {
-            long n = baseChars.indexOf(chars[i]);
-            r = r | (n << (5*i));
+        for (int i = code.length() - 1; i >= 0; i--) {
+            long n = valueOf(code.charAt(i));
+            if (n < 0) {
+                return -1;
+            }
+            r = r | (n << (5 * i));
         }
         return r;
     }
 
+    /**
+     * 解码 chars中从 offset开始的 length个字符，包含不合法字符时返回 -1
+     */
+    public static long decode(char[] chars, int offset, int length) {
+        long r = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            long n = valueOf(chars[offset + i]);
+            if (n < 0) {
+                return -1;
+            }
+            r = r | (n << (5 * i));
+        }
+        return r;
+    }
+
+    /**
+     * 解码 ASCII字节数组中从 offset开始的 length个字符，包含不合法字符时返回 -1
+     */
+    public static long decode(byte[] bytes, int offset, int length) {
+        long r = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            long n = valueOf((char) (bytes[offset + i] & 0xFF));
+            if (n < 0) {
+                return -1;
+            }
+            r = r | (n << (5 * i));
+        }
+        return r;
+    }
+
+    private static int valueOf(char c) {
+        return c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+    }
+
     public static String encode(byte[] raw) {
-        StrBuilder sb = new StrBuilder();
+        StringBuilder sb = new StringBuilder();
         int size = 0;
         int temp = 0;
         for (byte b : raw) {
             if (size == 0) {
                 // 取5个bit
                 int index = (b >>> 3) & 0b11111;
-                sb.append(baseChars.charAt(index));
+                sb.append(ENCODE_TABLE[index]);
                 // 还剩下3位
                 size = 3;
                 temp = b & 0b111;
             } else {
                 int index = temp << (5 - size) | (b >>> (3 + size) & ((1 << 5 - size) - 1)) ;
-                sb.append(baseChars.charAt(index));
+                sb.append(ENCODE_TABLE[index]);
                 int left = 3 + size;
                 size = 0;
                 if(left >= 5){
                     index = b >>> (left - 5) & ((1 << 5) - 1);
-                    sb.append(baseChars.charAt(index));
+                    sb.append(ENCODE_TABLE[index]);
                     left = left - 5;
                 }
                 if(left == 0){
@@ -58,7 +139,7 @@ public class Base32 {
             }
         }
         if(size > 0){
-            sb.append(baseChars.charAt(temp));
+            sb.append(ENCODE_TABLE[temp]);
         }
         return sb.toString();
     }
@@ -71,7 +152,7 @@ public class Base32 {
         int index = 0;
         int i = 0;
         for (char c : chars) {
-            byte n = (byte) baseChars.indexOf(c);
+            byte n = (byte) valueOf(c);
             i++;
             if (byteSize == 0) {
                 tmp = n;
@@ -1,6 +1,5 @@
 package com.tianji.promotion.utils;
 
-import com.tianji.common.constants.RegexConstants;
 import com.tianji.common.exceptions.BadRequestException;
 
 /**
@@ -82,6 +81,12 @@ public class CodeUtil {
             {19, 127, 241, 353, 499, 607, 811, 919, 1031, 1301}
     };
 
+    /**
+     * 兑换码的最短、最长长度，明文最高位不一定为 1，Base32编码后长度不固定
+     */
+    private final static int MIN_CODE_LENGTH = 8;
+    private final static int MAX_CODE_LENGTH = 10;
+
     /**
      * 生成兑换码
      *
@@ -89,19 +94,45 @@ public class CodeUtil {
      * @return 兑换码
      */
     public static String generateCode(long serialNum, long fresh) {
+        char[] buf = new char[MAX_CODE_LENGTH];
+        int len = generateCode(serialNum, fresh, buf, 0);
+        return new String(buf, 0, len);
+    }
+
+    /**
+     * 生成兑换码并写入 dest，批量生成时可以复用同一个数组
+     *
+     * @param serialNum 递增序列号
+     * @return 写入的字符数
+     */
+    public static int generateCode(long serialNum, long fresh, char[] dest, int offset) {
+        return Base32.encode(encodePlain(serialNum, fresh), dest, offset);
+    }
+
+    /**
+     * 生成兑换码并以 ASCII写入 dest
+     *
+     * @param serialNum 递增序列号
+     * @return 写入的字节数
+     */
+    public static int generateCode(long serialNum, long fresh, byte[] dest, int offset) {
+        return Base32.encode(encodePlain(serialNum, fresh), dest, offset);
+    }
+
+    /**
+     * 计算兑换码明文
+     */
+    private static long encodePlain(long serialNum, long fresh) {
         // 1.计算新鲜值，取后四位
         fresh = fresh & FRESH_MASK;
         // 2.拼接payload，fresh（4位） + serialNum（32位）
         long payload = fresh << FRESH_BIT_OFFSET | serialNum;
         // 3.计算校验码(14位)
         long checkCode = calcCheckCode(payload, (int) fresh);
-        System.out.println("checkCode = " + checkCode);
         // 4.payload做大质数异或运算，混淆数据
         payload ^= XOR_TABLE[(int) (checkCode & FRESH_MASK)];
         // 5.拼接兑换码明文: 校验码（14位） + payload（36位）
-        long code = checkCode << CHECK_CODE_BIT_OFFSET | payload;
-        // 6.转码
-        return Base32.encode(code);
+        return checkCode << CHECK_CODE_BIT_OFFSET | payload;
     }
 
     private static long calcCheckCode(long payload, int fresh) {
@@ -118,23 +149,53 @@ public class CodeUtil {
     }
 
     public static long parseCode(String code) {
-        if (code == null || !code.matches(RegexConstants.COUPON_CODE_PATTERN)) {
+        long serialNum = tryParseCode(code);
+        if (serialNum < 0) {
             // 兑换码格式错误
             throw new BadRequestException("无效兑换码");
         }
-        // 1.Base32解码
-        long num = Base32.decode(code);
-        // 2.获取低36位，payload
+        return serialNum;
+    }
+
+    /**
+     * 解析兑换码，不合法时返回 -1而不是抛出异常，用于批量校验
+     * 字符集和长度的校验与 RegexConstants.COUPON_CODE_PATTERN一致，通过解码表完成，不使用正则
+     */
+    public static long tryParseCode(CharSequence code) {
+        if (code == null || code.length() < MIN_CODE_LENGTH || code.length() > MAX_CODE_LENGTH) {
+            return -1;
+        }
+        return verify(Base32.decode(code));
+    }
+
+    /**
+     * 解析 chars中从 offset开始的 length个字符组成的兑换码，不合法时返回 -1
+     */
+    public static long tryParseCode(char[] chars, int offset, int length) {
+        if (length < MIN_CODE_LENGTH || length > MAX_CODE_LENGTH) {
+            return -1;
+        }
+        return verify(Base32.decode(chars, offset, length));
+    }
+
+    /**
+     * 校验兑换码明文，通过时返回序列号，否则返回 -1
+     */
+    private static long verify(long num) {
+        if (num < 0) {
+            return -1;
+        }
+        // 1.获取低36位，payload
         long payload = num & PAYLOAD_MASK;
-        // 3.获取高14位，校验码
+        // 2.获取高14位，校验码
         int checkCode = (int) (num >>> CHECK_CODE_BIT_OFFSET);
-        // 4.载荷异或大质数，解析出原来的payload
+        // 3.载荷异或大质数，解析出原来的payload
         payload ^= XOR_TABLE[(checkCode & FRESH_MASK)];
-        // 5.获取高4位，fresh
+        // 4.获取高4位，fresh
         int fresh = (int) (payload >>> FRESH_BIT_OFFSET & FRESH_MASK);
-        // 6.验证格式：
+        // 5.验证格式：
         if (calcCheckCode(payload, fresh) != checkCode) {
-            throw new BadRequestException("无效兑换码");
+            return -1;
         }
         return payload & SERIAL_NUM_MASK;
     }
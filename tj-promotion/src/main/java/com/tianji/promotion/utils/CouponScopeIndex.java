@@ -0,0 +1,94 @@
+package com.tianji.promotion.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.promotion.domain.pojo.CouponScope;
+import com.tianji.promotion.service.ICouponScopeService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 优惠券使用范围的本地索引，couponId -> 排好序的分类 id数组
+ * <p>
+ * 1. 未命中的优惠券一次批量查询数据库加载
+ * 2. 只有待发放的优惠券才能修改使用范围，发放后范围不再变化，由 CouponServiceImpl在修改、删除优惠券的事务提交后失效
+ * 3. 每次失效都会递增版本号，加载期间发生过失效的结果不写入缓存，避免旧数据覆盖
+ */
+@Component
+@RequiredArgsConstructor
+public class CouponScopeIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final Cache<Long, long[]> couponScopeCaches;
+    private final ICouponScopeService couponScopeService;
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 批量查询优惠券的使用范围
+     * @return couponId -> 排好序的分类 id数组，没有限定范围的优惠券为空数组
+     */
+    public Map<Long, long[]> getScopes(Collection<Long> couponIds) {
+        Map<Long, long[]> result = new HashMap<>(couponIds.size());
+        if (CollUtils.isEmpty(couponIds)) {
+            return result;
+        }
+        // 1. 读取缓存
+        List<Long> missIds = new ArrayList<>();
+        for (Long couponId : couponIds) {
+            long[] scopes = couponScopeCaches.getIfPresent(couponId);
+            if (scopes == null) {
+                missIds.add(couponId);
+            } else {
+                result.put(couponId, scopes);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 2. 未命中的一次批量查询
+        long v = version.get();
+        Map<Long, List<Long>> scopeMap = new HashMap<>(missIds.size());
+        for (CouponScope scope : couponScopeService.queryByCouponIds(missIds)) {
+            scopeMap.computeIfAbsent(scope.getCouponId(), k -> new ArrayList<>()).add(scope.getBizId());
+        }
+        Map<Long, long[]> loaded = new HashMap<>(missIds.size());
+        for (Long couponId : missIds) {
+            List<Long> bizIds = scopeMap.get(couponId);
+            loaded.put(couponId, bizIds == null ? EMPTY : toSortedArray(bizIds));
+        }
+        result.putAll(loaded);
+        // 3. 加载期间没有发生失效才写入缓存
+        if (version.get() == v) {
+            couponScopeCaches.putAll(loaded);
+        }
+        return result;
+    }
+
+    /**
+     * 判断分类是否在使用范围内
+     */
+    public static boolean contains(long[] scopes, Long bizId) {
+        return bizId != null && Arrays.binarySearch(scopes, bizId) >= 0;
+    }
+
+    /**
+     * 优惠券的使用范围发生变化时失效
+     */
+    public void invalidate(Long couponId) {
+        version.incrementAndGet();
+        couponScopeCaches.invalidate(couponId);
+    }
+
+    private static long[] toSortedArray(List<Long> bizIds) {
+        long[] arr = new long[bizIds.size()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = bizIds.get(i);
+        }
+        Arrays.sort(arr);
+        return arr;
+    }
+}
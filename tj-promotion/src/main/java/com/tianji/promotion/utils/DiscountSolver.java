@@ -0,0 +1,514 @@
+package com.tianji.promotion.utils;
+
+import com.tianji.api.promotion.CouponDiscountDTO;
+import com.tianji.api.promotion.OrderCourseDTO;
+import com.tianji.common.exceptions.BadRequestException;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.enums.DiscountType;
+import com.tianji.promotion.strategy.discount.DiscountStrategy;
+
+import java.util.*;
+
+/**
+ * 优惠方案求解器，替代对所有优惠券的全排列枚举，结果与原来的全排列方案一致：
+ * 每种用券组合取优惠金额最高的用券顺序，相同优惠金额只保留用券最少的组合，单张券的方案全部保留，按优惠金额降序
+ * <p>
+ * 1. 深度优先搜索所有用券顺序，每一步只尝试当前可用的优惠券，不可用的券等价于不选
+ * 2. 已用券集合与每门课程剩余价格都相同的状态，后续结果完全相同，只搜索一次
+ * 3. 先进行分支限界搜索：每张券的优惠金额随剩余价格单调不减，剩余券在当前价格下的优惠金额即为上界，
+ *    任意再用 j张券的上界都不超过用券数量不多于它的已知最优方案时剪枝，很快就能得到优惠最多的方案
+ * 4. 再不剪枝地枚举所有状态，得到每种用券组合的最高优惠金额
+ * 5. 两次搜索共用节点数量和时间预算，预算耗尽时停止搜索，返回已经找到的方案，
+ *    单张券的方案在搜索前直接计算，分支限界先于枚举执行，预算耗尽时也总是包含这些方案
+ * <p>
+ * 搜索过程只使用预先分配的 int数组：价格、优惠规则都展开为基本类型数组，已用券集合为位图，
+ * 每层的剩余价格写入按深度复用的缓冲区，每种用券组合只在第一次出现时分配一次方案数组，
+ * 只有最终胜出的方案才会创建 CouponDiscountDTO。
+ * 优惠金额的计算规则与 strategy.discount中的各个实现保持一致
+ */
+public class DiscountSolver {
+    /**
+     * 参与求解的优惠券数量上限，超出时只保留单独使用时优惠最多的券
+     */
+    public static final int MAX_COUPONS = 63;
+    /**
+     * 默认的搜索节点数量预算，限制状态集合占用的内存
+     */
+    public static final int DEFAULT_MAX_NODES = 200_000;
+    /**
+     * 默认的搜索时间预算，单位毫秒
+     */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 1000;
+    // 每搜索多少个节点检查一次时间预算
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    private static final int NO_THRESHOLD = 0;
+    private static final int PER_PRICE_DISCOUNT = 1;
+    private static final int PRICE_DISCOUNT = 2;
+    private static final int RATE_DISCOUNT = 3;
+
+    private final List<OrderCourseDTO> courses;
+    private final Coupon[] coupons;
+    // 优惠券规则
+    private final int[] type;
+    private final int[] threshold;
+    private final int[] value;
+    private final int[] maxAmount;
+    // 每张优惠券可用课程在 courses中的下标
+    private final int[][] couponCourses;
+    private final int[] prices;
+    // 按搜索深度复用的缓冲区
+    private final int[][] remainingBuf;
+    private final int[][] totalBuf;
+    private final int[][] upperBoundBuf;
+    private final int[] path;
+    // 用券数量为 k时的最高优惠金额，用于剪枝
+    private final int[] bestAmount;
+    private final StateSet visited;
+    // 每种用券组合(已用券位图)的最优方案
+    private final Map<Long, Plan> bestPlans = new HashMap<>();
+    // 搜索预算
+    private final int maxNodes;
+    private final long timeBudgetNanos;
+    private long deadline;
+    private int nodes;
+    private boolean exhausted;
+
+    public DiscountSolver(List<OrderCourseDTO> courses, Map<Coupon, List<OrderCourseDTO>> availableCouponMap) {
+        this(courses, availableCouponMap, DEFAULT_MAX_NODES, DEFAULT_TIME_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param maxNodes 搜索节点数量预算
+     * @param timeBudgetMillis 搜索时间预算，单位毫秒
+     */
+    public DiscountSolver(List<OrderCourseDTO> courses, Map<Coupon, List<OrderCourseDTO>> availableCouponMap,
+                          int maxNodes, long timeBudgetMillis) {
+        this(courses, availableCouponMap, sortBySingleDiscount(courses, availableCouponMap), maxNodes, timeBudgetMillis);
+    }
+
+    private DiscountSolver(List<OrderCourseDTO> courses, Map<Coupon, List<OrderCourseDTO>> availableCouponMap, List<Coupon> list,
+                           int maxNodes, long timeBudgetMillis) {
+        this.courses = courses;
+        this.maxNodes = maxNodes;
+        this.timeBudgetNanos = timeBudgetMillis * 1_000_000;
+        int n = list.size(), m = courses.size();
+        Map<Long, Integer> courseIndex = new HashMap<>(m);
+        this.prices = new int[m];
+        for (int i = 0; i < m; i++) {
+            courseIndex.put(courses.get(i).getId(), i);
+            prices[i] = courses.get(i).getPrice();
+        }
+        // 1. 展开优惠券规则与可用课程
+        this.coupons = list.toArray(new Coupon[0]);
+        this.type = new int[n];
+        this.threshold = new int[n];
+        this.value = new int[n];
+        this.maxAmount = new int[n];
+        this.couponCourses = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Coupon coupon = coupons[i];
+            type[i] = typeOf(coupon.getDiscountType());
+            threshold[i] = intValue(coupon.getThresholdAmount());
+            value[i] = intValue(coupon.getDiscountValue());
+            maxAmount[i] = coupon.getMaxDiscountAmount() == null ? Integer.MAX_VALUE : coupon.getMaxDiscountAmount();
+            List<OrderCourseDTO> available = availableCouponMap.get(coupon);
+            couponCourses[i] = new int[available.size()];
+            for (int j = 0; j < available.size(); j++) {
+                couponCourses[i][j] = courseIndex.get(available.get(j).getId());
+            }
+        }
+        // 2. 分配缓冲区
+        this.remainingBuf = new int[n + 1][m];
+        this.totalBuf = new int[n + 1][n];
+        this.upperBoundBuf = new int[n + 1][n];
+        this.path = new int[n];
+        this.bestAmount = new int[n + 1];
+        this.visited = new StateSet(m);
+    }
+
+    /**
+     * 求解最优方案
+     * @return 按优惠金额降序的方案列表
+     */
+    public List<CouponDiscountDTO> solve() {
+        deadline = System.nanoTime() + timeBudgetNanos;
+        // 1. 单张券的方案
+        int[] remaining = remainingBuf[1];
+        for (int i = 0; i < coupons.length; i++) {
+            System.arraycopy(prices, 0, remaining, 0, prices.length);
+            int total = totalOf(i, remaining);
+            if (!canUse(i, total)) {
+                continue;
+            }
+            int discountAmount = discountOf(i, total);
+            applyDiscount(couponCourses[i], remaining, total, discountAmount);
+            path[0] = i;
+            record(1L << i, 1, discountAmount, remaining);
+        }
+        // 2. 分支限界搜索，尽快得到优惠最多的方案
+        System.arraycopy(prices, 0, remainingBuf[0], 0, prices.length);
+        search(0L, 0, 0, true);
+        // 3. 不剪枝地枚举所有状态，得到每种用券组合的最优方案
+        visited.clear();
+        search(0L, 0, 0, false);
+        return collect();
+    }
+
+    /**
+     * 搜索是否因为预算耗尽而提前结束，此时结果只包含已经找到的方案
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * 相同优惠金额只保留用券最少的组合，单张券的方案全部保留，只为这些方案创建 DTO
+     */
+    private List<CouponDiscountDTO> collect() {
+        Map<Integer, Integer> minCount = new HashMap<>();
+        for (Plan plan : bestPlans.values()) {
+            minCount.merge(plan.amount, plan.path.length, Math::min);
+        }
+        List<Plan> plans = new ArrayList<>();
+        for (Plan plan : bestPlans.values()) {
+            if (plan.path.length == 1 || plan.path.length == minCount.get(plan.amount)) {
+                plans.add(plan);
+            }
+        }
+        plans.sort(Comparator.<Plan>comparingInt(p -> -p.amount).thenComparingInt(p -> p.path.length));
+        List<CouponDiscountDTO> list = new ArrayList<>(plans.size());
+        for (Plan plan : plans) {
+            list.add(buildSolution(plan.path, plan.path.length, plan.amount, plan.remaining));
+        }
+        return list;
+    }
+
+    /**
+     * 记录用券组合的方案，同一组合只保留优惠金额最高的用券顺序
+     */
+    private void record(long usedMask, int count, int amount, int[] remaining) {
+        Plan plan = bestPlans.get(usedMask);
+        if (plan == null) {
+            bestPlans.put(usedMask, new Plan(Arrays.copyOf(path, count), amount, remaining.clone()));
+        } else if (amount > plan.amount) {
+            System.arraycopy(path, 0, plan.path, 0, count);
+            System.arraycopy(remaining, 0, plan.remaining, 0, remaining.length);
+            plan.amount = amount;
+        }
+    }
+
+    /**
+     * 消耗一个节点的预算
+     * @return 预算已经耗尽时返回 false
+     */
+    private boolean consume() {
+        if (exhausted) {
+            return false;
+        }
+        nodes++;
+        if (nodes > maxNodes || (nodes % TIME_CHECK_INTERVAL == 0 && System.nanoTime() > deadline)) {
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 按照指定的用券顺序计算优惠明细，不可用的券跳过
+     * @throws BadRequestException 可用的优惠券数量超过 MAX_COUPONS
+     */
+    public static CouponDiscountDTO calculate(List<OrderCourseDTO> courses, Map<Coupon, List<OrderCourseDTO>> availableCouponMap,
+                                              List<Coupon> order) {
+        List<Coupon> list = new ArrayList<>(order.size());
+        for (Coupon coupon : order) {
+            if (availableCouponMap.containsKey(coupon)) {
+                list.add(coupon);
+            }
+        }
+        if (list.size() > MAX_COUPONS) {
+            throw new BadRequestException("一次最多使用" + MAX_COUPONS + "张优惠券");
+        }
+        return new DiscountSolver(courses, availableCouponMap, list, 0, 0).calculateInOrder();
+    }
+
+    private CouponDiscountDTO calculateInOrder() {
+        int[] remaining = remainingBuf[0];
+        System.arraycopy(prices, 0, remaining, 0, prices.length);
+        int count = 0, amount = 0;
+        for (int i = 0; i < coupons.length; i++) {
+            int total = totalOf(i, remaining);
+            if (!canUse(i, total)) {
+                continue;
+            }
+            int discountAmount = discountOf(i, total);
+            applyDiscount(couponCourses[i], remaining, total, discountAmount);
+            path[count++] = i;
+            amount += discountAmount;
+        }
+        return buildSolution(path, count, amount, remaining);
+    }
+
+    /**
+     * 深度优先搜索用券顺序
+     * @param prune 是否进行分支限界剪枝
+     */
+    private void search(long usedMask, int count, int amount, boolean prune) {
+        int[] remaining = remainingBuf[count];
+        // 1. 相同状态只搜索一次，预算耗尽时停止
+        if (!visited.add(usedMask, remaining) || !consume()) {
+            return;
+        }
+        // 2. 记录当前用券数量以及当前用券组合下的最优方案
+        if (count > 0) {
+            bestAmount[count] = Math.max(bestAmount[count], amount);
+            record(usedMask, count, amount, remaining);
+        }
+        int n = coupons.length;
+        if (count == n) {
+            return;
+        }
+        // 3. 计算剩余可用券在当前价格下的优惠金额，即后续使用时优惠金额的上界
+        int[] totals = totalBuf[count];
+        int[] upperBounds = upperBoundBuf[count];
+        int available = 0;
+        for (int i = 0; i < n; i++) {
+            totals[i] = -1;
+            if ((usedMask & (1L << i)) != 0) {
+                continue;
+            }
+            int total = totalOf(i, remaining);
+            if (canUse(i, total)) {
+                totals[i] = total;
+                upperBounds[available++] = discountOf(i, total);
+            }
+        }
+        // 4. 再用 j张券的方案，优惠金额不超过当前金额加上最大的 j个上界之和，
+        //    所有 j都不可能超过用券不多于 count + j张的已知最优方案时剪枝
+        Arrays.sort(upperBounds, 0, available);
+        int bound = 0, sum = amount;
+        for (int k = 1; k <= count; k++) {
+            bound = Math.max(bound, bestAmount[k]);
+        }
+        boolean promising = false;
+        for (int j = 1; j <= available; j++) {
+            bound = Math.max(bound, bestAmount[count + j]);
+            sum += upperBounds[available - j];
+            if (sum > bound) {
+                promising = true;
+                break;
+            }
+        }
+        if (prune && !promising) {
+            return;
+        }
+        // 5. 依次尝试每张可用的券
+        int[] next = remainingBuf[count + 1];
+        for (int i = 0; i < n; i++) {
+            if (totals[i] < 0) {
+                continue;
+            }
+            int discountAmount = discountOf(i, totals[i]);
+            System.arraycopy(remaining, 0, next, 0, remaining.length);
+            applyDiscount(couponCourses[i], next, totals[i], discountAmount);
+            path[count] = i;
+            search(usedMask | (1L << i), count + 1, amount + discountAmount, prune);
+        }
+    }
+
+    private boolean canUse(int i, int total) {
+        return type[i] == NO_THRESHOLD ? total > value[i] : total >= threshold[i];
+    }
+
+    private int discountOf(int i, int total) {
+        switch (type[i]) {
+            case PER_PRICE_DISCOUNT:
+                if (threshold[i] <= 0) {
+                    return maxAmount[i];
+                }
+                return (int) Math.min((long) (total / threshold[i]) * value[i], maxAmount[i]);
+            case RATE_DISCOUNT:
+                return (int) Math.min((long) total * (100 - value[i]) / 100, maxAmount[i]);
+            default:
+                return value[i];
+        }
+    }
+
+    private int totalOf(int coupon, int[] remaining) {
+        int total = 0;
+        for (int c : couponCourses[coupon]) {
+            total += remaining[c];
+        }
+        return total;
+    }
+
+    /**
+     * 按照剩余价格的比例把优惠金额分摊到每门课程，最后一门课程分摊剩余部分，避免精度损失
+     */
+    private static void applyDiscount(int[] courseIndexes, int[] remaining, int total, int discountAmount) {
+        int remainDiscount = discountAmount;
+        for (int j = 0; j < courseIndexes.length; j++) {
+            int c = courseIndexes[j];
+            int discount = j == courseIndexes.length - 1
+                    ? remainDiscount
+                    : (int) ((long) remaining[c] * discountAmount / total);
+            remainDiscount -= discount;
+            remaining[c] = Math.max(remaining[c] - discount, 0);
+        }
+    }
+
+    private CouponDiscountDTO buildSolution(int[] couponIndexes, int count, int amount, int[] remaining) {
+        CouponDiscountDTO dto = new CouponDiscountDTO();
+        for (int i = 0; i < count; i++) {
+            Coupon coupon = coupons[couponIndexes[i]];
+            dto.getIds().add(coupon.getCreater());
+            dto.getRules().add(DiscountStrategy.getDiscount(coupon.getDiscountType()).getRule(coupon));
+        }
+        Map<Long, Integer> detailMap = new HashMap<>(courses.size());
+        for (int i = 0; i < remaining.length; i++) {
+            detailMap.put(courses.get(i).getId(), prices[i] - remaining[i]);
+        }
+        dto.setDiscountAmount(amount);
+        dto.setDiscountDetail(detailMap);
+        return dto;
+    }
+
+    /**
+     * 按照单独使用时的优惠金额降序，优先搜索优惠多的券，尽早得到较好的下界
+     */
+    private static List<Coupon> sortBySingleDiscount(List<OrderCourseDTO> courses, Map<Coupon, List<OrderCourseDTO>> availableCouponMap) {
+        List<Coupon> list = new ArrayList<>(availableCouponMap.keySet());
+        Map<Coupon, Integer> singleDiscount = new HashMap<>(list.size());
+        for (Coupon coupon : list) {
+            int total = availableCouponMap.get(coupon).stream().mapToInt(OrderCourseDTO::getPrice).sum();
+            singleDiscount.put(coupon, DiscountStrategy.getDiscount(coupon.getDiscountType()).calculateDiscount(total, coupon));
+        }
+        list.sort(Comparator.comparing(singleDiscount::get).reversed());
+        return list.size() > MAX_COUPONS ? list.subList(0, MAX_COUPONS) : list;
+    }
+
+    private static int typeOf(DiscountType discountType) {
+        switch (discountType) {
+            case PER_PRICE_DISCOUNT:
+                return PER_PRICE_DISCOUNT;
+            case PRICE_DISCOUNT:
+                return PRICE_DISCOUNT;
+            case RATE_DISCOUNT:
+                return RATE_DISCOUNT;
+            default:
+                return NO_THRESHOLD;
+        }
+    }
+
+    private static int intValue(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * 用券组合的最优方案，path为用券顺序(优惠券在 coupons中的下标)
+     */
+    private static class Plan {
+        private final int[] path;
+        private int amount;
+        private final int[] remaining;
+
+        Plan(int[] path, int amount, int[] remaining) {
+            this.path = path;
+            this.amount = amount;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * 已搜索状态的开放寻址哈希集合，状态(已用券位图 + 每门课程剩余价格)连续存放在一个 int数组中
+     */
+    private static class StateSet {
+        private final int stride;
+        private int[] slots = new int[64];// 状态在 states中的序号 + 1，0表示空
+        private long[] hashes = new long[64];
+        private int[] states;
+        private int size;
+
+        StateSet(int courseSize) {
+            this.stride = courseSize + 2;
+            this.states = new int[stride * 32];
+        }
+
+        /**
+         * 添加状态
+         * @return 状态不存在时返回 true
+         */
+        boolean add(long usedMask, int[] remaining) {
+            long hash = hash(usedMask, remaining);
+            int mask = slots.length - 1;
+            int i = (int) (hash ^ (hash >>> 32)) & mask;
+            while (slots[i] != 0) {
+                if (hashes[i] == hash && equalsAt(slots[i] - 1, usedMask, remaining)) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            // 写入状态
+            if ((size + 1) * stride > states.length) {
+                states = Arrays.copyOf(states, states.length * 2);
+            }
+            int offset = size * stride;
+            states[offset] = (int) usedMask;
+            states[offset + 1] = (int) (usedMask >>> 32);
+            System.arraycopy(remaining, 0, states, offset + 2, remaining.length);
+            slots[i] = ++size;
+            hashes[i] = hash;
+            // 负载因子超过 0.5时扩容
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(slots, 0);
+            size = 0;
+        }
+
+        private boolean equalsAt(int index, long usedMask, int[] remaining) {
+            int offset = index * stride;
+            if (states[offset] != (int) usedMask || states[offset + 1] != (int) (usedMask >>> 32)) {
+                return false;
+            }
+            for (int j = 0; j < remaining.length; j++) {
+                if (states[offset + 2 + j] != remaining[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash() {
+            int[] oldSlots = slots;
+            long[] oldHashes = hashes;
+            slots = new int[oldSlots.length * 2];
+            hashes = new long[oldSlots.length * 2];
+            int mask = slots.length - 1;
+            for (int k = 0; k < oldSlots.length; k++) {
+                if (oldSlots[k] == 0) {
+                    continue;
+                }
+                long hash = oldHashes[k];
+                int i = (int) (hash ^ (hash >>> 32)) & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = oldSlots[k];
+                hashes[i] = hash;
+            }
+        }
+
+        private static long hash(long usedMask, int[] remaining) {
+            long h = usedMask * 0x9E3779B97F4A7C15L;
+            for (int r : remaining) {
+                h = (h ^ r) * 0x100000001B3L;
+            }
+            return h ^ (h >>> 29);
+        }
+    }
+}
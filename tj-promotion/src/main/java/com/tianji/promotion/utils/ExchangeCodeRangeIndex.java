@@ -0,0 +1,132 @@
+package com.tianji.promotion.utils;
+
+import com.tianji.promotion.constants.PromotionConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * 兑换码序列号区间的本地索引，用于根据序列号查找对应的优惠券 id
+ * <p>
+ * 1. Redis中的 COUPON_RANGE_KEY记录了每个优惠券兑换码的最大序列号，只有生成新一批兑换码时才会变化
+ * 2. 本地保存按最大序列号排序的数组，查询时二分查找第一个不小于序列号的区间，不需要访问 Redis
+ * 3. 写入 COUPON_RANGE_KEY后递增版本号，定时任务发现版本号变化时重新加载，查询未命中时也会立即加载一次
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ExchangeCodeRangeIndex {
+    /**
+     * 未命中时两次强制加载的最小间隔，避免无效序列号频繁触发加载，单位毫秒
+     */
+    private static final long MIN_RELOAD_INTERVAL_MILLIS = 1000;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private volatile Snapshot snapshot = new Snapshot(-1, new long[0], new long[0]);
+    private volatile long lastLoadTime;
+
+    /**
+     * 查询指定序列号对应的优惠券 id，不存在时返回 null
+     */
+    public Long findCouponId(long serialNum) {
+        Long couponId = snapshot.find(serialNum);
+        if (couponId != null) {
+            return couponId;
+        }
+        // 未命中，可能是刚生成的兑换码，加载最新的区间后重试
+        if (System.currentTimeMillis() - lastLoadTime < MIN_RELOAD_INTERVAL_MILLIS) {
+            return null;
+        }
+        reload();
+        return snapshot.find(serialNum);
+    }
+
+    /**
+     * 区间发生变化后调用，递增版本号通知所有节点重新加载
+     */
+    public void publishChange() {
+        redisTemplate.opsForValue().increment(PromotionConstants.COUPON_RANGE_VERSION_KEY);
+        reload();
+    }
+
+    /**
+     * 定时检查版本号，变化时重新加载
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void refreshIfChanged() {
+        if (readVersion() != snapshot.version) {
+            reload();
+        }
+    }
+
+    private synchronized void reload() {
+        // 1. 先读取版本号再读取区间，读取期间发生的变化会在下一次检查时加载
+        long version = readVersion();
+        Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet()
+                .rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1);
+        // 2. zset按 score升序返回，直接转为有序数组
+        int size = tuples == null ? 0 : tuples.size();
+        long[] maxSerials = new long[size];
+        long[] couponIds = new long[size];
+        if (tuples != null) {
+            int i = 0;
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (tuple.getValue() == null || tuple.getScore() == null) {
+                    continue;
+                }
+                maxSerials[i] = tuple.getScore().longValue();
+                couponIds[i] = Long.parseLong(tuple.getValue());
+                i++;
+            }
+            size = i;
+        }
+        snapshot = new Snapshot(version, maxSerials, couponIds, size);
+        lastLoadTime = System.currentTimeMillis();
+        log.debug("加载兑换码区间索引，版本：{}，区间数量：{}", version, size);
+    }
+
+    private long readVersion() {
+        String version = redisTemplate.opsForValue().get(PromotionConstants.COUPON_RANGE_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final long[] maxSerials;
+        private final long[] couponIds;
+        private final int size;
+
+        Snapshot(long version, long[] maxSerials, long[] couponIds) {
+            this(version, maxSerials, couponIds, maxSerials.length);
+        }
+
+        Snapshot(long version, long[] maxSerials, long[] couponIds, int size) {
+            this.version = version;
+            this.maxSerials = maxSerials;
+            this.couponIds = couponIds;
+            this.size = size;
+        }
+
+        /**
+         * 二分查找第一个最大序列号不小于 serialNum的区间
+         */
+        Long find(long serialNum) {
+            int low = 0, high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (maxSerials[mid] < serialNum) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low < size ? couponIds[low] : null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.tianji.promotion.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.common.utils.StringUtils;
+import com.tianji.promotion.constants.PromotionConstants;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.enums.CouponStatus;
+import com.tianji.promotion.enums.ObtainType;
+import com.tianji.promotion.mapper.CouponMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 发放中且手动领取的优惠券目录快照，领券中心直接读取，不查询数据库
+ * <p>
+ * 1. 快照同时保存在本地和 Redis中，各节点定时从 Redis读取，Redis中不存在时由读取的节点查询数据库重建
+ * 2. 优惠券开始发放、暂停、结束的事务提交后删除 Redis中的快照并重建，其它节点在下一次刷新时读取到新快照
+ * 3. 服务启动时预热，避免第一次访问时查询数据库
+ * 4. 快照使用 Spring的 ObjectMapper序列化，与枚举上的 Jackson注解保持一致
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IssuingCouponCatalog {
+    /**
+     * Redis中快照的有效期，兜底没有通过 invalidate删除快照的变更
+     */
+    private static final Duration CATALOG_TTL = Duration.ofMinutes(1);
+    private static final TypeReference<List<Coupon>> COUPON_LIST_TYPE = new TypeReference<List<Coupon>>() {
+    };
+
+    private final CouponMapper couponMapper;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    private volatile List<Coupon> coupons = CollUtils.emptyList();
+
+    /**
+     * 查询发放中且手动领取的优惠券
+     */
+    public List<Coupon> getCoupons() {
+        return coupons;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("预热领券中心优惠券目录失败", e);
+        }
+    }
+
+    /**
+     * 定时从 Redis读取快照，不存在时重建
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void refresh() {
+        String json = redisTemplate.opsForValue().get(PromotionConstants.COUPON_CATALOG_KEY);
+        if (StringUtils.isBlank(json)) {
+            rebuild();
+            return;
+        }
+        try {
+            coupons = objectMapper.readValue(json, COUPON_LIST_TYPE);
+        } catch (JsonProcessingException e) {
+            // 快照格式不兼容(例如旧版本写入的快照)，直接重建
+            log.warn("领券中心优惠券目录快照解析失败，重新构建", e);
+            rebuild();
+        }
+    }
+
+    /**
+     * 优惠券发放状态变化后调用，事务提交后再删除旧快照并重建，避免重建时读到未提交的状态
+     */
+    public void invalidate() {
+        TransactionUtils.afterCommit(() -> {
+            redisTemplate.delete(PromotionConstants.COUPON_CATALOG_KEY);
+            rebuild();
+        });
+    }
+
+    private void rebuild() {
+        // 1. 查询发放中且手动领取的优惠券，只查询领券中心需要的字段，按 id排序保证分页稳定
+        List<Coupon> list = couponMapper.selectList(Wrappers.<Coupon>lambdaQuery()
+                .select(Coupon::getId, Coupon::getName, Coupon::getSpecific, Coupon::getDiscountType,
+                        Coupon::getThresholdAmount, Coupon::getDiscountValue, Coupon::getMaxDiscountAmount,
+                        Coupon::getTermDays, Coupon::getTermEndTime, Coupon::getUserLimit)
+                .eq(Coupon::getStatus, CouponStatus.ISSUING)
+                .eq(Coupon::getObtainWay, ObtainType.PUBLIC)
+                .orderByDesc(Coupon::getId));
+        coupons = list;
+        // 2. 写入 Redis，供其它节点读取
+        try {
+            redisTemplate.opsForValue().set(PromotionConstants.COUPON_CATALOG_KEY, objectMapper.writeValueAsString(list), CATALOG_TTL);
+        } catch (JsonProcessingException e) {
+            log.error("领券中心优惠券目录序列化失败", e);
+        }
+        log.debug("重建领券中心优惠券目录，优惠券数量：{}", list.size());
+    }
+}
@@ -0,0 +1,30 @@
+package com.tianji.promotion.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 事务相关的工具类
+ */
+public class TransactionUtils {
+
+    private TransactionUtils() {
+    }
+
+    /**
+     * 当前事务提交成功后再执行任务，事务回滚时不执行，没有事务时立即执行
+     * 用于失效缓存、归还 Redis库存等不能随事务回滚的操作，避免其它线程在事务提交前读到旧数据并重新写入缓存
+     */
+    public static void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,29 @@
+-- 用户批量兑换优惠券，按顺序校验每个兑换码是否已兑换以及每人限领数量，通过后标记兑换码并增加用户领取数量
+-- KEYS[1]：兑换码是否已兑换的 bitmap，coupon:code:map
+-- KEYS[2...]：各优惠券的用户领取数量缓存，prs:user:coupon:{couponId}
+-- ARGV[1]：用户id，之后每 3个参数对应一个兑换码：序列号、领取数量缓存在 KEYS中的下标、每人限领数量
+-- 返回值：与兑换码一一对应，大于 0表示兑换成功，值为用户对该优惠券的领取数量，-1-已被兑换，-2-超过领取数量
+
+local userId = ARGV[1]
+local results = {}
+local n = (#ARGV - 1) / 3
+for i = 1, n do
+    local serial = tonumber(ARGV[3 * i - 1])
+    local key = KEYS[tonumber(ARGV[3 * i])]
+    local limit = tonumber(ARGV[3 * i + 1])
+    -- 1. 校验是否已经兑换，同一请求中重复的兑换码也会在这里拦截
+    if redis.call('GETBIT', KEYS[1], serial) == 1 then
+        results[i] = -1
+    else
+        -- 2. 校验限领数量
+        local count = tonumber(redis.call('HGET', key, userId) or '0')
+        if count >= limit then
+            results[i] = -2
+        else
+            -- 3. 标记兑换码，增加领取数量
+            redis.call('SETBIT', KEYS[1], serial, 1)
+            results[i] = redis.call('HINCRBY', key, userId, 1)
+        end
+    end
+end
+return results
@@ -0,0 +1,32 @@
+-- 用户领取优惠券，校验发放时间、库存和每人限领数量，通过后扣减库存并增加用户领取数量
+-- KEYS[1]：优惠券缓存，prs:coupon:{couponId}
+-- KEYS[2]：用户领取数量缓存，prs:user:coupon:{couponId}
+-- ARGV[1]：用户id，ARGV[2]：当前时间戳，单位毫秒
+-- 返回值：大于 0表示领取成功，值为用户对该优惠券的领取数量，-1-优惠券不存在，-2-发放结束或尚未开始，-3-库存不足，-4-超过领取数量
+
+-- 1. 查询优惠券
+local coupon = redis.call('HMGET', KEYS[1], 'issueBeginTime', 'issueEndTime', 'totalNum', 'userLimit')
+if not coupon[1] or not coupon[2] or not coupon[3] or not coupon[4] then
+    return -1
+end
+
+-- 2. 校验发放时间
+local now = tonumber(ARGV[2])
+if now < tonumber(coupon[1]) or now > tonumber(coupon[2]) then
+    return -2
+end
+
+-- 3. 校验库存，缓存中的 totalNum为剩余库存
+if tonumber(coupon[3]) <= 0 then
+    return -3
+end
+
+-- 4. 校验限领数量
+local count = tonumber(redis.call('HGET', KEYS[2], ARGV[1]) or '0')
+if count >= tonumber(coupon[4]) then
+    return -4
+end
+
+-- 5. 扣减库存，增加领取数量
+redis.call('HINCRBY', KEYS[1], 'totalNum', -1)
+return redis.call('HINCRBY', KEYS[2], ARGV[1], 1)
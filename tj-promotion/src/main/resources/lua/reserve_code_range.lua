@@ -0,0 +1,26 @@
+-- 为优惠券预留兑换码序列号区间并记录生成进度，已有进度时沿用原区间，用于中断后继续生成
+-- KEYS[1]：全局序列号，coupon:code:serial
+-- KEYS[2]：生成进度，coupon:code:progress:{couponId}
+-- KEYS[3]：生成中的优惠券集合，coupon:code:generating
+-- ARGV[1]：兑换码数量，ARGV[2]：优惠券id，ARGV[3]：当前时间戳，单位毫秒
+-- 返回值：区间的起始序列号，-1表示已经生成完毕
+
+-- 1. 已有进度，沿用原区间
+local begin = redis.call('HGET', KEYS[2], 'begin')
+if begin then
+    if redis.call('HGET', KEYS[2], 'finished') == '1' then
+        return -1
+    end
+    redis.call('HSET', KEYS[2], 'ts', ARGV[3])
+    return tonumber(begin)
+end
+
+-- 2. 一次 INCRBY预留整个区间
+local total = tonumber(ARGV[1])
+local max = redis.call('INCRBY', KEYS[1], total)
+begin = max - total + 1
+
+-- 3. 记录进度，加入生成中的集合
+redis.call('HSET', KEYS[2], 'begin', begin, 'end', max, 'total', total, 'done', 0, 'finished', 0, 'ts', ARGV[3])
+redis.call('SADD', KEYS[3], ARGV[2])
+return begin
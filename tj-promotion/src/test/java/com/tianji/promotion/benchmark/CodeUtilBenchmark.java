@@ -0,0 +1,85 @@
+package com.tianji.promotion.benchmark;
+
+import com.tianji.promotion.utils.CodeUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 兑换码生成与校验的吞吐量，单位为每秒处理的兑换码数量
+ * <p>
+ * 运行方式与 DiscountSolverBenchmark相同，单核与全部核心分别运行：
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main CodeUtilBenchmark -t 1
+ * java -cp ... org.openjdk.jmh.Main CodeUtilBenchmark -t max
+ * </pre>
+ * 直接运行 main方法时依次运行这两组
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeUtilBenchmark {
+    private static final int CODE_COUNT = 1024;
+
+    /**
+     * 每个线程独立的序列号和缓冲区，与批量生成兑换码时一致
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final char[] buf = new char[10];
+        private final String[] codes = new String[CODE_COUNT];
+        private final char[][] codeChars = new char[CODE_COUNT][];
+        private long serialNum;
+        private int index;
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < CODE_COUNT; i++) {
+                codes[i] = CodeUtil.generateCode(1_000_000L + i * 7919L, i);
+                codeChars[i] = codes[i].toCharArray();
+            }
+        }
+
+        int nextIndex() {
+            index = (index + 1) & (CODE_COUNT - 1);
+            return index;
+        }
+    }
+
+    @Benchmark
+    public String generate(ThreadState state) {
+        return CodeUtil.generateCode(++state.serialNum, 5);
+    }
+
+    @Benchmark
+    public int generateIntoBuffer(ThreadState state) {
+        return CodeUtil.generateCode(++state.serialNum, 5, state.buf, 0);
+    }
+
+    @Benchmark
+    public long validate(ThreadState state) {
+        return CodeUtil.tryParseCode(state.codes[state.nextIndex()]);
+    }
+
+    @Benchmark
+    public long validateChars(ThreadState state) {
+        char[] chars = state.codeChars[state.nextIndex()];
+        return CodeUtil.tryParseCode(chars, 0, chars.length);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, Threads.MAX}) {
+            Options options = new OptionsBuilder()
+                    .include(CodeUtilBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.tianji.promotion.benchmark;
+
+import com.tianji.api.promotion.CouponDiscountDTO;
+import com.tianji.api.promotion.OrderCourseDTO;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.utils.DiscountFixtures;
+import com.tianji.promotion.utils.DiscountReference;
+import com.tianji.promotion.utils.DiscountSolver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原来的全排列求解与 DiscountSolver的对比，全排列在 8张券以上时耗时过长，因此只测试 1~8张券
+ * <p>
+ * 运行方式与 DiscountSolverBenchmark相同，把类名换成 DiscountComparisonBenchmark即可
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscountComparisonBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+    private int couponSize;
+
+    private List<OrderCourseDTO> courses;
+    private Map<Coupon, List<OrderCourseDTO>> availableCouponMap;
+
+    @Setup
+    public void setup() {
+        DiscountFixtures fixtures = DiscountFixtures.ofSize(6, couponSize);
+        courses = fixtures.getCourses();
+        availableCouponMap = fixtures.getAvailableCouponMap();
+    }
+
+    @Benchmark
+    public Set<String> permutation() {
+        return DiscountReference.solve(courses, availableCouponMap);
+    }
+
+    @Benchmark
+    public List<CouponDiscountDTO> solver() {
+        return new DiscountSolver(courses, availableCouponMap).solve();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DiscountComparisonBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,72 @@
+package com.tianji.promotion.benchmark;
+
+import com.tianji.api.promotion.CouponDiscountDTO;
+import com.tianji.api.promotion.OrderCourseDTO;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.utils.DiscountFixtures;
+import com.tianji.promotion.utils.DiscountSolver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 优惠方案求解的基准测试，优惠券数量 1~12张，课程数量固定为 6门，数据由固定随机种子生成
+ * <p>
+ * 运行方式：
+ * <pre>
+ * mvn -pl tj-promotion -am test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt -Dmdep.includeScope=test
+ * cd tj-promotion
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main DiscountSolverBenchmark -prof gc
+ * </pre>
+ * 也可以直接在 IDE中运行 main方法。9张券以上时会触及默认的节点预算，耗时不再随券数量指数增长
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscountSolverBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12"})
+    private int couponSize;
+
+    private List<OrderCourseDTO> courses;
+    private Map<Coupon, List<OrderCourseDTO>> availableCouponMap;
+    private List<Coupon> order;
+
+    @Setup
+    public void setup() {
+        DiscountFixtures fixtures = DiscountFixtures.ofSize(6, couponSize);
+        courses = fixtures.getCourses();
+        availableCouponMap = fixtures.getAvailableCouponMap();
+        order = new ArrayList<>(availableCouponMap.keySet());
+    }
+
+    @Benchmark
+    public List<CouponDiscountDTO> solve() {
+        return new DiscountSolver(courses, availableCouponMap).solve();
+    }
+
+    /**
+     * 按指定顺序计算优惠明细，即下单时的计算路径
+     */
+    @Benchmark
+    public CouponDiscountDTO calculate() {
+        return DiscountSolver.calculate(courses, availableCouponMap, order);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DiscountSolverBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,77 @@
+package com.tianji.promotion.service.impl;
+
+import com.tianji.api.cache.CategoryCache;
+import com.tianji.common.domain.dto.PageDTO;
+import com.tianji.common.domain.query.PageQuery;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.domain.vo.CouponVO;
+import com.tianji.promotion.service.ICouponScopeService;
+import com.tianji.promotion.service.IExchangeCodeService;
+import com.tianji.promotion.utils.CouponScopeIndex;
+import com.tianji.promotion.utils.IssuingCouponCatalog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CouponServiceImplTest {
+
+    private StringRedisTemplate redisTemplate;
+    private IssuingCouponCatalog catalog;
+    private CouponServiceImpl couponService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        catalog = mock(IssuingCouponCatalog.class);
+        couponService = new CouponServiceImpl(mock(ICouponScopeService.class), mock(IExchangeCodeService.class),
+                mock(CategoryCache.class), redisTemplate, mock(CouponScopeIndex.class), null, catalog);
+        List<Coupon> coupons = new ArrayList<>();
+        for (long id = 5; id >= 1; id--) {
+            coupons.add(new Coupon().setId(id).setName("券" + id).setUserLimit(1));
+        }
+        when(catalog.getCoupons()).thenReturn(coupons);
+        // 每个优惠券依次返回剩余库存和用户领取数量：库存 10，未领取
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            List<Object> values = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                values.add("10");
+                values.add(null);
+            }
+            return values;
+        });
+    }
+
+    @Test
+    void testPageSlicesSnapshot() {
+        PageDTO<CouponVO> page = couponService.queryIssuingCouponPage(new PageQuery().setPageNo(2).setPageSize(2));
+
+        assertEquals(5L, page.getTotal());
+        assertEquals(3L, page.getPages());
+        assertEquals(Arrays.asList(3L, 2L), page.getList().stream().map(CouponVO::getId).collect(Collectors.toList()));
+        assertTrue(page.getList().get(0).getAvailable());
+        assertFalse(page.getList().get(0).getReceived());
+    }
+
+    @Test
+    void testLastAndOutOfRangePage() {
+        PageDTO<CouponVO> last = couponService.queryIssuingCouponPage(new PageQuery().setPageNo(3).setPageSize(2));
+        assertEquals(List.of(1L), last.getList().stream().map(CouponVO::getId).collect(Collectors.toList()));
+
+        PageDTO<CouponVO> empty = couponService.queryIssuingCouponPage(new PageQuery().setPageNo(4).setPageSize(2));
+        assertEquals(5L, empty.getTotal());
+        assertTrue(empty.getList().isEmpty());
+        // 超出范围的页不访问 Redis
+        verify(redisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+    }
+}
@@ -0,0 +1,245 @@
+package com.tianji.promotion.utils;
+
+import com.tianji.common.constants.RegexConstants;
+import com.tianji.common.exceptions.BadRequestException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 兑换码生成与解析的结果必须与优化前完全一致，否则已经发出的兑换码将无法兑换
+ */
+class CodeUtilTest {
+
+    private static final String CODE_CHARS = "23456789ABCDEFGHJKLMNPQRSTUVWXYZ";
+    // 包含不合法字符，用于校验格式检查
+    private static final String ANY_CHARS = CODE_CHARS + "01IOa-";
+
+    /**
+     * 优化前的实现生成的兑换码：序列号、新鲜值、兑换码
+     */
+    private static final Object[][] GOLDEN = {
+            {0L, 0L, "LSMWGCYC"},
+            {1L, 0L, "SQ283249C"},
+            {1L, 15L, "JQNSFBZ2DP"},
+            {1000L, 3L, "MQJFTHE3D5"},
+            {123456L, 7L, "LS6H32DKSE"},
+            {4294967295L, 15L, "F4FSAP8SL8"},
+            {2147483648L, 9L, "BM2832W8XW"},
+            {99999999L, 12L, "6T63TEZT84"},
+    };
+
+    @Test
+    void testGoldenValues() {
+        char[] chars = new char[10];
+        byte[] bytes = new byte[10];
+        for (Object[] golden : GOLDEN) {
+            long serialNum = (long) golden[0], fresh = (long) golden[1];
+            String code = (String) golden[2];
+            assertEquals(code, CodeUtil.generateCode(serialNum, fresh));
+            int len = CodeUtil.generateCode(serialNum, fresh, chars, 0);
+            assertEquals(code, new String(chars, 0, len));
+            len = CodeUtil.generateCode(serialNum, fresh, bytes, 0);
+            assertEquals(code, new String(bytes, 0, len, StandardCharsets.US_ASCII));
+            assertEquals(serialNum, CodeUtil.parseCode(code));
+            assertEquals(serialNum, CodeUtil.tryParseCode(code.toCharArray(), 0, code.length()));
+        }
+    }
+
+    @Test
+    void testGenerateMatchesLegacy() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200_000; i++) {
+            long serialNum = random.nextInt() & 0xFFFFFFFFL;
+            long fresh = random.nextLong();
+            String code = LegacyCodeUtil.generateCode(serialNum, fresh);
+            assertEquals(code, CodeUtil.generateCode(serialNum, fresh));
+            // 明文高位为 0时编码不足 8位，原实现同样无法解析，这里只要求与原实现一致
+            assertEquals(legacyParse(code), CodeUtil.tryParseCode(code), code);
+        }
+    }
+
+    @Test
+    void testParseMatchesLegacy() {
+        Random random = new Random(2);
+        for (int i = 0; i < 200_000; i++) {
+            String code;
+            if (i % 2 == 0) {
+                // 合法兑换码改动一个字符
+                char[] chars = LegacyCodeUtil.generateCode(random.nextInt() & 0xFFFFFFFFL, random.nextInt(16)).toCharArray();
+                chars[random.nextInt(chars.length)] = ANY_CHARS.charAt(random.nextInt(ANY_CHARS.length()));
+                code = new String(chars);
+            } else {
+                // 随机字符串，长度 6~11
+                StringBuilder sb = new StringBuilder();
+                int len = 6 + random.nextInt(6);
+                String chars = i % 3 == 0 ? ANY_CHARS : CODE_CHARS;
+                for (int j = 0; j < len; j++) {
+                    sb.append(chars.charAt(random.nextInt(chars.length())));
+                }
+                code = sb.toString();
+            }
+            assertEquals(legacyParse(code), CodeUtil.tryParseCode(code), code);
+        }
+        assertEquals(-1, CodeUtil.tryParseCode(null));
+        assertThrows(BadRequestException.class, () -> CodeUtil.parseCode(null));
+        assertThrows(BadRequestException.class, () -> CodeUtil.parseCode("LSMWGCYD"));
+    }
+
+    /**
+     * 优化前的解析结果，不合法时返回 -1
+     */
+    private static long legacyParse(String code) {
+        try {
+            return LegacyCodeUtil.parseCode(code);
+        } catch (BadRequestException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 优化前的 CodeUtil，原样保留作为对照，只去掉了调试输出
+     */
+    private static class LegacyCodeUtil {
+        /**
+         * 异或密钥表，用于最后的数据混淆
+         */
+        private static final long[] XOR_TABLE = {
+                61261925471L, 61261925523L, 58169127203L, 64169927267L,
+                64169927199L, 61261925629L, 58169127227L, 64169927363L,
+                59169127063L, 64169927359L, 58169127291L, 61261925739L,
+                59169127133L, 55139281911L, 56169127077L, 59169127167L
+        };
+        /**
+         * fresh值的偏移位数
+         */
+        private static final int FRESH_BIT_OFFSET = 32;
+        /**
+         * 校验码的偏移位数
+         */
+        private static final int CHECK_CODE_BIT_OFFSET = 36;
+        /**
+         * fresh值的掩码，4位
+         */
+        private static final int FRESH_MASK = 0xF;
+        /**
+         * 验证码的掩码，14位
+         */
+        private static final int CHECK_CODE_MASK = 0b11111111111111;
+        /**
+         * 载荷的掩码，36位
+         */
+        private static final long PAYLOAD_MASK = 0xFFFFFFFFFL;
+        /**
+         * 序列号掩码，32位
+         */
+        private static final long SERIAL_NUM_MASK = 0xFFFFFFFFL;
+        /**
+         * 序列号加权运算的秘钥表
+         */
+        private static final int[][] PRIME_TABLE = {
+                {23, 59, 241, 61, 607, 67, 977, 1217, 1289, 1601},
+                {79, 83, 107, 439, 313, 619, 911, 1049, 1237},
+                {173, 211, 499, 673, 823, 941, 1039, 1213, 1429, 1259},
+                {31, 293, 311, 349, 431, 577, 757, 883, 1009, 1657},
+                {353, 23, 367, 499, 599, 661, 719, 929, 1301, 1511},
+                {103, 179, 353, 467, 577, 691, 811, 947, 1153, 1453},
+                {213, 439, 257, 313, 571, 619, 743, 829, 983, 1103},
+                {31, 151, 241, 349, 607, 677, 769, 823, 967, 1049},
+                {61, 83, 109, 137, 151, 521, 701, 827, 1123},
+                {23, 61, 199, 223, 479, 647, 739, 811, 947, 1019},
+                {31, 109, 311, 467, 613, 743, 821, 881, 1031, 1171},
+                {41, 173, 367, 401, 569, 683, 761, 883, 1009, 1181},
+                {127, 283, 467, 577, 661, 773, 881, 967, 1097, 1289},
+                {59, 137, 257, 347, 439, 547, 641, 839, 977, 1009},
+                {61, 199, 313, 421, 613, 739, 827, 941, 1087, 1307},
+                {19, 127, 241, 353, 499, 607, 811, 919, 1031, 1301}
+        };
+
+        /**
+         * 生成兑换码
+         *
+         * @param serialNum 递增序列号
+         * @return 兑换码
+         */
+        static String generateCode(long serialNum, long fresh) {
+            // 1.计算新鲜值，取后四位
+            fresh = fresh & FRESH_MASK;
+            // 2.拼接payload，fresh（4位） + serialNum（32位）
+            long payload = fresh << FRESH_BIT_OFFSET | serialNum;
+            // 3.计算校验码(14位)
+            long checkCode = calcCheckCode(payload, (int) fresh);
+            // 4.payload做大质数异或运算，混淆数据
+            payload ^= XOR_TABLE[(int) (checkCode & FRESH_MASK)];
+            // 5.拼接兑换码明文: 校验码（14位） + payload（36位）
+            long code = checkCode << CHECK_CODE_BIT_OFFSET | payload;
+            // 6.转码
+            return LegacyBase32.encode(code);
+        }
+
+        private static long calcCheckCode(long payload, int fresh) {
+            // 1.获取码表
+            int[] table = PRIME_TABLE[fresh];
+            // 2.生成校验码，payload每4位乘加权数，求和，取最后13位结果
+            long sum = 0;
+            int index = 0;
+            while (payload > 0) {
+                sum += (payload & 0xf) * table[index++];// 加权
+                payload >>>= 4;
+            }
+            return sum & CHECK_CODE_MASK;
+        }
+
+        static long parseCode(String code) {
+            if (code == null || !code.matches(RegexConstants.COUPON_CODE_PATTERN)) {
+                // 兑换码格式错误
+                throw new BadRequestException("无效兑换码");
+            }
+            // 1.Base32解码
+            long num = LegacyBase32.decode(code);
+            // 2.获取低36位，payload
+            long payload = num & PAYLOAD_MASK;
+            // 3.获取高14位，校验码
+            int checkCode = (int) (num >>> CHECK_CODE_BIT_OFFSET);
+            // 4.载荷异或大质数，解析出原来的payload
+            payload ^= XOR_TABLE[(checkCode & FRESH_MASK)];
+            // 5.获取高4位，fresh
+            int fresh = (int) (payload >>> FRESH_BIT_OFFSET & FRESH_MASK);
+            // 6.验证格式：
+            if (calcCheckCode(payload, fresh) != checkCode) {
+                throw new BadRequestException("无效兑换码");
+            }
+            return payload & SERIAL_NUM_MASK;
+        }
+    }
+
+    /**
+     * 优化前的 Base32，只保留兑换码用到的 long编解码，StrBuilder换成 StringBuilder
+     */
+    private static class LegacyBase32 {
+        private static final String baseChars = "6CSB7H8DAKXZF3N95RTMVUQG2YE4JWPL";
+
+        static String encode(long raw) {
+            StringBuilder sb = new StringBuilder();
+            while (raw != 0) {
+                int i = (int) (raw & 0b11111);
+                sb.append(baseChars.charAt(i));
+                raw = raw >>> 5;
+            }
+            return sb.toString();
+        }
+
+        static long decode(String code) {
+            long r = 0;
+            char[] chars = code.toCharArray();
+            for (int i = chars.length - 1; i >= 0; i--) {
+                long n = baseChars.indexOf(chars[i]);
+                r = r | (n << (5*i));
+            }
+            return r;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.tianji.promotion.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tianji.promotion.domain.pojo.CouponScope;
+import com.tianji.promotion.service.ICouponScopeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CouponScopeIndexTest {
+
+    private Cache<Long, long[]> cache;
+    private ICouponScopeService couponScopeService;
+    private CouponScopeIndex index;
+
+    @BeforeEach
+    void setUp() {
+        cache = Caffeine.newBuilder().build();
+        couponScopeService = mock(ICouponScopeService.class);
+        index = new CouponScopeIndex(cache, couponScopeService);
+    }
+
+    @Test
+    void testLoadMissesInOneQueryAndCache() {
+        when(couponScopeService.queryByCouponIds(any())).thenReturn(Arrays.asList(scope(1L, 30L), scope(1L, 10L), scope(1L, 20L)));
+
+        Map<Long, long[]> scopes = index.getScopes(Arrays.asList(1L, 2L));
+
+        // 分类 id排好序，没有限定范围的优惠券为空数组
+        assertArrayEquals(new long[]{10L, 20L, 30L}, scopes.get(1L));
+        assertArrayEquals(new long[0], scopes.get(2L));
+        assertTrue(CouponScopeIndex.contains(scopes.get(1L), 20L));
+        assertFalse(CouponScopeIndex.contains(scopes.get(1L), 15L));
+        assertFalse(CouponScopeIndex.contains(scopes.get(1L), null));
+
+        // 再次查询命中缓存，不再查询数据库
+        Map<Long, long[]> cached = index.getScopes(Arrays.asList(1L, 2L));
+        assertSame(scopes.get(1L), cached.get(1L));
+        verify(couponScopeService, times(1)).queryByCouponIds(any());
+    }
+
+    @Test
+    void testInvalidateReloads() {
+        when(couponScopeService.queryByCouponIds(any())).thenReturn(Collections.singletonList(scope(1L, 10L)));
+        index.getScopes(Collections.singletonList(1L));
+
+        index.invalidate(1L);
+        when(couponScopeService.queryByCouponIds(any())).thenReturn(Collections.singletonList(scope(1L, 40L)));
+
+        assertArrayEquals(new long[]{40L}, index.getScopes(Collections.singletonList(1L)).get(1L));
+        verify(couponScopeService, times(2)).queryByCouponIds(any());
+    }
+
+    @Test
+    void testInvalidateDuringLoadSkipsCache() {
+        // 加载期间优惠券被修改，本次结果可以返回，但不能写入缓存
+        when(couponScopeService.queryByCouponIds(any())).thenAnswer(invocation -> {
+            index.invalidate(1L);
+            return Collections.singletonList(scope(1L, 10L));
+        });
+
+        assertArrayEquals(new long[]{10L}, index.getScopes(Collections.singletonList(1L)).get(1L));
+        assertNull(cache.getIfPresent(1L));
+    }
+
+    @Test
+    void testEmptyIds() {
+        assertTrue(index.getScopes(Collections.emptyList()).isEmpty());
+        verifyNoInteractions(couponScopeService);
+    }
+
+    private static CouponScope scope(Long couponId, Long bizId) {
+        return new CouponScope().setCouponId(couponId).setBizId(bizId);
+    }
+}
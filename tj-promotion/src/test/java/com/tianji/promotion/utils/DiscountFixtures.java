@@ -0,0 +1,100 @@
+package com.tianji.promotion.utils;
+
+import com.tianji.api.promotion.OrderCourseDTO;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.enums.DiscountType;
+import com.tianji.promotion.strategy.discount.DiscountStrategy;
+
+import java.util.*;
+
+/**
+ * 随机生成订单课程和优惠券，供优惠方案的单元测试和基准测试使用，固定随机种子保证结果可复现
+ */
+public class DiscountFixtures {
+    private static final DiscountType[] TYPES = DiscountType.values();
+
+    private final List<OrderCourseDTO> courses = new ArrayList<>();
+    private final Map<Coupon, List<OrderCourseDTO>> availableCouponMap = new LinkedHashMap<>();
+
+    /**
+     * @param seed 随机种子
+     * @param courseSize 课程数量
+     * @param couponSize 优惠券数量，不可用的券会被跳过，实际数量可能更少
+     */
+    public DiscountFixtures(long seed, int courseSize, int couponSize) {
+        Random random = new Random(seed);
+        for (int i = 0; i < courseSize; i++) {
+            OrderCourseDTO course = new OrderCourseDTO();
+            course.setId(100L + i);
+            course.setCateId((long) random.nextInt(3));
+            course.setPrice(5_000 + random.nextInt(50_000));
+            courses.add(course);
+        }
+        for (int i = 0; i < couponSize; i++) {
+            Coupon coupon = randomCoupon(random, i + 1L);
+            // 每张券随机覆盖一部分课程，保证券之间有重叠
+            List<OrderCourseDTO> available = new ArrayList<>();
+            for (OrderCourseDTO course : courses) {
+                if (random.nextInt(4) != 0) {
+                    available.add(course);
+                }
+            }
+            if (available.isEmpty()) {
+                available.add(courses.get(0));
+            }
+            int total = available.stream().mapToInt(OrderCourseDTO::getPrice).sum();
+            if (DiscountStrategy.getDiscount(coupon.getDiscountType()).canUse(total, coupon)) {
+                availableCouponMap.put(coupon, available);
+            }
+        }
+    }
+
+    /**
+     * 从种子 0开始依次尝试，返回可用券数量恰好为 couponSize的数据，保证基准测试每组参数的券数量准确
+     */
+    public static DiscountFixtures ofSize(int courseSize, int couponSize) {
+        for (long seed = 0; ; seed++) {
+            DiscountFixtures fixtures = new DiscountFixtures(seed, courseSize, couponSize);
+            if (fixtures.availableCouponMap.size() == couponSize) {
+                return fixtures;
+            }
+        }
+    }
+
+    private static Coupon randomCoupon(Random random, long id) {
+        Coupon coupon = new Coupon();
+        coupon.setId(id);
+        coupon.setCreater(id);// 方案中的 id为用户券 id，即 creater
+        coupon.setDiscountType(TYPES[random.nextInt(TYPES.length)]);
+        switch (coupon.getDiscountType()) {
+            case NO_THRESHOLD:
+                coupon.setDiscountValue(500 + random.nextInt(5_000));
+                coupon.setThresholdAmount(0);
+                coupon.setMaxDiscountAmount(0);
+                break;
+            case PER_PRICE_DISCOUNT:
+                coupon.setThresholdAmount(10_000 + random.nextInt(20_000));
+                coupon.setDiscountValue(1_000 + random.nextInt(3_000));
+                coupon.setMaxDiscountAmount(5_000 + random.nextInt(20_000));
+                break;
+            case RATE_DISCOUNT:
+                coupon.setThresholdAmount(random.nextInt(60_000));
+                coupon.setDiscountValue(50 + random.nextInt(45));
+                coupon.setMaxDiscountAmount(3_000 + random.nextInt(30_000));
+                break;
+            default:
+                coupon.setThresholdAmount(random.nextInt(80_000));
+                coupon.setDiscountValue(1_000 + random.nextInt(8_000));
+                coupon.setMaxDiscountAmount(0);
+        }
+        return coupon;
+    }
+
+    public List<OrderCourseDTO> getCourses() {
+        return courses;
+    }
+
+    public Map<Coupon, List<OrderCourseDTO>> getAvailableCouponMap() {
+        return availableCouponMap;
+    }
+}
@@ -0,0 +1,91 @@
+package com.tianji.promotion.utils;
+
+import com.tianji.api.promotion.OrderCourseDTO;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.strategy.discount.Discount;
+import com.tianji.promotion.strategy.discount.DiscountStrategy;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 原来的全排列求解方式，作为 DiscountSolver的对照：单元测试中校验结果，基准测试中比较耗时
+ * <p>
+ * 结果为 "排序后的用户券 id=优惠金额" 的集合
+ */
+public class DiscountReference {
+
+    /**
+     * 暴力枚举所有优惠券子集的所有顺序，每种用券组合取优惠金额最高的顺序，
+     * 相同优惠金额只保留用券最少的组合，单张券的方案全部保留
+     */
+    public static Set<String> solve(List<OrderCourseDTO> courses, Map<Coupon, List<OrderCourseDTO>> availableCouponMap) {
+        List<Coupon> coupons = new ArrayList<>(availableCouponMap.keySet());
+        Map<String, Integer> best = new HashMap<>();
+        permute(coupons, new ArrayList<>(), new boolean[coupons.size()], courses, availableCouponMap, best);
+        Map<Integer, Integer> minCount = new HashMap<>();
+        best.forEach((ids, amount) -> minCount.merge(amount, ids.split(",").length, Math::min));
+        Set<String> keys = new HashSet<>();
+        best.forEach((ids, amount) -> {
+            int count = ids.split(",").length;
+            if (count == 1 || count == minCount.get(amount)) {
+                keys.add(ids + "=" + amount);
+            }
+        });
+        return keys;
+    }
+
+    private static void permute(List<Coupon> coupons, List<Coupon> order, boolean[] used, List<OrderCourseDTO> courses,
+                                Map<Coupon, List<OrderCourseDTO>> availableCouponMap, Map<String, Integer> best) {
+        if (!order.isEmpty()) {
+            apply(order, courses, availableCouponMap, best);
+        }
+        for (int i = 0; i < coupons.size(); i++) {
+            if (used[i]) {
+                continue;
+            }
+            used[i] = true;
+            order.add(coupons.get(i));
+            permute(coupons, order, used, courses, availableCouponMap, best);
+            order.remove(order.size() - 1);
+            used[i] = false;
+        }
+    }
+
+    /**
+     * 按顺序使用优惠券，使用策略类计算优惠金额，不可用的券跳过
+     */
+    private static void apply(List<Coupon> order, List<OrderCourseDTO> courses,
+                              Map<Coupon, List<OrderCourseDTO>> availableCouponMap, Map<String, Integer> best) {
+        Map<Long, Integer> remaining = new HashMap<>();
+        for (OrderCourseDTO course : courses) {
+            remaining.put(course.getId(), course.getPrice());
+        }
+        List<Long> ids = new ArrayList<>();
+        int amount = 0;
+        for (Coupon coupon : order) {
+            List<OrderCourseDTO> available = availableCouponMap.get(coupon);
+            int total = available.stream().mapToInt(c -> remaining.get(c.getId())).sum();
+            Discount discount = DiscountStrategy.getDiscount(coupon.getDiscountType());
+            if (!discount.canUse(total, coupon)) {
+                continue;
+            }
+            int discountAmount = discount.calculateDiscount(total, coupon);
+            int remainDiscount = discountAmount;
+            for (int j = 0; j < available.size(); j++) {
+                Long id = available.get(j).getId();
+                int d = j == available.size() - 1 ? remainDiscount : (int) ((long) remaining.get(id) * discountAmount / total);
+                remainDiscount -= d;
+                remaining.put(id, Math.max(remaining.get(id) - d, 0));
+            }
+            ids.add(coupon.getCreater());
+            amount += discountAmount;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        String key = ids.stream().sorted().map(String::valueOf).collect(Collectors.joining(","));
+        best.merge(key, amount, Math::max);
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.tianji.promotion.utils;
+
+import com.tianji.api.promotion.CouponDiscountDTO;
+import com.tianji.api.promotion.OrderCourseDTO;
+import com.tianji.common.exceptions.BadRequestException;
+import com.tianji.promotion.domain.pojo.Coupon;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscountSolverTest {
+
+    /**
+     * 与暴力枚举所有用券顺序的结果比较
+     */
+    @Test
+    void testSolveMatchesBruteForce() {
+        for (long seed = 0; seed < 300; seed++) {
+            DiscountFixtures fixtures = new DiscountFixtures(seed, 1 + (int) (seed % 5), 1 + (int) (seed % 7));
+            if (fixtures.getAvailableCouponMap().isEmpty()) {
+                continue;
+            }
+            DiscountSolver solver = new DiscountSolver(fixtures.getCourses(), fixtures.getAvailableCouponMap());
+            List<CouponDiscountDTO> solutions = solver.solve();
+            assertFalse(solver.isExhausted(), "seed " + seed);
+            assertEquals(DiscountReference.solve(fixtures.getCourses(), fixtures.getAvailableCouponMap()), keysOf(solutions), "seed " + seed);
+            // 按优惠金额降序，优惠明细之和等于优惠金额
+            for (int i = 0; i < solutions.size(); i++) {
+                CouponDiscountDTO dto = solutions.get(i);
+                if (i > 0) {
+                    assertTrue(solutions.get(i - 1).getDiscountAmount() >= dto.getDiscountAmount());
+                }
+                int detail = dto.getDiscountDetail().values().stream().mapToInt(Integer::intValue).sum();
+                assertEquals(dto.getDiscountAmount(), detail, "seed " + seed);
+            }
+        }
+    }
+
+    /**
+     * 预算耗尽时提前结束，结果中仍然包含所有单张券的方案
+     */
+    @Test
+    void testBudgetKeepsSingleCouponPlans() {
+        DiscountFixtures fixtures = new DiscountFixtures(42, 6, 12);
+        Map<Coupon, List<OrderCourseDTO>> availableCouponMap = fixtures.getAvailableCouponMap();
+        DiscountSolver solver = new DiscountSolver(fixtures.getCourses(), availableCouponMap, 10, 1000);
+        List<CouponDiscountDTO> solutions = solver.solve();
+        assertTrue(solver.isExhausted());
+        Set<Long> singles = solutions.stream()
+                .filter(dto -> dto.getIds().size() == 1)
+                .map(dto -> dto.getIds().get(0))
+                .collect(Collectors.toSet());
+        Set<Long> expected = availableCouponMap.keySet().stream().map(Coupon::getCreater).collect(Collectors.toSet());
+        assertEquals(expected, singles);
+    }
+
+    /**
+     * 按指定顺序计算时，优惠券数量超出上限直接拒绝，而不是忽略多出的券
+     */
+    @Test
+    void testCalculateRejectsTooManyCoupons() {
+        DiscountFixtures fixtures = new DiscountFixtures(7, 3, 3);
+        Map<Coupon, List<OrderCourseDTO>> availableCouponMap = new HashMap<>(fixtures.getAvailableCouponMap());
+        Coupon template = availableCouponMap.keySet().iterator().next();
+        List<OrderCourseDTO> courses = availableCouponMap.get(template);
+        List<Coupon> order = new ArrayList<>();
+        for (long id = 1000; id < 1000 + DiscountSolver.MAX_COUPONS + 1; id++) {
+            Coupon coupon = new Coupon();
+            coupon.setId(id);
+            coupon.setCreater(id);
+            coupon.setDiscountType(template.getDiscountType());
+            coupon.setDiscountValue(template.getDiscountValue());
+            coupon.setThresholdAmount(template.getThresholdAmount());
+            coupon.setMaxDiscountAmount(template.getMaxDiscountAmount());
+            availableCouponMap.put(coupon, courses);
+            order.add(coupon);
+        }
+        assertThrows(BadRequestException.class,
+                () -> DiscountSolver.calculate(fixtures.getCourses(), availableCouponMap, order));
+        assertNotNull(DiscountSolver.calculate(fixtures.getCourses(), availableCouponMap,
+                order.subList(0, DiscountSolver.MAX_COUPONS)));
+    }
+
+    private static Set<String> keysOf(List<CouponDiscountDTO> solutions) {
+        return solutions.stream()
+                .map(dto -> dto.getIds().stream().sorted().map(String::valueOf).collect(Collectors.joining(","))
+                        + "=" + dto.getDiscountAmount())
+                .collect(Collectors.toSet());
+    }
+}
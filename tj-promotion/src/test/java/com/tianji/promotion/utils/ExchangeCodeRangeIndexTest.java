@@ -0,0 +1,100 @@
+package com.tianji.promotion.utils;
+
+import com.tianji.promotion.constants.PromotionConstants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ExchangeCodeRangeIndexTest {
+
+    private ValueOperations<String, String> valueOps;
+    private ZSetOperations<String, String> zSetOps;
+    private ExchangeCodeRangeIndex index;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        zSetOps = mock(ZSetOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOps);
+        when(valueOps.get(PromotionConstants.COUPON_RANGE_VERSION_KEY)).thenReturn("1");
+        // 优惠券 1: 序列号 1~100，优惠券 2: 101~250，优惠券 3: 251~300
+        mockRanges(range(1L, 100), range(2L, 250), range(3L, 300));
+        index = new ExchangeCodeRangeIndex(redisTemplate);
+    }
+
+    @Test
+    void testFindCouponIdByRange() {
+        assertEquals(1L, index.findCouponId(1));
+        assertEquals(1L, index.findCouponId(100));
+        assertEquals(2L, index.findCouponId(101));
+        assertEquals(2L, index.findCouponId(250));
+        assertEquals(3L, index.findCouponId(251));
+        assertEquals(3L, index.findCouponId(300));
+        // 第一次未命中时已经加载过，只读取一次区间
+        verify(zSetOps, times(1)).rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1);
+    }
+
+    @Test
+    void testMissReloadsAtMostOncePerInterval() {
+        assertEquals(1L, index.findCouponId(1));
+        // 超出所有区间，刚加载过，不再重复加载
+        assertNull(index.findCouponId(301));
+        assertNull(index.findCouponId(302));
+        verify(zSetOps, times(1)).rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1);
+    }
+
+    @Test
+    void testRefreshOnlyWhenVersionChanged() {
+        index.refreshIfChanged();
+        index.refreshIfChanged();
+        verify(zSetOps, times(1)).rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1);
+
+        // 生成了新一批兑换码
+        mockRanges(range(1L, 100), range(2L, 250), range(3L, 300), range(4L, 400));
+        when(valueOps.get(PromotionConstants.COUPON_RANGE_VERSION_KEY)).thenReturn("2");
+        index.refreshIfChanged();
+
+        verify(zSetOps, times(2)).rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1);
+        assertEquals(4L, index.findCouponId(350));
+    }
+
+    @Test
+    void testPublishChangeIncrementsVersionAndReloads() {
+        index.publishChange();
+
+        verify(valueOps).increment(PromotionConstants.COUPON_RANGE_VERSION_KEY);
+        verify(zSetOps, times(1)).rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1);
+        assertEquals(2L, index.findCouponId(200));
+    }
+
+    @Test
+    void testEmptyRanges() {
+        when(zSetOps.rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1)).thenReturn(null);
+        assertNull(index.findCouponId(1));
+    }
+
+    @SafeVarargs
+    private void mockRanges(ZSetOperations.TypedTuple<String>... ranges) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = new LinkedHashSet<>();
+        for (ZSetOperations.TypedTuple<String> range : ranges) {
+            tuples.add(range);
+        }
+        when(zSetOps.rangeWithScores(PromotionConstants.COUPON_RANGE_KEY, 0, -1)).thenReturn(tuples);
+    }
+
+    private static ZSetOperations.TypedTuple<String> range(Long couponId, long maxSerial) {
+        return new DefaultTypedTuple<>(couponId.toString(), (double) maxSerial);
+    }
+}
@@ -0,0 +1,80 @@
+package com.tianji.promotion.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tianji.common.autoconfigure.mvc.JsonConfig;
+import com.tianji.promotion.constants.PromotionConstants;
+import com.tianji.promotion.domain.pojo.Coupon;
+import com.tianji.promotion.enums.DiscountType;
+import com.tianji.promotion.mapper.CouponMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class IssuingCouponCatalogTest {
+
+    private StringRedisTemplate redisTemplate;
+    private ValueOperations<String, String> valueOps;
+    private ObjectMapper objectMapper;
+    private IssuingCouponCatalog catalog;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        // 与服务中的 ObjectMapper配置一致
+        Jackson2ObjectMapperBuilder builder = new Jackson2ObjectMapperBuilder();
+        new JsonConfig().jackson2ObjectMapperBuilderCustomizer().customize(builder);
+        objectMapper = builder.build();
+        catalog = new IssuingCouponCatalog(mock(CouponMapper.class), redisTemplate, objectMapper);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void testRefreshReadsJacksonSnapshot() throws Exception {
+        List<Coupon> coupons = Arrays.asList(
+                new Coupon().setId(1L).setName("满100减10").setSpecific(false)
+                        .setDiscountType(DiscountType.PRICE_DISCOUNT).setThresholdAmount(10000)
+                        .setDiscountValue(1000).setMaxDiscountAmount(0).setTermDays(7).setUserLimit(1),
+                new Coupon().setId(2L).setName("8折").setSpecific(true)
+                        .setDiscountType(DiscountType.RATE_DISCOUNT).setThresholdAmount(0)
+                        .setDiscountValue(80).setMaxDiscountAmount(5000)
+                        .setTermEndTime(LocalDateTime.of(2026, 12, 31, 23, 59, 59)).setUserLimit(2));
+        when(valueOps.get(PromotionConstants.COUPON_CATALOG_KEY)).thenReturn(objectMapper.writeValueAsString(coupons));
+
+        catalog.refresh();
+
+        // 枚举按 @JsonValue读写，Long序列化为字符串后也能读回
+        assertEquals(coupons, catalog.getCoupons());
+    }
+
+    @Test
+    void testInvalidateWaitsForCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        catalog.invalidate();
+
+        // 事务提交前不删除快照，也不重建
+        verify(redisTemplate, never()).delete(anyString());
+        assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size());
+    }
+}
@@ -0,0 +1,59 @@
+package com.tianji.remark.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "tj.remark.likes")
+public class LikesProperties {
+    /**
+     * 点赞记录的存储方式，redis：每个业务一个用户 id的 Set，compact：每个业务按用户 id拆分为多个小 Set，
+     * 保持 intset编码，长时间没有点赞的业务写回数据库后淘汰，再次访问时从数据库加载
+     */
+    private String store = "redis";
+    /**
+     * compact存储方式下，单个点赞用户 Set的最大成员数量，不能超过 Redis的 set-max-intset-entries，保证 Set一直是 intset编码
+     * 业务的点赞用户 Set数量由点赞数决定，写满时数量翻倍
+     */
+    private int compactSliceEntries = 512;
+    /**
+     * compact存储方式下，每个业务的点赞用户 Set的最大数量，必须是 2的幂且不超过 65536
+     */
+    private int compactMaxSlices = 1024;
+    /**
+     * compact存储方式下，业务超过多少天没有点赞时写回数据库并从 Redis中淘汰
+     */
+    private int compactTtlDays = 7;
+    /**
+     * compact存储方式下，每个分片每次淘汰的业务数量
+     */
+    private int compactEvictBatchSize = 100;
+    /**
+     * 是否兼容旧版本的点赞 key：likes:set:biz:{bizId}和 likes:times:types:{bizType}
+     * 开启时点赞脚本把旧的点赞用户合并到新 key，刷新任务在启动后把旧的点赞数 ZSet发送一次
+     * 旧 key与新 key不在同一个 slot，Redis Cluster下需要先离线迁移旧 key，再关闭此选项
+     */
+    private boolean migrateLegacyKeys = true;
+    /**
+     * 并行刷新分片的线程数量
+     */
+    private int flushThreads = 4;
+    /**
+     * 单次从分片读取的最小数量，分片持续积压时批次大小翻倍
+     */
+    private int minBatchSize = 50;
+    /**
+     * 单次从分片读取的最大数量
+     */
+    private int maxBatchSize = 1000;
+    /**
+     * 单个分片每次刷新最多读取的轮数，避免单次任务执行时间过长
+     */
+    private int maxRounds = 50;
+    /**
+     * 分片刷新锁的超时时间，单位秒，保证同一时刻只有一个节点刷新同一个分片
+     */
+    private int flushLockSeconds = 30;
+}
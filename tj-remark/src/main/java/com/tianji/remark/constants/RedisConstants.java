@@ -1,9 +1,20 @@
 package com.tianji.remark.constants;
 
 public interface RedisConstants {
-    // 点赞记录的 key
+    // 点赞记录的 key，likes:set:biz:{shard}:{bizId}，第一个参数为业务 id所在点赞数分片的 hash tag
     String LIKES_BIZ_KEY_PREFIX = "likes:set:biz:";
-    // 点赞数量的 key
+    // 紧凑存储方式下点赞记录的 key，likes:iset:biz:{shard}:{bizId}:{slice}，第一个参数为业务 id所在点赞数分片的 hash tag
+    String LIKES_COMPACT_KEY_PREFIX = "likes:iset:biz:";
+    // 紧凑存储方式下点赞元数据的 key，likes:imeta:biz:{shard}:{bizId}，hash结构，记录分片数量、点赞总数和业务类型
+    String LIKES_COMPACT_META_KEY_PREFIX = "likes:imeta:biz:";
+    // 紧凑存储方式下业务最近点赞时间的 key，likes:iactive:{shard}，用于淘汰长时间没有点赞的业务
+    String LIKES_COMPACT_ACTIVE_KEY_PREFIX = "likes:iactive:";
+    // 点赞数量的 key，likes:times:types:{bizType}:{shard}，分片编号带花括号作为 hash tag
     String LIKES_TIMES_KEY_PREFIX = "likes:times:types:";
+    // 点赞数量分片中已读取、待确认发送结果的 key的后缀
+    String LIKES_TIMES_PENDING_SUFFIX = ":pending";
+    // 点赞数量分片刷新锁的 key的后缀
+    String LIKES_TIMES_LOCK_SUFFIX = ":lock";
+    // 旧版本不带分片的 key：点赞记录 likes:set:biz:{bizId}，点赞数量 likes:times:types:{bizType}，前缀与新版本相同
 
 }
@@ -39,4 +39,10 @@ public class LikedRecordController {
     public Set<Long> isBizLiked(@RequestParam("bizIds") List<Long> bizIds) {
         return recordService.isBizLiked(bizIds);
     }
+
+    @ApiOperation("批量查询点赞状态，返回与 bizIds顺序对齐的位图")
+    @GetMapping("/mask")
+    public long[] queryLikedMask(@RequestParam("bizIds") List<Long> bizIds) {
+        return recordService.queryLikedMask(bizIds);
+    }
 }
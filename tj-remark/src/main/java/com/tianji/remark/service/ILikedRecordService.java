@@ -21,5 +21,22 @@ public interface ILikedRecordService extends IService<LikedRecord> {
 
     Set<Long> isBizLiked(List<Long> bizIds);
 
-    void readLikedTimesAndSendMessage(String bizType, int maxBizSize);
+    /**
+     * 查询业务 id集合中每个的点赞状态，结果为与请求顺序对齐的位图，第 i个业务点赞时，第 i / 64个 long的第 i % 64位为 1
+     */
+    default long[] queryLikedMask(List<Long> bizIds) {
+        long[] mask = new long[(bizIds.size() + 63) >>> 6];
+        Set<Long> liked = isBizLiked(bizIds);
+        if (liked == null || liked.isEmpty()) {
+            return mask;
+        }
+        for (int i = 0; i < bizIds.size(); i++) {
+            if (liked.contains(bizIds.get(i))) {
+                mask[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return mask;
+    }
+
+    int readLikedTimesAndSendMessage(String bizType, int shard, int maxBizSize);
 }
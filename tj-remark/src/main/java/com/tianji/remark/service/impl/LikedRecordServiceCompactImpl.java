@@ -0,0 +1,338 @@
+package com.tianji.remark.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.tianji.common.exceptions.DbException;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.common.utils.UserContext;
+import com.tianji.remark.config.LikesProperties;
+import com.tianji.remark.constants.RedisConstants;
+import com.tianji.remark.domain.dto.LikeRecordFormDTO;
+import com.tianji.remark.domain.pojo.LikedRecord;
+import com.tianji.remark.mapper.LikedRecordMapper;
+import com.tianji.remark.service.ILikedRecordService;
+import com.tianji.remark.utils.LikedTimesShards;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * 点赞记录表 服务实现类 紧凑存储版本
+ * </p>
+ * 1. 每个业务的点赞用户按照用户 id拆分为多个小 Set，单个 Set的成员都是整数且数量较少时，Redis使用 intset编码，每个点赞只占 8字节
+ * 2. Set的数量随点赞数增长，单个 Set写满时数量翻倍，点赞再多也一直保持 intset编码
+ * 3. 点赞只写 Redis，长时间没有点赞的业务由淘汰任务写回数据库后从 Redis中删除，再次访问时从数据库加载
+ * 4. 元数据 hash记录 Set数量、点赞总数和业务类型，元数据存在表示缓存已加载，用于区分缓存未加载和业务没有点赞
+ * 5. 从 Redis存储方式(store=redis)切换过来时，点赞用户集合 likes:set:biz:...中的数据在第一次加载时合并进来，合并后删除
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "tj.remark.likes", name = "store", havingValue = "compact")
+public class LikedRecordServiceCompactImpl extends ServiceImpl<LikedRecordMapper, LikedRecord> implements ILikedRecordService {
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT;
+    private static final DefaultRedisScript<Long> EVICT_SCRIPT;
+    private static final DefaultRedisScript<Long> IS_LIKED_SCRIPT;
+    private static final long COLD = -2;
+    private static final long UNCHANGED = -1;
+    /**
+     * 用户 id先对 HASH_SPACE取模再对 Set数量取模，Lua中拆分 Set时可以精确计算，不受 id超过 2^53的影响
+     */
+    private static final int HASH_SPACE = 65536;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("lua/compact_like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+        LOAD_SCRIPT = new DefaultRedisScript<>();
+        LOAD_SCRIPT.setLocation(new ClassPathResource("lua/compact_like_load.lua"));
+        LOAD_SCRIPT.setResultType(Long.class);
+        EVICT_SCRIPT = new DefaultRedisScript<>();
+        EVICT_SCRIPT.setLocation(new ClassPathResource("lua/compact_evict.lua"));
+        EVICT_SCRIPT.setResultType(Long.class);
+        IS_LIKED_SCRIPT = new DefaultRedisScript<>();
+        IS_LIKED_SCRIPT.setLocation(new ClassPathResource("lua/compact_is_liked.lua"));
+        IS_LIKED_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final LikedTimesShards likedTimesShards;
+    private final LikesProperties likesProperties;
+
+    /**
+     * 用户点赞或者取消点赞
+     */
+    @Override
+    public void addLikeRecord(LikeRecordFormDTO recordFormDTO) {
+        Long userId = UserContext.getUser();
+        Long bizId = recordFormDTO.getBizId();
+        // 1. 执行点赞或者取消点赞，同时统计点赞总数并写入点赞数分片，缓存未加载时先从数据库加载再重试一次
+        List<String> keys = List.of(
+                metaKey(bizId),
+                likedTimesShards.keyOf(recordFormDTO.getBizType(), bizId),
+                activeKey(bizId));
+        for (int i = 0; i < 2; i++) {
+            Long result = redisTemplate.execute(LIKE_SCRIPT, keys,
+                    userId.toString(),
+                    recordFormDTO.getLiked() ? "1" : "0",
+                    bizId.toString(),
+                    String.valueOf(hashOf(userId)),
+                    String.valueOf(System.currentTimeMillis() / 1000),
+                    slicePrefix(bizId),
+                    String.valueOf(likesProperties.getCompactSliceEntries()),
+                    String.valueOf(likesProperties.getCompactMaxSlices()));
+            if (result == null || result != COLD) {
+                // 2. 重复点赞或者重复取消，直接结束，点赞只写 Redis，冷数据由淘汰任务写回数据库
+                return;
+            }
+            loadLikedUsers(bizId, recordFormDTO.getBizType());
+        }
+    }
+
+    /**
+     * 查询业务 id集合中每个的点赞状态
+     */
+    @Override
+    public Set<Long> isBizLiked(List<Long> bizIds) {
+        if (CollUtils.isEmpty(bizIds)) {
+            return null;
+        }
+        // 1. 获取登录用户
+        Long userId = UserContext.getUser();
+        String hash = String.valueOf(hashOf(userId));
+        String script = IS_LIKED_SCRIPT.getScriptAsString();
+        // 2. 通过管道一次查询所有业务的点赞状态，每个业务的 Set数量不同，由脚本定位用户所在的 Set
+        List<Object> list = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection src = (StringRedisConnection) connection;
+            for (Long bizId : bizIds) {
+                src.eval(script, ReturnType.INTEGER, 1, metaKey(bizId), userId.toString(), hash, slicePrefix(bizId));
+            }
+            return null;
+        });
+        // 3. 缓存未加载的业务，统一查询一次数据库
+        Set<Long> set = new HashSet<>();
+        List<Long> coldBizIds = new ArrayList<>();
+        for (int i = 0; i < bizIds.size(); i++) {
+            Object r = list.get(i);
+            if (!(r instanceof Long) || (Long) r == COLD) {
+                coldBizIds.add(bizIds.get(i));
+            } else if ((Long) r == 1L) {
+                set.add(bizIds.get(i));
+            }
+        }
+        if (CollUtils.isNotEmpty(coldBizIds)) {
+            lambdaQuery()
+                    .select(LikedRecord::getBizId)
+                    .eq(LikedRecord::getUserId, userId)
+                    .in(LikedRecord::getBizId, coldBizIds)
+                    .list()
+                    .forEach(r -> set.add(r.getBizId()));
+            // 还没有合并的 Redis存储方式的点赞用户集合
+            List<Object> members = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection src = (StringRedisConnection) connection;
+                for (Long bizId : coldBizIds) {
+                    for (String key : setStoreKeys(bizId)) {
+                        src.sIsMember(key, userId.toString());
+                    }
+                }
+                return null;
+            });
+            int keysPerBiz = members.size() / coldBizIds.size();
+            for (int i = 0; i < members.size(); i++) {
+                if (Boolean.TRUE.equals(members.get(i))) {
+                    set.add(coldBizIds.get(i / keysPerBiz));
+                }
+            }
+        }
+        // 4. 返回结果
+        if (CollUtils.isNotEmpty(set)) {
+            return set;
+        }
+        return null;
+    }
+
+    /**
+     * 读取指定业务类型的一个点赞数分片，然后通过 mq消息通知监听业务区更新点赞数量
+     */
+    @Override
+    public int readLikedTimesAndSendMessage(String bizType, int shard, int maxBizSize) {
+        return likedTimesShards.readAndSendMessage(bizType, shard, maxBizSize);
+    }
+
+    /**
+     * 淘汰一个分片中长时间没有点赞的业务，先把 Redis中的点赞用户写回数据库，再删除缓存
+     * 写回期间又有点赞变更的业务放弃淘汰，下次重新写回
+     * @return 本次处理的业务数量
+     */
+    public int evictColdLikes(int shard, int batchSize) {
+        // 1. 查询最近点赞时间早于过期时间的业务
+        String activeKey = RedisConstants.LIKES_COMPACT_ACTIVE_KEY_PREFIX + likedTimesShards.hashTagOf(shard);
+        long expireAt = System.currentTimeMillis() / 1000 - TimeUnit.DAYS.toSeconds(likesProperties.getCompactTtlDays());
+        Set<ZSetOperations.TypedTuple<String>> tuples =
+                redisTemplate.opsForZSet().rangeByScoreWithScores(activeKey, 0, expireAt, 0, batchSize);
+        if (CollUtils.isEmpty(tuples)) {
+            return 0;
+        }
+        int evicted = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            if (tuple.getValue() == null || tuple.getScore() == null) {
+                continue;
+            }
+            Long bizId = Long.valueOf(tuple.getValue());
+            // 2. 写回数据库
+            writeBack(bizId);
+            // 3. 删除缓存，写回期间有新的点赞时放弃
+            Long result = redisTemplate.execute(EVICT_SCRIPT, List.of(metaKey(bizId), activeKey),
+                    bizId.toString(),
+                    String.valueOf(tuple.getScore().longValue()),
+                    slicePrefix(bizId));
+            if (result != null && result == 1L) {
+                evicted++;
+            }
+        }
+        log.debug("淘汰分片 {} 中的冷点赞记录，共 {} 个业务，成功 {} 个", shard, tuples.size(), evicted);
+        return tuples.size();
+    }
+
+    /**
+     * 把业务在 Redis中的点赞用户写回数据库，只写入差异部分，重复执行不会产生重复记录
+     */
+    private void writeBack(Long bizId) {
+        // 1. 读取元数据和所有点赞用户
+        Map<Object, Object> meta = redisTemplate.opsForHash().entries(metaKey(bizId));
+        Object n = meta.get("n");
+        if (n == null) {
+            return;
+        }
+        int slices = Integer.parseInt(n.toString());
+        String prefix = slicePrefix(bizId);
+        List<Object> members = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection src = (StringRedisConnection) connection;
+            for (int i = 0; i < slices; i++) {
+                src.sMembers(prefix + i);
+            }
+            return null;
+        });
+        Set<Long> cached = new HashSet<>();
+        for (Object m : members) {
+            if (m instanceof Collection) {
+                for (Object userId : (Collection<?>) m) {
+                    cached.add(Long.valueOf(userId.toString()));
+                }
+            }
+        }
+        // 2. 与数据库比较，新增缓存中多出的点赞，删除缓存中已经取消的点赞
+        Set<Long> stored = lambdaQuery()
+                .select(LikedRecord::getUserId)
+                .eq(LikedRecord::getBizId, bizId)
+                .list()
+                .stream()
+                .map(LikedRecord::getUserId)
+                .collect(Collectors.toSet());
+        String bizType = String.valueOf(meta.get("t"));
+        List<LikedRecord> added = cached.stream()
+                .filter(userId -> !stored.contains(userId))
+                .map(userId -> new LikedRecord().setUserId(userId).setBizId(bizId).setBizType(bizType))
+                .collect(Collectors.toList());
+        if (CollUtils.isNotEmpty(added) && !saveBatch(added)) {
+            throw new DbException("写回点赞记录失败");
+        }
+        List<Long> removed = stored.stream()
+                .filter(userId -> !cached.contains(userId))
+                .collect(Collectors.toList());
+        if (CollUtils.isNotEmpty(removed)) {
+            lambdaUpdate()
+                    .eq(LikedRecord::getBizId, bizId)
+                    .in(LikedRecord::getUserId, removed)
+                    .remove();
+        }
+    }
+
+    /**
+     * 从数据库以及 Redis存储方式的点赞用户集合加载业务的所有点赞用户，Set数量根据点赞数计算，已被其它请求加载时放弃
+     */
+    private void loadLikedUsers(Long bizId, String bizType) {
+        // 1. 查询点赞用户，数据库中是淘汰写回的点赞，点赞用户集合中是切换存储方式前的点赞
+        Set<Long> userIds = lambdaQuery()
+                .select(LikedRecord::getUserId)
+                .eq(LikedRecord::getBizId, bizId)
+                .list()
+                .stream()
+                .map(LikedRecord::getUserId)
+                .collect(Collectors.toSet());
+        List<String> setStoreKeys = setStoreKeys(bizId);
+        for (String key : setStoreKeys) {
+            Set<String> members = redisTemplate.opsForSet().members(key);
+            if (CollUtils.isNotEmpty(members)) {
+                members.forEach(m -> userIds.add(Long.valueOf(m)));
+            }
+        }
+        // 2. 每个 Set预留一半空间，Set数量为 2的幂
+        int slices = slicesOf(userIds.size());
+        // 3. 分片下标与用户 id交替排列，由 Lua脚本原子地写入缓存和元数据，并删除已经合并的点赞用户集合
+        List<String> args = new ArrayList<>(userIds.size() * 2 + 5);
+        args.add(String.valueOf(slices));
+        args.add(bizType);
+        args.add(bizId.toString());
+        args.add(String.valueOf(System.currentTimeMillis() / 1000));
+        args.add(slicePrefix(bizId));
+        for (Long userId : userIds) {
+            args.add(String.valueOf(hashOf(userId) % slices));
+            args.add(userId.toString());
+        }
+        List<String> keys = new ArrayList<>(2 + setStoreKeys.size());
+        keys.add(metaKey(bizId));
+        keys.add(activeKey(bizId));
+        keys.addAll(setStoreKeys);
+        redisTemplate.execute(LOAD_SCRIPT, keys, args.toArray());
+        log.debug("加载业务 {} 的点赞记录，共 {} 条，{} 个分片", bizId, userIds.size(), slices);
+    }
+
+    /**
+     * Redis存储方式下的点赞用户集合，兼容旧数据时包括旧版本不分片的 key
+     */
+    private List<String> setStoreKeys(Long bizId) {
+        return likesProperties.isMigrateLegacyKeys()
+                ? List.of(likedTimesShards.bizKey(bizId), LikedTimesShards.legacyBizKey(bizId))
+                : List.of(likedTimesShards.bizKey(bizId));
+    }
+
+    private int slicesOf(int likedTimes) {
+        int perSlice = Math.max(1, likesProperties.getCompactSliceEntries() / 2);
+        int slices = 1;
+        while (slices < likesProperties.getCompactMaxSlices() && (long) slices * perSlice < likedTimes) {
+            slices <<= 1;
+        }
+        return slices;
+    }
+
+    private static int hashOf(Long userId) {
+        return (int) Math.floorMod(userId, (long) HASH_SPACE);
+    }
+
+    private String metaKey(Long bizId) {
+        return RedisConstants.LIKES_COMPACT_META_KEY_PREFIX + likedTimesShards.hashTagOf(bizId) + ":" + bizId;
+    }
+
+    private String activeKey(Long bizId) {
+        return RedisConstants.LIKES_COMPACT_ACTIVE_KEY_PREFIX + likedTimesShards.hashTagOf(bizId);
+    }
+
+    private String slicePrefix(Long bizId) {
+        return RedisConstants.LIKES_COMPACT_KEY_PREFIX + likedTimesShards.hashTagOf(bizId) + ":" + bizId + ":";
+    }
+}
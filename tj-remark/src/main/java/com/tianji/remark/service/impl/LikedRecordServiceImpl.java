@@ -116,7 +116,7 @@ public class LikedRecordServiceImpl extends ServiceImpl<LikedRecordMapper, Liked
     }
 
     @Override
-    public void readLikedTimesAndSendMessage(String bizType, int maxBizSize) {
-
+    public int readLikedTimesAndSendMessage(String bizType, int shard, int maxBizSize) {
+        return 0;
     }
 }
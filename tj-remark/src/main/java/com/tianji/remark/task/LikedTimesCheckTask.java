@@ -1,26 +1,133 @@
 package com.tianji.remark.task;
 
+import com.tianji.remark.config.LikesProperties;
+import com.tianji.remark.constants.RedisConstants;
 import com.tianji.remark.service.ILikedRecordService;
+import com.tianji.remark.utils.LikedTimesShards;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class LikedTimesCheckTask {
     private static final List<String> BIZ_TYPES = List.of("QA", "NOTE");
-    private static final int MAX_BIZ_SIZE = 50;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
 
     private final ILikedRecordService recordService;
+    private final StringRedisTemplate redisTemplate;
+    private final LikedTimesShards likedTimesShards;
+    private final LikesProperties likesProperties;
+
+    private ThreadPoolTaskExecutor executor;
+    // 旧版本点赞数已经发送完的业务类型
+    private final Set<String> legacyDrained = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(likesProperties.getFlushThreads());
+        executor.setMaxPoolSize(likesProperties.getFlushThreads());
+        executor.setQueueCapacity(BIZ_TYPES.size() * LikedTimesShards.SHARDS);
+        executor.setThreadNamePrefix("liked-times-flush-");
+        executor.initialize();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
 
-    // 设置任务执行之间的间隔
-    @Scheduled(fixedDelay = 20000)
+    // 设置任务执行之间的间隔，各个分片并行刷新，每个分片读到为空为止，点赞数可以在几秒内同步到业务方
+    @Scheduled(fixedDelay = 2000)
     public void checkLikedTimes() {
+        // 旧版本的点赞数先于分片发送，避免旧的点赞总数覆盖新的
+        if (likesProperties.isMigrateLegacyKeys()) {
+            drainLegacy();
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(BIZ_TYPES.size() * LikedTimesShards.SHARDS);
         for (String bizType : BIZ_TYPES) {
-            // 传入当前业务类型，以及每个任务读取的数据数量
-            recordService.readLikedTimesAndSendMessage(bizType, MAX_BIZ_SIZE);
+            for (int shard = 0; shard < LikedTimesShards.SHARDS; shard++) {
+                int s = shard;
+                futures.add(CompletableFuture.runAsync(() -> flushShard(bizType, s), executor));
+            }
+        }
+        // 等待本轮所有分片刷新完成，再开始下一轮
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * 发送旧版本不分片的点赞数 ZSet，读到为空后本节点不再读取
+     */
+    private void drainLegacy() {
+        for (String bizType : BIZ_TYPES) {
+            if (legacyDrained.contains(bizType)) {
+                continue;
+            }
+            try {
+                int batchSize = likesProperties.getMaxBatchSize();
+                for (int i = 0; i < likesProperties.getMaxRounds(); i++) {
+                    if (likedTimesShards.readLegacyAndSendMessage(bizType, batchSize) < batchSize) {
+                        legacyDrained.add(bizType);
+                        log.info("旧版本点赞数{}发送完成", bizType);
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("发送旧版本点赞数{}失败", bizType, e);
+            }
+        }
+    }
+
+    /**
+     * 刷新一个分片，分片持续积压时批次大小翻倍，直到分片为空
+     */
+    private void flushShard(String bizType, int shard) {
+        // 1. 获取分片的刷新锁，同一时刻只有一个节点刷新同一个分片
+        String lockKey = likedTimesShards.keyOf(bizType, shard) + RedisConstants.LIKES_TIMES_LOCK_SUFFIX;
+        String token = UUID.randomUUID().toString();
+        Boolean locked = redisTemplate.opsForValue()
+                .setIfAbsent(lockKey, token, Duration.ofSeconds(likesProperties.getFlushLockSeconds()));
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            // 2. 根据积压情况调整批次大小，读到为空为止
+            int batchSize = likesProperties.getMinBatchSize();
+            for (int i = 0; i < likesProperties.getMaxRounds(); i++) {
+                int size = recordService.readLikedTimesAndSendMessage(bizType, shard, batchSize);
+                if (size < batchSize) {
+                    break;
+                }
+                batchSize = Math.min(batchSize * 2, likesProperties.getMaxBatchSize());
+            }
+        } catch (Exception e) {
+            log.error("刷新点赞数分片{}:{}失败", bizType, shard, e);
+        } finally {
+            // 3. 释放自己持有的锁，比较 token和删除由 Lua脚本原子地完成
+            redisTemplate.execute(UNLOCK_SCRIPT, List.of(lockKey), token);
         }
     }
 }
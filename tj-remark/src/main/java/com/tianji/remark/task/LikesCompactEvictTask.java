@@ -0,0 +1,76 @@
+package com.tianji.remark.task;
+
+import com.tianji.remark.config.LikesProperties;
+import com.tianji.remark.constants.RedisConstants;
+import com.tianji.remark.service.impl.LikedRecordServiceCompactImpl;
+import com.tianji.remark.utils.LikedTimesShards;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 紧凑存储方式下，定时把长时间没有点赞的业务写回数据库并从 Redis中淘汰
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "tj.remark.likes", name = "store", havingValue = "compact")
+public class LikesCompactEvictTask {
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private final LikedRecordServiceCompactImpl recordService;
+    private final StringRedisTemplate redisTemplate;
+    private final LikedTimesShards likedTimesShards;
+    private final LikesProperties likesProperties;
+
+    @Scheduled(fixedDelay = 600_000)
+    public void evictColdLikes() {
+        for (int shard = 0; shard < LikedTimesShards.SHARDS; shard++) {
+            evictShard(shard);
+        }
+    }
+
+    /**
+     * 淘汰一个分片中的冷数据，同一时刻只有一个节点处理同一个分片，避免重复写回数据库
+     */
+    private void evictShard(int shard) {
+        // 1. 获取分片的淘汰锁
+        String lockKey = RedisConstants.LIKES_COMPACT_ACTIVE_KEY_PREFIX + likedTimesShards.hashTagOf(shard)
+                + RedisConstants.LIKES_TIMES_LOCK_SUFFIX;
+        String token = UUID.randomUUID().toString();
+        Boolean locked = redisTemplate.opsForValue()
+                .setIfAbsent(lockKey, token, Duration.ofSeconds(likesProperties.getFlushLockSeconds()));
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            // 2. 分批淘汰，直到没有冷数据
+            int batchSize = likesProperties.getCompactEvictBatchSize();
+            for (int i = 0; i < likesProperties.getMaxRounds(); i++) {
+                if (recordService.evictColdLikes(shard, batchSize) < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("淘汰点赞记录分片{}失败", shard, e);
+        } finally {
+            // 3. 释放自己持有的锁
+            redisTemplate.execute(UNLOCK_SCRIPT, List.of(lockKey), token);
+        }
+    }
+}
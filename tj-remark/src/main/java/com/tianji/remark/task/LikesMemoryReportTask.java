@@ -0,0 +1,69 @@
+package com.tianji.remark.task;
+
+import com.tianji.remark.constants.RedisConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 抽样统计两种点赞记录存储方式的内存占用，输出每百万点赞占用的字节数，便于比较和评估切换存储方式的收益
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LikesMemoryReportTask {
+    // 每种存储方式最多抽样的 key数量
+    private static final int SAMPLE_KEYS = 1000;
+
+    private final StringRedisTemplate redisTemplate;
+
+    @Scheduled(cron = "0 0 3 * * ?")
+    public void report() {
+        report("set", RedisConstants.LIKES_BIZ_KEY_PREFIX);
+        report("compact", RedisConstants.LIKES_COMPACT_KEY_PREFIX);
+    }
+
+    private void report(String store, String keyPrefix) {
+        long[] result = redisTemplate.execute((RedisCallback<long[]>) connection -> sample(connection, keyPrefix));
+        if (result == null || result[1] == 0) {
+            log.info("点赞记录内存统计，存储方式：{}，没有数据", store);
+            return;
+        }
+        long keys = result[0], likes = result[1], bytes = result[2];
+        log.info("点赞记录内存统计，存储方式：{}，抽样 key：{}，点赞数：{}，内存：{} 字节，每个点赞：{} 字节，每百万点赞：{} MB",
+                store, keys, likes, bytes,
+                String.format("%.1f", (double) bytes / likes),
+                String.format("%.1f", (double) bytes / likes * 1_000_000 / 1024 / 1024));
+    }
+
+    /**
+     * 通过 SCAN抽样 key，MEMORY USAGE统计内存，SCARD统计点赞数
+     * @return key数量、点赞数量、内存字节数
+     */
+    private long[] sample(RedisConnection connection, String keyPrefix) {
+        long keys = 0, likes = 0, bytes = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(keyPrefix + "*").count(SAMPLE_KEYS).build();
+        try (Cursor<byte[]> cursor = connection.scan(options)) {
+            while (cursor.hasNext() && keys < SAMPLE_KEYS) {
+                byte[] key = cursor.next();
+                Object usage = connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), key);
+                Long size = connection.sCard(key);
+                if (!(usage instanceof Long) || size == null) {
+                    continue;
+                }
+                keys++;
+                likes += size;
+                bytes += (Long) usage;
+            }
+        }
+        return new long[]{keys, likes, bytes};
+    }
+}
@@ -0,0 +1,164 @@
+package com.tianji.remark.utils;
+
+import com.tianji.api.remark.LikeTimesDTO;
+import com.tianji.common.autoconfigure.mq.RabbitMqHelper;
+import com.tianji.common.utils.CollUtils;
+import com.tianji.common.utils.StringUtils;
+import com.tianji.remark.constants.RedisConstants;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.tianji.common.constants.MqConstants.Exchange.LIKE_RECORD_EXCHANGE;
+import static com.tianji.common.constants.MqConstants.Key.LIKED_TIMES_KEY_TEMPLATE;
+
+/**
+ * 点赞数分片，likes:times:types:{bizType}:{shard}，不同的点赞记录存储方式共用
+ * <p>
+ * 分片编号同时是点赞记录 key的 hash tag，是 key的一部分，因此分片数量是固定的常量而不是配置项，
+ * 修改分片数量会使所有已有的点赞 key失效
+ */
+@Component
+@RequiredArgsConstructor
+public class LikedTimesShards {
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> DRAIN_SCRIPT;
+
+    static {
+        DRAIN_SCRIPT = new DefaultRedisScript<>();
+        DRAIN_SCRIPT.setLocation(new ClassPathResource("lua/liked_times_drain.lua"));
+        DRAIN_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * 每种业务类型的点赞数 ZSet分片数量，bizId按照哈希值分散到不同分片，Redis Cluster下点赞数据分布在这些 slot中
+     */
+    public static final int SHARDS = 8;
+
+    private final StringRedisTemplate redisTemplate;
+    private final RabbitMqHelper mqHelper;
+
+    /**
+     * 业务 id所在的点赞数分片的 key
+     */
+    public String keyOf(String bizType, Long bizId) {
+        return keyOf(bizType, shardOf(bizId));
+    }
+
+    /**
+     * 点赞数分片的 key，分片编号作为 hash tag，分片的待确认集合、刷新锁以及分片内业务的点赞记录都位于同一个 slot
+     */
+    public String keyOf(String bizType, int shard) {
+        return RedisConstants.LIKES_TIMES_KEY_PREFIX + bizType + ":" + hashTagOf(shard);
+    }
+
+    /**
+     * 业务 id所在分片的 hash tag，点赞记录的 key带上这个 tag，Lua脚本在 Redis Cluster下不会跨 slot
+     */
+    public String hashTagOf(Long bizId) {
+        return hashTagOf(shardOf(bizId));
+    }
+
+    public String hashTagOf(int shard) {
+        return "{" + shard + "}";
+    }
+
+    private int shardOf(Long bizId) {
+        return Math.floorMod(bizId.hashCode(), SHARDS);
+    }
+
+    /**
+     * Redis存储方式(store=redis)下业务的点赞用户集合 key，likes:set:biz:{shard}:{bizId}
+     */
+    public String bizKey(Long bizId) {
+        return RedisConstants.LIKES_BIZ_KEY_PREFIX + hashTagOf(bizId) + ":" + bizId;
+    }
+
+    /**
+     * 旧版本不分片的点赞记录 key
+     */
+    public static String legacyBizKey(Long bizId) {
+        return RedisConstants.LIKES_BIZ_KEY_PREFIX + bizId;
+    }
+
+    /**
+     * 旧版本不分片的点赞数 key
+     */
+    public static String legacyTimesKey(String bizType) {
+        return RedisConstants.LIKES_TIMES_KEY_PREFIX + bizType;
+    }
+
+    /**
+     * 读取指定业务类型的一个点赞数分片，然后通过 mq消息通知监听业务区更新点赞数量
+     * 读取的数据先移入待确认集合，消息发送成功后才删除，发送失败的数据在下次读取时重新放回分片
+     * @return 本次发送的点赞数数量
+     */
+    @SuppressWarnings("unchecked")
+    public int readAndSendMessage(String bizType, int shard, int maxBizSize) {
+        // 1. 读取并移除 Redis中缓存的点赞总数
+        // 建议从小到大读取数据，因为 score较大的数据对点赞没有 score较小的数据敏感
+        String key = keyOf(bizType, shard);
+        String pendingKey = key + RedisConstants.LIKES_TIMES_PENDING_SUFFIX;
+        List<String> items = redisTemplate.execute(DRAIN_SCRIPT, List.of(key, pendingKey), String.valueOf(maxBizSize));
+        if (CollUtils.isEmpty(items)) return 0;
+        // 2. 数据转换，结果为 member、score交替排列
+        List<LikeTimesDTO> list = new ArrayList<>(items.size() / 2);
+        for (int i = 0; i + 1 < items.size(); i += 2) {
+            String bizId = items.get(i);
+            String likedTimes = items.get(i + 1);
+            if (Objects.isNull(bizId) || Objects.isNull(likedTimes)) {
+                continue;
+            }
+            list.add(LikeTimesDTO.of(Long.valueOf(bizId), Double.valueOf(likedTimes).intValue()));
+        }
+        // 3. 发送MQ，点赞数是总数而不是增量，重复发送不会影响结果
+        mqHelper.send(
+                LIKE_RECORD_EXCHANGE,
+                StringUtils.format(LIKED_TIMES_KEY_TEMPLATE, bizType),
+                list
+        );
+        // 4. 发送成功，确认数据
+        redisTemplate.delete(pendingKey);
+        return list.size();
+    }
+
+    /**
+     * 读取旧版本不分片的点赞数 ZSet并发送 mq消息，发送失败时放回，已有更新的点赞数时保留新的
+     * @return 本次发送的点赞数数量
+     */
+    public int readLegacyAndSendMessage(String bizType, int maxBizSize) {
+        // 1. 读取并移除
+        String key = legacyTimesKey(bizType);
+        Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet().popMin(key, maxBizSize);
+        if (CollUtils.isEmpty(tuples)) return 0;
+        // 2. 数据转换
+        List<LikeTimesDTO> list = new ArrayList<>(tuples.size());
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            if (Objects.isNull(tuple.getValue()) || Objects.isNull(tuple.getScore())) {
+                continue;
+            }
+            list.add(LikeTimesDTO.of(Long.valueOf(tuple.getValue()), tuple.getScore().intValue()));
+        }
+        // 3. 发送MQ，失败时放回
+        try {
+            mqHelper.send(
+                    LIKE_RECORD_EXCHANGE,
+                    StringUtils.format(LIKED_TIMES_KEY_TEMPLATE, bizType),
+                    list
+            );
+        } catch (RuntimeException e) {
+            redisTemplate.opsForZSet().addIfAbsent(key, tuples);
+            throw e;
+        }
+        return list.size();
+    }
+}
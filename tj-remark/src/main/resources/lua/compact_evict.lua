@@ -0,0 +1,21 @@
+-- 紧凑存储方式下淘汰已经写回数据库的冷数据
+-- KEYS[1]：业务的点赞元数据，likes:imeta:biz:{shard}:{bizId}
+-- KEYS[2]：业务最近点赞时间，likes:iactive:{shard}
+-- 点赞用户分片 likes:iset:biz:{shard}:{bizId}:{slice}与元数据使用相同的 hash tag，Redis Cluster下位于同一个 slot
+-- ARGV[1]：业务id，ARGV[2]：写回数据库前读到的最近点赞时间，ARGV[3]：点赞用户分片 key的前缀
+-- 返回值：0表示写回数据库之后又有点赞变更，放弃淘汰，1表示淘汰成功
+
+-- 1. 写回期间有新的点赞，数据库中的数据已经不是最新的，保留缓存，下次再淘汰
+local active = redis.call('ZSCORE', KEYS[2], ARGV[1])
+if not active or tonumber(active) ~= tonumber(ARGV[2]) then
+    return 0
+end
+
+-- 2. 删除点赞用户分片和元数据
+local n = tonumber(redis.call('HGET', KEYS[1], 'n')) or 0
+for i = 0, n - 1 do
+    redis.call('UNLINK', ARGV[3] .. i)
+end
+redis.call('UNLINK', KEYS[1])
+redis.call('ZREM', KEYS[2], ARGV[1])
+return 1
@@ -0,0 +1,11 @@
+-- 紧凑存储方式下查询用户是否点赞了业务
+-- KEYS[1]：业务的点赞元数据，likes:imeta:biz:{shard}:{bizId}
+-- 点赞用户分片 likes:iset:biz:{shard}:{bizId}:{slice}与元数据使用相同的 hash tag，Redis Cluster下位于同一个 slot
+-- ARGV[1]：用户id，ARGV[2]：用户 id对 65536取模的值，ARGV[3]：点赞用户分片 key的前缀
+-- 返回值：-2表示缓存未加载，1表示已点赞，0表示未点赞
+
+local n = tonumber(redis.call('HGET', KEYS[1], 'n'))
+if not n then
+    return -2
+end
+return redis.call('SISMEMBER', ARGV[3] .. (tonumber(ARGV[2]) % n), ARGV[1])
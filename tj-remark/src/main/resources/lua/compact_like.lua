@@ -0,0 +1,66 @@
+-- 紧凑存储方式下用户点赞或者取消点赞，同时更新业务的点赞总数
+-- KEYS[1]：业务的点赞元数据，likes:imeta:biz:{shard}:{bizId}，hash结构，n-分片数量，c-点赞总数，t-业务类型
+-- KEYS[2]：业务类型的点赞数分片，likes:times:types:{bizType}:{shard}
+-- KEYS[3]：业务最近点赞时间，likes:iactive:{shard}，冷数据淘汰任务据此将长时间没有点赞的业务写回数据库
+-- 点赞用户分片 likes:iset:biz:{shard}:{bizId}:{slice}的数量随点赞数增长，无法提前声明，
+-- 所有 key都以点赞数分片编号 {shard}作为 hash tag，Redis Cluster下位于同一个 slot
+-- ARGV[1]：用户id，ARGV[2]：1-点赞，0-取消点赞，ARGV[3]：业务id，ARGV[4]：用户 id对 65536取模的值，
+-- ARGV[5]：当前时间，单位秒，ARGV[6]：点赞用户分片 key的前缀，ARGV[7]：单个分片的最大成员数量，ARGV[8]：最大分片数量
+-- 返回值：-2表示缓存未加载，-1表示重复点赞或者重复取消，否则返回最新的点赞总数
+
+-- 用户 id对 65536取模，逐位计算，避免 Lua中超过 2^53的 id丢失精度
+local function hashOf(member)
+    local h = 0
+    for i = 1, #member do
+        h = (h * 10 + string.byte(member, i) - 48) % 65536
+    end
+    return h
+end
+
+-- 1. 缓存未加载，由调用方从数据库加载后重试
+local n = tonumber(redis.call('HGET', KEYS[1], 'n'))
+if not n then
+    return -2
+end
+local prefix = ARGV[6]
+local hash = tonumber(ARGV[4])
+local key = prefix .. (hash % n)
+
+-- 2. 点赞时分片已满，分片数量翻倍，第 i个分片中的用户只会移动到第 i + n个分片，
+-- 在写入之前拆分，保证每个分片都不超过 set-max-intset-entries，一直保持 intset编码
+local changed
+if ARGV[2] == '1' then
+    if redis.call('SISMEMBER', key, ARGV[1]) == 1 then
+        return -1
+    end
+    if n < tonumber(ARGV[8]) and redis.call('SCARD', key) >= tonumber(ARGV[7]) then
+        for i = 0, n - 1 do
+            local from = prefix .. i
+            local moved = {}
+            for _, m in ipairs(redis.call('SMEMBERS', from)) do
+                if hashOf(m) % (2 * n) >= n then
+                    moved[#moved + 1] = m
+                end
+            end
+            if #moved > 0 then
+                redis.call('SREM', from, unpack(moved))
+                redis.call('SADD', prefix .. (i + n), unpack(moved))
+            end
+        end
+        n = 2 * n
+        redis.call('HSET', KEYS[1], 'n', n)
+        key = prefix .. (hash % n)
+    end
+    changed = redis.call('SADD', key, ARGV[1])
+else
+    changed = redis.call('SREM', key, ARGV[1])
+end
+if changed == 0 then
+    return -1
+end
+
+-- 3. 更新点赞总数，写入点赞数分片，并记录最近点赞时间
+local likedTimes = redis.call('HINCRBY', KEYS[1], 'c', ARGV[2] == '1' and 1 or -1)
+redis.call('ZADD', KEYS[2], likedTimes, ARGV[3])
+redis.call('ZADD', KEYS[3], ARGV[5], ARGV[3])
+return likedTimes
@@ -0,0 +1,29 @@
+-- 紧凑存储方式下从数据库以及 Redis存储方式的点赞用户集合加载业务的点赞用户
+-- KEYS[1]：业务的点赞元数据，likes:imeta:biz:{shard}:{bizId}
+-- KEYS[2]：业务最近点赞时间，likes:iactive:{shard}
+-- KEYS[3..]：已经合并到 ARGV中的 Redis存储方式的点赞用户集合，likes:set:biz:{shard}:{bizId}，
+-- 兼容旧数据时还有旧版本的 likes:set:biz:{bizId}，加载成功后删除，避免淘汰后重新加载时读到已经取消的点赞
+-- 点赞用户分片 likes:iset:biz:{shard}:{bizId}:{slice}与元数据使用相同的 hash tag，Redis Cluster下位于同一个 slot
+-- ARGV[1]：分片数量，ARGV[2]：业务类型，ARGV[3]：业务id，ARGV[4]：当前时间，单位秒，ARGV[5]：点赞用户分片 key的前缀，
+-- ARGV[6..]：分片下标(从0开始)与用户id交替排列
+-- 返回值：0表示已被其它请求加载，1表示加载成功
+
+-- 1. 已加载过则放弃，避免用加载前读到的旧数据覆盖之后的点赞变更
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    return 0
+end
+
+-- 2. 写入点赞用户，用户 id以字符串传递，避免 Lua中超过 2^53的 id丢失精度
+for i = 6, #ARGV, 2 do
+    redis.call('SADD', ARGV[5] .. ARGV[i], ARGV[i + 1])
+end
+
+-- 3. 写入元数据，元数据存在即表示已加载，并记录访问时间，长时间没有点赞时由淘汰任务写回数据库
+redis.call('HSET', KEYS[1], 'n', ARGV[1], 'c', (#ARGV - 5) / 2, 't', ARGV[2])
+redis.call('ZADD', KEYS[2], ARGV[4], ARGV[3])
+
+-- 4. 删除已经合并的点赞用户集合
+for i = 3, #KEYS do
+    redis.call('DEL', KEYS[i])
+end
+return 1
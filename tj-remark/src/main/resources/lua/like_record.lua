@@ -0,0 +1,32 @@
+-- 用户点赞或者取消点赞，同时更新业务的点赞总数
+-- KEYS[1]：业务的点赞用户集合，likes:set:biz:{shard}:{bizId}
+-- KEYS[2]：业务类型的点赞数分片，likes:times:types:{bizType}:{shard}
+-- 以上 key都以点赞数分片编号 {shard}作为 hash tag，Redis Cluster下位于同一个 slot
+-- KEYS[3]、KEYS[4]：可选，旧版本的点赞用户集合 likes:set:biz:{bizId}和点赞数 likes:times:types:{bizType}，兼容旧数据时传入
+-- ARGV[1]：用户id，ARGV[2]：1-点赞，0-取消点赞，ARGV[3]：业务id
+-- 返回值：-1表示重复点赞或者重复取消，否则返回最新的点赞总数
+
+-- 1. 旧版本的点赞用户合并到新 key，旧的待发送点赞数删除，由下面写入的合并后的总数代替
+local migrated = false
+if #KEYS >= 4 and redis.call('EXISTS', KEYS[3]) == 1 then
+    redis.call('SUNIONSTORE', KEYS[1], KEYS[1], KEYS[3])
+    redis.call('DEL', KEYS[3])
+    redis.call('ZREM', KEYS[4], ARGV[3])
+    migrated = true
+end
+
+-- 2. 点赞或者取消点赞
+local changed
+if ARGV[2] == '1' then
+    changed = redis.call('SADD', KEYS[1], ARGV[1])
+else
+    changed = redis.call('SREM', KEYS[1], ARGV[1])
+end
+if changed == 0 and not migrated then
+    return -1
+end
+
+-- 3. 统计点赞总数，写入点赞数分片
+local likedTimes = redis.call('SCARD', KEYS[1])
+redis.call('ZADD', KEYS[2], likedTimes, ARGV[3])
+return likedTimes
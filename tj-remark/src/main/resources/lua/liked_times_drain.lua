@@ -0,0 +1,19 @@
+-- 从点赞数分片中读取一批待发送的点赞数，并移入待确认集合，发送成功后再从待确认集合中删除
+-- KEYS[1]：点赞数分片，likes:times:types:{bizType}:{shard}
+-- KEYS[2]：待确认集合，likes:times:types:{bizType}:{shard}:pending
+-- 所有 key都以点赞数分片编号 {shard}作为 hash tag，Redis Cluster下位于同一个 slot
+-- ARGV[1]：读取的最大数量
+
+-- 1. 上次发送失败遗留的数据放回分片，分片中已经有更新的点赞数时保留新的
+local pending = redis.call('ZRANGE', KEYS[2], 0, -1, 'WITHSCORES')
+for i = 1, #pending, 2 do
+    redis.call('ZADD', KEYS[1], 'NX', pending[i + 1], pending[i])
+end
+redis.call('DEL', KEYS[2])
+
+-- 2. 读取点赞数，并移入待确认集合
+local items = redis.call('ZPOPMIN', KEYS[1], ARGV[1])
+for i = 1, #items, 2 do
+    redis.call('ZADD', KEYS[2], items[i + 1], items[i])
+end
+return items
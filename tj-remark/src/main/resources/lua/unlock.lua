@@ -0,0 +1,9 @@
+-- 释放自己持有的锁，比较和删除在同一个脚本中完成，避免锁过期后误删其它节点的锁
+-- KEYS[1]：锁的 key
+-- ARGV[1]：加锁时写入的 token
+-- 返回值：1表示释放成功，0表示锁已经不属于自己
+
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0